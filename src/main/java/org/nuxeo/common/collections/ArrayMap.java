@@ -21,7 +21,16 @@
 
 package org.nuxeo.common.collections;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * A mixture of an array list and a map used to store
@@ -30,18 +39,41 @@ import java.util.Map;
  * This map accepts null values.
  * <p>
  * The map is implemented using an array of successive [key, value] pairs.
+ * Keys are looked up by scanning the array as long as the map holds at most
+ * {@link #INDEX_THRESHOLD} entries. Larger maps also maintain an open
+ * addressing table of the positions of the keys, so that lookups stay in
+ * constant time.
+ * <p>
+ * Entries keep their insertion order. A key added more than once using
+ * {@link #add(Object, Object)} is bound to its first value.
  *
  * @author  <a href="mailto:bs@nuxeo.com">Bogdan Stefanescu</a>
  */
-@SuppressWarnings({"ClassWithoutToString"})
-public class ArrayMap<K, V> {
+public class ArrayMap<K, V> extends AbstractMap<K, V> {
 
     // 4 keys, 4 values
     protected static final int DEFAULT_SIZE = 8;
     protected static final int GROW_SIZE = 10;
+
+    /**
+     * The number of entries above which keys are indexed.
+     *
+     * @since 7.1
+     */
+    public static final int INDEX_THRESHOLD = 8;
+
     protected int count = 0;
     protected Object[] elements;
 
+    // positions + 1 of the first pair of each key, null if not indexed
+    private int[] index;
+
+    // whether a key was added more than once since the index was built
+    private boolean duplicates;
+
+    private transient int modCount;
+
+    private transient Set<Map.Entry<K, V>> entrySet;
 
     public ArrayMap() {
     }
@@ -59,26 +91,30 @@ public class ArrayMap<K, V> {
         count = map.count;
         elements = new Object[map.elements.length];
         System.arraycopy(map.elements, 0, elements, 0, count * 2);
-    }
-
-    public void putAll(Map<K, V> map) {
-        for (Map.Entry<K, V> entry : map.entrySet()) {
-            K key = entry.getKey();
-            V value = entry.getValue();
-            add(key, value);
+        if (map.index != null) {
+            index = map.index.clone();
+            duplicates = map.duplicates;
         }
     }
 
-    public V remove(K key) {
-        if (elements == null || count == 0) {
-            return null;
-        }
-        for (int i = 0; i < elements.length; i += 2) {
-            if (elements[i] != null && elements[i].equals(key)) {
-                return _remove(i);
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        if (count == 0) {
+            // no existing key to replace
+            for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+                add(entry.getKey(), entry.getValue());
+            }
+        } else {
+            for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
             }
         }
-        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : _remove(i);
     }
 
     public V remove(int index) {
@@ -88,8 +124,14 @@ public class ArrayMap<K, V> {
         return _remove(index << 1);
     }
 
+    @SuppressWarnings("unchecked")
     protected final V _remove(int i) {
         V result = (V) elements[i + 1];
+        if (index != null && count - 1 > INDEX_THRESHOLD && !duplicates) {
+            removeFromIndex(i);
+        } else {
+            index = null;
+        }
         int len = count * 2;
         if (i + 2 == len) {
             elements[i] = null;
@@ -97,23 +139,26 @@ public class ArrayMap<K, V> {
         } else {
             int k = i + 2;
             System.arraycopy(elements, k, elements, i, len - k);
+            elements[len - 2] = null;
+            elements[len - 1] = null;
         }
         count--;
+        modCount++;
+        if (index == null && count > INDEX_THRESHOLD) {
+            // the first position of a key added again may have changed
+            index = buildIndex();
+        }
         return result;
     }
 
-    public V get(K key) {
-        if (elements == null || count == 0) {
-            return null;
-        }
-        for (int i = 0; i < elements.length; i += 2) {
-            if (elements[i] != null && elements[i].equals(key)) {
-                return (V) elements[i + 1];
-            }
-        }
-        return null;
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : (V) elements[i + 1];
     }
 
+    @SuppressWarnings("unchecked")
     public V get(int i) {
         if (elements == null || i >= count) {
             throw new ArrayIndexOutOfBoundsException(i);
@@ -121,18 +166,34 @@ public class ArrayMap<K, V> {
         return (V) elements[(i << 1) + 1];
     }
 
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return getKeyIndex(value) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
     public K getKey(Object value) {
-        if (elements == null || count == 0) {
-            return null;
-        }
-        for (int i = 1; i < elements.length; i += 2) {
-            if (elements[i] != null && elements[i].equals(value)) {
-                return (K) elements[i - 1];
+        int i = getKeyIndex(value);
+        return i < 0 ? null : (K) elements[i];
+    }
+
+    private int getKeyIndex(Object value) {
+        int len = count * 2;
+        for (int i = 1; i < len; i += 2) {
+            Object v = elements[i];
+            if (v == value || (v != null && v.equals(value))) {
+                return i - 1;
             }
         }
-        return null;
+        return -1;
     }
 
+    @SuppressWarnings("unchecked")
     public K getKey(int i) {
         if (elements == null || i >= count) {
             throw new ArrayIndexOutOfBoundsException(i);
@@ -140,36 +201,17 @@ public class ArrayMap<K, V> {
         return (K) elements[i << 1];
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
     public V put(K key, V value) {
-        // handle the case where we don't have any attributes yet
-        if (elements == null) {
-            elements = new Object[DEFAULT_SIZE];
+        int i = indexOf(key);
+        if (i >= 0) {
+            // replace existing value
+            Object oldValue = elements[i + 1];
+            elements[i + 1] = value;
+            return (V) oldValue;
         }
-        if (count == 0) {
-            elements[0] = key;
-            elements[1] = value;
-            count++;
-            return null;
-        }
-
-        int insertIndex = count * 2;
-
-        // replace existing value if it exists
-        for (int i = 0; i < insertIndex; i += 2) {
-            if (elements[i].equals(key)) {
-                Object oldValue = elements[i + 1];
-                elements[i + 1] = value;
-                return (V) oldValue;
-            }
-        }
-
-        if (elements.length <= insertIndex) {
-            grow();
-        }
-        elements[insertIndex] = key;
-        elements[insertIndex + 1] = value;
-        count++;
-
+        add(key, value);
         return null;
     }
 
@@ -188,32 +230,148 @@ public class ArrayMap<K, V> {
         elements[insertIndex] = key;
         elements[insertIndex + 1] = value;
         count++;
+        modCount++;
+        if (index != null) {
+            if (count * 2 > index.length) {
+                // keep the load factor at most 1/2
+                index = buildIndex();
+            } else {
+                addToIndex(index, key, insertIndex);
+            }
+        } else if (count > INDEX_THRESHOLD) {
+            index = buildIndex();
+        }
+    }
+
+    /**
+     * Gets the position in the array of the first pair having the given key,
+     * or -1 if none.
+     */
+    protected int indexOf(Object key) {
+        int[] table = index;
+        if (table != null) {
+            int mask = table.length - 1;
+            for (int h = hash(key) & mask;; h = (h + 1) & mask) {
+                int pos = table[h] - 1;
+                if (pos < 0) {
+                    return -1;
+                }
+                Object k = elements[pos];
+                if (k == key || (key != null && key.equals(k))) {
+                    return pos;
+                }
+            }
+        }
+        int len = count * 2;
+        for (int i = 0; i < len; i += 2) {
+            Object k = elements[i];
+            if (k == key || (key != null && key.equals(k))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int hash(Object key) {
+        // spread close hash codes, such as the ones of numbered strings
+        int h = (key == null ? 0 : key.hashCode()) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int[] buildIndex() {
+        duplicates = false;
+        int size = Integer.highestOneBit(Math.max(count, 2) * 4 - 1);
+        int[] table = new int[size];
+        int len = count * 2;
+        for (int i = 0; i < len; i += 2) {
+            addToIndex(table, elements[i], i);
+        }
+        return table;
+    }
+
+    // keeps the first position of a key
+    private void addToIndex(int[] table, Object key, int pos) {
+        int mask = table.length - 1;
+        for (int h = hash(key) & mask;; h = (h + 1) & mask) {
+            int p = table[h] - 1;
+            if (p < 0) {
+                table[h] = pos + 1;
+                return;
+            }
+            Object k = elements[p];
+            if (k == key || (key != null && key.equals(k))) {
+                duplicates = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the pair at the given position from the index, before it is
+     * removed from the array: the slot of its key is filled by shifting back
+     * the following keys of the same run, and the positions of the
+     * following pairs are decremented.
+     */
+    private void removeFromIndex(int pos) {
+        int[] table = index;
+        int mask = table.length - 1;
+        int free = hash(elements[pos]) & mask;
+        while (table[free] != pos + 1) {
+            free = (free + 1) & mask;
+        }
+        int i = free;
+        while (true) {
+            i = (i + 1) & mask;
+            int p = table[i] - 1;
+            if (p < 0) {
+                break;
+            }
+            int home = hash(elements[p]) & mask;
+            if (OpenHashing.canShift(free, i, home)) {
+                table[free] = table[i];
+                free = i;
+            }
+        }
+        table[free] = 0;
+        for (int h = 0; h < table.length; h++) {
+            if (table[h] > pos + 1) {
+                table[h] -= 2;
+            }
+        }
     }
 
     public void trimToSize() {
         int len = count * 2;
-        if (len < elements.length) {
+        if (elements != null && len < elements.length) {
             Object[] tmp = new Object[len];
             System.arraycopy(elements, 0, tmp, 0, len);
             elements = tmp;
         }
     }
 
+    @Override
     public int size() {
         return count;
     }
 
+    @Override
     public boolean isEmpty() {
         return count == 0;
     }
 
+    @Override
     public void clear() {
         elements = null;
+        index = null;
+        duplicates = false;
         count = 0;
+        modCount++;
     }
 
     protected void grow() {
-        Object[] expanded = new Object[elements.length + GROW_SIZE];
+        // grow by half to keep appends in amortized constant time
+        int increment = Math.max(GROW_SIZE, (elements.length >> 2) << 1);
+        Object[] expanded = new Object[elements.length + increment];
         System.arraycopy(elements, 0, expanded, 0, elements.length);
         elements = expanded;
     }
@@ -222,45 +380,249 @@ public class ArrayMap<K, V> {
         return elements;
     }
 
+    /**
+     * Gets an immutable copy of this map, which can be shared by threads
+     * without locking, see {@link FrozenArrayMap}.
+     *
+     * @since 7.1
+     */
+    public FrozenArrayMap<K, V> freeze() {
+        return new FrozenArrayMap<K, V>(elements == null ? new Object[0]
+                : elements, count);
+    }
+
+    /**
+     * Performs the given action on each entry in order, without allocating
+     * entry objects.
+     */
     @Override
-    public boolean equals(Object obj) {
-        if (obj == this) {
-            return true;
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        int expectedModCount = modCount;
+        int len = count * 2;
+        for (int i = 0; i < len; i += 2) {
+            action.accept((K) elements[i], (V) elements[i + 1]);
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es = entrySet;
+        if (es == null) {
+            entrySet = es = new EntrySet();
+        }
+        return es;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        int len = count * 2;
+        for (int i = 0; i < len; i += 2) {
+            Object k = elements[i];
+            Object v = elements[i + 1];
+            h += (k == null ? 0 : k.hashCode()) ^ (v == null ? 0 : v.hashCode());
+        }
+        return h;
+    }
+
+    /**
+     * An entry reading and writing the pair at a given position.
+     */
+    final class Entry implements Map.Entry<K, V> {
+
+        final int pos;
+
+        final K key;
+
+        V value;
+
+        Entry(int pos) {
+            this.pos = pos;
+            key = ArrayMap.this.getKey(pos >> 1);
+            value = ArrayMap.this.get(pos >> 1);
         }
-        if (obj instanceof ArrayMap) {
-            ArrayMap map = (ArrayMap) obj;
-            if (count != map.count) {
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            if (pos >= count * 2 || elements[pos] != key) {
+                throw new ConcurrentModificationException();
+            }
+            V old = this.value;
+            elements[pos + 1] = value;
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
                 return false;
             }
-            int len = count << 1;
-            for (int i = 0; i < len; i += 2) {
-                Object key1 = elements[i];
-                Object key2 = map.elements[i];
-                if (!key1.equals(key2)) {
-                    return false;
-                }
-                Object val1 = elements[i + 1];
-                Object val2 = map.elements[i + 1];
-                if (val1 == null) {
-                    if (val1 != val2) {
-                        return false;
-                    }
-                } else if (!val1.equals(val2)) {
-                    return false;
-                }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object k = e.getKey();
+            Object v = e.getValue();
+            return (key == null ? k == null : key.equals(k))
+                    && (value == null ? v == null : value.equals(v));
+        }
+
+        @Override
+        public int hashCode() {
+            return (key == null ? 0 : key.hashCode())
+                    ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public void clear() {
+            ArrayMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public Spliterator<Map.Entry<K, V>> spliterator() {
+            return new EntrySpliterator(0, count * 2, modCount);
+        }
+
+    }
+
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+        int next;
+
+        int last = -1;
+
+        int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next < count * 2;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
             }
-            return true;
+            if (next >= count * 2) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next += 2;
+            return new Entry(last);
         }
-        return false;
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            _remove(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+
     }
 
-    @Override
-    public int hashCode() {
-        int result = 17;
-        for (int i = 0; i < count * 2; i++) {
-            result = result * 37 + elements[i].hashCode();
+    /**
+     * Splits the entries by ranges of positions.
+     */
+    final class EntrySpliterator implements Spliterator<Map.Entry<K, V>> {
+
+        int pos;
+
+        final int end;
+
+        final int expectedModCount;
+
+        EntrySpliterator(int pos, int end, int expectedModCount) {
+            this.pos = pos;
+            this.end = end;
+            this.expectedModCount = expectedModCount;
         }
-        return result;
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+            if (pos >= end) {
+                return false;
+            }
+            Entry entry = new Entry(pos);
+            pos += 2;
+            action.accept(entry);
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(
+                Consumer<? super Map.Entry<K, V>> action) {
+            for (; pos < end; pos += 2) {
+                action.accept(new Entry(pos));
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public Spliterator<Map.Entry<K, V>> trySplit() {
+            int mid = ((pos + end) >>> 2) << 1;
+            if (mid <= pos) {
+                return null;
+            }
+            EntrySpliterator prefix = new EntrySpliterator(pos, mid,
+                    expectedModCount);
+            pos = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return (end - pos) >> 1;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.SIZED | Spliterator.SUBSIZED
+                    | Spliterator.ORDERED | Spliterator.NONNULL;
+        }
+
     }
 
 }
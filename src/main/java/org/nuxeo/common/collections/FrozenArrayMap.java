@@ -0,0 +1,416 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.collections;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable map whose keys are placed by a minimal perfect hash, as
+ * returned by {@link ArrayMap#freeze()}.
+ * <p>
+ * The entries are stored in a single array of [key, value] pairs, ordered
+ * by the hash of their keys, plus one int per entry. A lookup hashes the
+ * key twice, reads one pair and compares one key, whatever the number of
+ * entries. The map is safely published to other threads once constructed.
+ * <p>
+ * The hash is built with the hash and displace method: keys are first
+ * distributed in buckets, then each bucket, from the largest, is given a
+ * displacement that sends all its keys to free slots. When distinct keys
+ * have the same hash code no such displacement exists, and the keys are
+ * placed in an open addressing table instead.
+ * <p>
+ * This map accepts null keys and values. Iteration order is unspecified.
+ *
+ * @since 7.1
+ */
+public final class FrozenArrayMap<K, V> extends AbstractMap<K, V> implements
+        Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // displacements tried for a bucket before giving up
+    private static final int MAX_DISPLACEMENT = 1 << 16;
+
+    private static final FrozenArrayMap<Object, Object> EMPTY = new FrozenArrayMap<Object, Object>(
+            new Object[0], 0);
+
+    // [key, value] pairs by slot
+    private final Object[] elements;
+
+    // per bucket: 0 for the initial hash, > 0 a displacement, < 0 the
+    // (-slot - 1) of its single key; null when keys are probed
+    private final transient int[] displacements;
+
+    // slots + 1 of the keys, by probe position, when not perfectly hashed
+    private final transient int[] table;
+
+    private final int count;
+
+    private transient Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * Gets a frozen copy of the given map.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> FrozenArrayMap<K, V> copyOf(
+            Map<? extends K, ? extends V> map) {
+        if (map instanceof FrozenArrayMap) {
+            return (FrozenArrayMap<K, V>) map;
+        }
+        if (map.isEmpty()) {
+            return (FrozenArrayMap<K, V>) EMPTY;
+        }
+        Object[] pairs = new Object[map.size() * 2];
+        int i = 0;
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            pairs[i++] = entry.getKey();
+            pairs[i++] = entry.getValue();
+        }
+        return new FrozenArrayMap<K, V>(pairs, i >> 1);
+    }
+
+    /**
+     * Creates a map of the given [key, value] pairs. A key present more than
+     * once is bound to its first value.
+     */
+    FrozenArrayMap(Object[] pairs, int size) {
+        // keep the first pair of each key
+        Set<Object> seen = new HashSet<Object>();
+        Object[] unique = new Object[size * 2];
+        int n = 0;
+        for (int i = 0; i < size * 2; i += 2) {
+            if (seen.add(pairs[i])) {
+                unique[n * 2] = pairs[i];
+                unique[n * 2 + 1] = pairs[i + 1];
+                n++;
+            }
+        }
+        count = n;
+        elements = new Object[n * 2];
+        int[] hashes = new int[n];
+        for (int i = 0; i < n; i++) {
+            Object key = unique[i * 2];
+            hashes[i] = mix(key == null ? 0 : key.hashCode());
+        }
+        int[] g = n == 0 ? null : place(hashes, unique);
+        if (g != null || n == 0) {
+            displacements = g;
+            table = null;
+        } else {
+            displacements = null;
+            System.arraycopy(unique, 0, elements, 0, n * 2);
+            table = new int[Integer.highestOneBit(Math.max(n, 2) * 4 - 1)];
+            int mask = table.length - 1;
+            for (int i = 0; i < n; i++) {
+                int h = hashes[i] & mask;
+                while (table[h] != 0) {
+                    h = (h + 1) & mask;
+                }
+                table[h] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Builds the perfect hash of the given keys and fills the elements.
+     *
+     * @return the displacements, or null if the keys cannot be perfectly
+     *         hashed
+     */
+    private int[] place(final int[] hashes, Object[] pairs) {
+        int n = hashes.length;
+        List<List<Integer>> buckets = new ArrayList<List<Integer>>(n);
+        for (int b = 0; b < n; b++) {
+            buckets.add(new ArrayList<Integer>(2));
+        }
+        for (int i = 0; i < n; i++) {
+            buckets.get(reduce(hashes[i], n)).add(Integer.valueOf(i));
+        }
+        Integer[] order = new Integer[n];
+        for (int b = 0; b < n; b++) {
+            order[b] = Integer.valueOf(b);
+        }
+        final List<List<Integer>> bs = buckets;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer b1, Integer b2) {
+                return bs.get(b2.intValue()).size()
+                        - bs.get(b1.intValue()).size();
+            }
+        });
+        int[] g = new int[n];
+        int[] slotKeys = new int[n];
+        Arrays.fill(slotKeys, -1);
+        int[] slots = new int[n];
+        int b = 0;
+        for (; b < n; b++) {
+            List<Integer> bucket = buckets.get(order[b].intValue());
+            int size = bucket.size();
+            if (size <= 1) {
+                break;
+            }
+            for (int j = 1; j < size; j++) {
+                for (int k = 0; k < j; k++) {
+                    if (hashes[bucket.get(j).intValue()] == hashes[bucket.get(k).intValue()]) {
+                        // no displacement can separate them
+                        return null;
+                    }
+                }
+            }
+            int d = 1;
+            search: for (; d <= MAX_DISPLACEMENT; d++) {
+                for (int j = 0; j < size; j++) {
+                    int slot = slot(hashes[bucket.get(j).intValue()], d, n);
+                    if (slotKeys[slot] >= 0) {
+                        continue search;
+                    }
+                    for (int k = 0; k < j; k++) {
+                        if (slots[k] == slot) {
+                            continue search;
+                        }
+                    }
+                    slots[j] = slot;
+                }
+                break;
+            }
+            if (d > MAX_DISPLACEMENT) {
+                return null;
+            }
+            g[order[b].intValue()] = d;
+            for (int j = 0; j < size; j++) {
+                slotKeys[slots[j]] = bucket.get(j).intValue();
+            }
+        }
+        // single keys go to the remaining free slots
+        int free = 0;
+        for (; b < n; b++) {
+            List<Integer> bucket = buckets.get(order[b].intValue());
+            if (bucket.isEmpty()) {
+                break;
+            }
+            while (slotKeys[free] >= 0) {
+                free++;
+            }
+            slotKeys[free] = bucket.get(0).intValue();
+            g[order[b].intValue()] = -free - 1;
+        }
+        for (int slot = 0; slot < n; slot++) {
+            int i = slotKeys[slot];
+            elements[slot * 2] = pairs[i * 2];
+            elements[slot * 2 + 1] = pairs[i * 2 + 1];
+        }
+        return g;
+    }
+
+    // murmur3 finalizer
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    // position of a hash displaced by d, keys of a bucket share the high bits
+    private static int slot(int h, int d, int n) {
+        return reduce((h ^ d) * 0x9E3779B9, n);
+    }
+
+    // maps a hash to [0, n) without a division
+    private static int reduce(int h, int n) {
+        return (int) (((h & 0xFFFFFFFFL) * n) >>> 32);
+    }
+
+    /**
+     * Gets the position in the array of the pair having the given key, or -1
+     * if none.
+     */
+    private int indexOf(Object key) {
+        int n = count;
+        if (n == 0) {
+            return -1;
+        }
+        int h = mix(key == null ? 0 : key.hashCode());
+        int pos;
+        int[] g = displacements;
+        if (g != null) {
+            int d = g[reduce(h, n)];
+            pos = (d < 0 ? -d - 1 : slot(h, d, n)) << 1;
+        } else {
+            int mask = table.length - 1;
+            for (int i = h & mask;; i = (i + 1) & mask) {
+                int slot = table[i] - 1;
+                if (slot < 0) {
+                    return -1;
+                }
+                Object k = elements[slot << 1];
+                if (k == key || (key != null && key.equals(k))) {
+                    return slot << 1;
+                }
+            }
+        }
+        Object k = elements[pos];
+        return k == key || (key != null && key.equals(k)) ? pos : -1;
+    }
+
+    /**
+     * Builds the hash again, as hash codes may change from one JVM to
+     * another.
+     */
+    private Object readResolve() {
+        return count == 0 ? EMPTY : new FrozenArrayMap<K, V>(elements, count);
+    }
+
+    /**
+     * Checks whether the keys are placed by a perfect hash, which is the
+     * case unless distinct keys have the same hash code.
+     */
+    public boolean isPerfectlyHashed() {
+        return table == null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : (V) elements[i + 1];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 1; i < elements.length; i += 2) {
+            Object v = elements[i];
+            if (v == value || (v != null && v.equals(value))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (int i = 0; i < elements.length; i += 2) {
+            action.accept((K) elements[i], (V) elements[i + 1]);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es = entrySet;
+        if (es == null) {
+            entrySet = es = new EntrySet();
+        }
+        return es;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (int i = 0; i < elements.length; i += 2) {
+            Object k = elements[i];
+            Object v = elements[i + 1];
+            h += (k == null ? 0 : k.hashCode()) ^ (v == null ? 0 : v.hashCode());
+        }
+        return h;
+    }
+
+    final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            int i = indexOf(e.getKey());
+            if (i < 0) {
+                return false;
+            }
+            Object v = elements[i + 1];
+            return v == null ? e.getValue() == null : v.equals(e.getValue());
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new Iterator<Map.Entry<K, V>>() {
+
+                int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < elements.length;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public Map.Entry<K, V> next() {
+                    if (next >= elements.length) {
+                        throw new NoSuchElementException();
+                    }
+                    int i = next;
+                    next += 2;
+                    return new SimpleImmutableEntry<K, V>((K) elements[i],
+                            (V) elements[i + 1]);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,292 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.collections;
+
+import java.util.Arrays;
+
+/**
+ * A map of primitive {@code int} keys to objects, avoiding the boxing of
+ * the keys and the entry objects of a {@code Map<Integer, V>}.
+ * <p>
+ * Keys and values are stored in two parallel arrays using open addressing
+ * with linear probing, and removals shift the following keys back instead
+ * of leaving tombstones. The key 0, used to mark free slots, is stored
+ * apart. This map accepts null values.
+ * <p>
+ * Entries are visited in no particular order, without allocation, using
+ * {@link #forEach(Visitor)}. This map is not thread safe.
+ *
+ * @since 7.1
+ */
+public class IntObjectMap<V> {
+
+    /**
+     * Receives the entries of a map.
+     */
+    public interface Visitor<V> {
+
+        void visit(int key, V value);
+
+    }
+
+    protected static final int DEFAULT_CAPACITY = OpenHashing.DEFAULT_CAPACITY;
+
+    // free slots have the key 0, null until the first put
+    private int[] keys;
+
+    private Object[] values;
+
+    private int size;
+
+    private boolean hasZeroKey;
+
+    private Object zeroValue;
+
+    public IntObjectMap() {
+    }
+
+    /**
+     * Creates a map able to hold the given number of entries without
+     * growing.
+     */
+    public IntObjectMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Negative size: "
+                    + expectedSize);
+        }
+        allocate(OpenHashing.capacityFor(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * Gets the slot of the given non zero key, or -1 if none.
+     */
+    private int indexOf(int key) {
+        if (keys == null) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        for (int i = OpenHashing.hash(key) & mask;; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                return i;
+            }
+            if (k == 0) {
+                return -1;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (key == 0) {
+            return hasZeroKey ? (V) zeroValue : null;
+        }
+        int i = indexOf(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    public boolean containsKey(int key) {
+        return key == 0 ? hasZeroKey : indexOf(key) >= 0;
+    }
+
+    /**
+     * Binds the given key to the given value.
+     *
+     * @return the previous value of the key, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (key == 0) {
+            V old = (V) zeroValue;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return old;
+        }
+        if (keys == null) {
+            allocate(DEFAULT_CAPACITY);
+        }
+        int mask = keys.length - 1;
+        int i = OpenHashing.hash(key) & mask;
+        for (int k; (k = keys[i]) != 0; i = (i + 1) & mask) {
+            if (k == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (OpenHashing.isOverloaded(++size, keys.length)) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            int key = oldKeys[j];
+            if (key != 0) {
+                int i = OpenHashing.hash(key) & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Removes the given key.
+     *
+     * @return the value of the key, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return null;
+            }
+            V old = (V) zeroValue;
+            hasZeroKey = false;
+            zeroValue = null;
+            size--;
+            return old;
+        }
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        V old = (V) values[i];
+        shiftKeys(i);
+        size--;
+        return old;
+    }
+
+    /**
+     * Fills the freed slot with a following key of the same run that does
+     * not hash between the slot and its own position, until the run ends.
+     */
+    private void shiftKeys(int free) {
+        int mask = keys.length - 1;
+        int i = free;
+        while (true) {
+            i = (i + 1) & mask;
+            int key = keys[i];
+            if (key == 0) {
+                break;
+            }
+            int home = OpenHashing.hash(key) & mask;
+            if (OpenHashing.canShift(free, i, home)) {
+                keys[free] = key;
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        keys[free] = 0;
+        values[free] = null;
+    }
+
+    public void clear() {
+        if (keys != null) {
+            Arrays.fill(keys, 0);
+            Arrays.fill(values, null);
+        }
+        hasZeroKey = false;
+        zeroValue = null;
+        size = 0;
+    }
+
+    /**
+     * Gets the keys of this map, in no particular order.
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        if (hasZeroKey) {
+            n++; // result[0] is already 0
+        }
+        if (keys != null) {
+            for (int key : keys) {
+                if (key != 0) {
+                    result[n++] = key;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Visits each entry of this map, which must not be modified meanwhile.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> visitor) {
+        if (hasZeroKey) {
+            visitor.visit(0, (V) zeroValue);
+        }
+        if (keys == null) {
+            return;
+        }
+        int[] ks = keys;
+        Object[] vs = values;
+        for (int i = 0; i < ks.length; i++) {
+            if (ks[i] != 0) {
+                visitor.visit(ks[i], (V) vs[i]);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder("{");
+        forEach(new Visitor<V>() {
+            @Override
+            public void visit(int key, V value) {
+                if (buf.length() > 1) {
+                    buf.append(", ");
+                }
+                buf.append(key).append('=').append(value);
+            }
+        });
+        return buf.append('}').toString();
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.collections;
+
+import java.util.Arrays;
+
+/**
+ * A map of objects to primitive {@code int} values, such as ordinals,
+ * avoiding the boxing of the values and the entry objects of a
+ * {@code Map<K, Integer>}.
+ * <p>
+ * Keys and values are stored in two parallel arrays using open addressing
+ * with linear probing, and removals shift the following keys back instead
+ * of leaving tombstones. The null key, used to mark free slots, is stored
+ * apart. Methods returning a value return 0 when the key is not mapped,
+ * use {@link #containsKey(Object)} or {@link #getOrDefault(Object, int)} to
+ * tell it from a mapped 0.
+ * <p>
+ * Entries are visited in no particular order, without allocation, using
+ * {@link #forEach(Visitor)}. This map is not thread safe.
+ *
+ * @since 7.1
+ */
+public class ObjectIntMap<K> {
+
+    /**
+     * Receives the entries of a map.
+     */
+    public interface Visitor<K> {
+
+        void visit(K key, int value);
+
+    }
+
+    protected static final int DEFAULT_CAPACITY = OpenHashing.DEFAULT_CAPACITY;
+
+    // free slots have a null key, null until the first put
+    private Object[] keys;
+
+    private int[] values;
+
+    private int size;
+
+    private boolean hasNullKey;
+
+    private int nullValue;
+
+    public ObjectIntMap() {
+    }
+
+    /**
+     * Creates a map able to hold the given number of entries without
+     * growing.
+     */
+    public ObjectIntMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Negative size: "
+                    + expectedSize);
+        }
+        allocate(OpenHashing.capacityFor(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new int[capacity];
+    }
+
+    private static int hash(Object key) {
+        return OpenHashing.hash(key.hashCode());
+    }
+
+    /**
+     * Gets the slot of the given non null key, or -1 if none.
+     */
+    private int indexOf(Object key) {
+        if (keys == null) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == null) {
+                return -1;
+            }
+            if (k == key || key.equals(k)) {
+                return i;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the value of the given key, or 0 if none.
+     */
+    public int get(Object key) {
+        return getOrDefault(key, 0);
+    }
+
+    /**
+     * Gets the value of the given key, or the given default value if none.
+     */
+    public int getOrDefault(Object key, int defaultValue) {
+        if (key == null) {
+            return hasNullKey ? nullValue : defaultValue;
+        }
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public boolean containsKey(Object key) {
+        return key == null ? hasNullKey : indexOf(key) >= 0;
+    }
+
+    /**
+     * Binds the given key to the given value.
+     *
+     * @return the previous value of the key, or 0 if none
+     */
+    public int put(K key, int value) {
+        if (key == null) {
+            int old = nullValue;
+            if (!hasNullKey) {
+                hasNullKey = true;
+                size++;
+            }
+            nullValue = value;
+            return old;
+        }
+        if (keys == null) {
+            allocate(DEFAULT_CAPACITY);
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (Object k; (k = keys[i]) != null; i = (i + 1) & mask) {
+            if (k == key || key.equals(k)) {
+                int old = values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (OpenHashing.isOverloaded(++size, keys.length)) {
+            rehash(keys.length << 1);
+        }
+        return 0;
+    }
+
+    private void rehash(int capacity) {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            Object key = oldKeys[j];
+            if (key != null) {
+                int i = hash(key) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Removes the given key.
+     *
+     * @return the value of the key, or 0 if none
+     */
+    public int remove(Object key) {
+        if (key == null) {
+            if (!hasNullKey) {
+                return 0;
+            }
+            int old = nullValue;
+            hasNullKey = false;
+            nullValue = 0;
+            size--;
+            return old;
+        }
+        int i = indexOf(key);
+        if (i < 0) {
+            return 0;
+        }
+        int old = values[i];
+        shiftKeys(i);
+        size--;
+        return old;
+    }
+
+    /**
+     * Fills the freed slot with a following key of the same run that does
+     * not hash between the slot and its own position, until the run ends.
+     */
+    private void shiftKeys(int free) {
+        int mask = keys.length - 1;
+        int i = free;
+        while (true) {
+            i = (i + 1) & mask;
+            Object key = keys[i];
+            if (key == null) {
+                break;
+            }
+            int home = hash(key) & mask;
+            if (OpenHashing.canShift(free, i, home)) {
+                keys[free] = key;
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        keys[free] = null;
+        values[free] = 0;
+    }
+
+    public void clear() {
+        if (keys != null) {
+            Arrays.fill(keys, null);
+            Arrays.fill(values, 0);
+        }
+        hasNullKey = false;
+        nullValue = 0;
+        size = 0;
+    }
+
+    /**
+     * Visits each entry of this map, which must not be modified meanwhile.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super K> visitor) {
+        if (hasNullKey) {
+            visitor.visit(null, nullValue);
+        }
+        if (keys == null) {
+            return;
+        }
+        Object[] ks = keys;
+        int[] vs = values;
+        for (int i = 0; i < ks.length; i++) {
+            if (ks[i] != null) {
+                visitor.visit((K) ks[i], vs[i]);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder("{");
+        forEach(new Visitor<K>() {
+            @Override
+            public void visit(K key, int value) {
+                if (buf.length() > 1) {
+                    buf.append(", ");
+                }
+                buf.append(key).append('=').append(value);
+            }
+        });
+        return buf.append('}').toString();
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.collections;
+
+/**
+ * The sizing and probing rules shared by the open addressing tables of the
+ * primitive maps. The key index of {@link ArrayMap} shifts keys back the
+ * same way.
+ * <p>
+ * The tables have a power of two capacity and a load factor of at most 3/4,
+ * use linear probing, and remove keys by shifting back the following keys of
+ * their run. The loops themselves are written in each map, on its own key
+ * and value arrays, as sharing them would box the primitive keys or values.
+ *
+ * @since 7.1
+ */
+final class OpenHashing {
+
+    static final int DEFAULT_CAPACITY = 8;
+
+    private OpenHashing() {
+    }
+
+    /**
+     * Gets the smallest capacity holding the given number of keys without
+     * growing.
+     */
+    static int capacityFor(int size) {
+        int capacity = DEFAULT_CAPACITY;
+        while (isOverloaded(size, capacity)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Checks whether a table of the given capacity must grow to hold the
+     * given number of keys.
+     */
+    static boolean isOverloaded(int size, int capacity) {
+        return size >= capacity - (capacity >>> 2);
+    }
+
+    static int hash(int key) {
+        // spread close keys, such as ordinals or numbered strings
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static int hash(long key) {
+        // spread close keys, such as sequential ids
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Checks whether the key found at the given slot while shifting back a
+     * run may fill the free slot, which is the case unless its home slot
+     * lies in (free, slot].
+     */
+    static boolean canShift(int free, int slot, int home) {
+        return free <= slot ? (home <= free || home > slot)
+                : (home <= free && home > slot);
+    }
+
+}
@@ -21,8 +21,16 @@
 
 package org.nuxeo.common.collections;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * A mixture of an array list and a map used to store small table of elements
@@ -31,6 +39,15 @@ import java.util.Map;
  * This map accepts null values.
  * <p>
  * The map is implemented using an array of successive [key, value] pairs.
+ * <p>
+ * By default maps are serialized in the form written before 7.1, holding
+ * the array of pairs. When the {@value #COMPACT_PROPERTY} system property
+ * is true, only the used pairs are serialized, and when all the keys are
+ * strings they are written as a single array shared by the maps having the
+ * same keys, so that a stream holding many such maps writes each key set
+ * once and then refers to it. The shared arrays are kept per stream, and
+ * dropped with it. Both forms can be read, but the compact form can only be
+ * read since 7.1: older readers fail with a {@link ClassNotFoundException}.
  *
  * @author <a href="mailto:bs@nuxeo.com">Bogdan Stefanescu</a>
  * @author <a href="mailto:ja@nuxeo.com">Julien Anguenot</a>
@@ -40,6 +57,33 @@ public class SerializableArrayMap<K, V>  implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * System property enabling the compact serialized form, {@code false}
+     * if not set.
+     *
+     * @since 7.1
+     */
+    public static final String COMPACT_PROPERTY = "org.nuxeo.common.collections.SerializableArrayMap.compact";
+
+    // whether the compact form is written
+    static boolean writeCompactForm = Boolean.getBoolean(COMPACT_PROPERTY);
+
+    // written as elements by the compact form, unknown to older readers
+    private static final Serializable[] COMPACT_MARK = { new CompactForm() };
+
+    // elements holds the pairs in the legacy form, compact is only true in
+    // the compact form
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("count", Integer.TYPE),
+            new ObjectStreamField("elements", Serializable[].class),
+            new ObjectStreamField("compact", Boolean.TYPE) };
+
+    // the number of key sets shared by the maps of a stream
+    private static final int MAX_KEY_SETS = 1024;
+
+    // the key sets already written to each open stream
+    private static final Map<ObjectOutputStream, Map<KeySet, String[]>> KEY_SETS = Collections.synchronizedMap(new WeakHashMap<ObjectOutputStream, Map<KeySet, String[]>>());
+
     // 4 keys, 4 values
     protected static final int DEFAULT_SIZE = 8;
 
@@ -47,7 +91,7 @@ public class SerializableArrayMap<K, V>  implements Serializable {
 
     protected int count = 0;
 
-    protected Serializable[] elements;
+    protected transient Serializable[] elements;
 
     public SerializableArrayMap() {
     }
@@ -231,6 +275,17 @@ public class SerializableArrayMap<K, V>  implements Serializable {
         return elements;
     }
 
+    /**
+     * Gets an immutable copy of this map, which can be shared by threads
+     * without locking, see {@link FrozenArrayMap}.
+     *
+     * @since 7.1
+     */
+    public FrozenArrayMap<K, V> freeze() {
+        return new FrozenArrayMap<K, V>(elements == null ? new Object[0]
+                : elements, count);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) {
@@ -272,4 +327,144 @@ public class SerializableArrayMap<K, V>  implements Serializable {
         return result;
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("count", count);
+        if (!writeCompactForm) {
+            fields.put("elements", elements);
+            out.writeFields();
+            return;
+        }
+        fields.put("elements", COMPACT_MARK);
+        fields.put("compact", true);
+        out.writeFields();
+        String[] keys = getSharedKeys(out);
+        out.writeObject(keys);
+        int len = count * 2;
+        if (keys == null) {
+            for (int i = 0; i < len; i += 2) {
+                out.writeObject(elements[i]);
+            }
+        }
+        for (int i = 1; i < len; i += 2) {
+            out.writeObject(elements[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        count = fields.get("count", 0);
+        if (count < 0 || count > Integer.MAX_VALUE / 2) {
+            throw new IOException("Invalid size: " + count);
+        }
+        int len = count * 2;
+        if (!fields.get("compact", false)) {
+            elements = (Serializable[]) fields.get("elements", null);
+            if (len > (elements == null ? 0 : elements.length)) {
+                throw new IOException("Invalid size: " + count);
+            }
+            return;
+        }
+        String[] keys = (String[]) in.readObject();
+        if (keys != null && keys.length != count) {
+            throw new IOException("Invalid key count: " + keys.length);
+        }
+        if (keys != null) {
+            // bounded by the keys actually read
+            elements = new Serializable[Math.max(len, DEFAULT_SIZE)];
+            for (int i = 0; i < len; i += 2) {
+                elements[i] = keys[i >> 1];
+            }
+        } else {
+            // the size is not trusted, grow as keys are read
+            elements = new Serializable[Math.min(Math.max(len, DEFAULT_SIZE),
+                    1024)];
+            for (int i = 0; i < len; i += 2) {
+                if (i + 2 > elements.length) {
+                    elements = Arrays.copyOf(elements, (int) Math.min(len,
+                            elements.length * 2L));
+                }
+                elements[i] = (Serializable) in.readObject();
+            }
+        }
+        for (int i = 1; i < len; i += 2) {
+            elements[i] = (Serializable) in.readObject();
+        }
+    }
+
+    /**
+     * Gets the array of the keys shared by the maps having the same string
+     * keys in the given stream, or null if some key is not a string.
+     */
+    private String[] getSharedKeys(ObjectOutputStream out) {
+        if (count == 0) {
+            return null;
+        }
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            Serializable key = elements[i << 1];
+            if (!(key instanceof String)) {
+                return null;
+            }
+            keys[i] = (String) key;
+        }
+        Map<KeySet, String[]> keySets;
+        synchronized (KEY_SETS) {
+            keySets = KEY_SETS.get(out);
+            if (keySets == null) {
+                keySets = new HashMap<KeySet, String[]>();
+                KEY_SETS.put(out, keySets);
+            }
+        }
+        // a stream is written by one thread at a time
+        KeySet keySet = new KeySet(keys);
+        String[] shared = keySets.get(keySet);
+        if (shared == null) {
+            if (keySets.size() >= MAX_KEY_SETS) {
+                return keys;
+            }
+            keySets.put(keySet, keys);
+            shared = keys;
+        }
+        return shared;
+    }
+
+    /**
+     * Marks the compact form, so that readers older than 7.1 cannot mistake
+     * it for the legacy form.
+     */
+    private static final class CompactForm implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+    /**
+     * An ordered sequence of keys.
+     */
+    private static final class KeySet {
+
+        final String[] keys;
+
+        final int hash;
+
+        KeySet(String[] keys) {
+            this.keys = keys;
+            hash = Arrays.hashCode(keys);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof KeySet
+                    && Arrays.equals(keys, ((KeySet) obj).keys);
+        }
+
+    }
+
 }
@@ -0,0 +1,254 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.common.xmap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The child elements of a mapped element grouped by name, collected in a
+ * single pass so that the members of an object do not rescan the children
+ * each one in turn.
+ * <p>
+ * Only the children whose name is the first segment of an indexed member
+ * path are collected. The members then continue the lookup of the remaining
+ * path segments from the collected elements exactly as
+ * {@link DOMHelper#getElementNode(Node, Path)} and
+ * {@link DOMHelper#visitNodes} would.
+ *
+ * @since 7.1
+ */
+final class ChildIndex {
+
+    /**
+     * The compiled dispatch table of an annotated object: the index slot of
+     * each of its members.
+     */
+    static final class Table {
+
+        // an index is worth building only if shared by several members
+        static final int MIN_INDEXED_MEMBERS = 2;
+
+        final XAnnotatedMember[] members;
+
+        // slot of each member, -1 if the member does not use the index
+        final int[] slots;
+
+        // first path segment to slot
+        final Map<String, Integer> names = new HashMap<String, Integer>();
+
+        Table(XAnnotatedMember[] sortedMembers) {
+            members = sortedMembers;
+            slots = new int[members.length];
+            int indexed = 0;
+            for (int i = 0; i < members.length; i++) {
+                String name = getIndexedName(members[i]);
+                if (name == null) {
+                    slots[i] = -1;
+                    continue;
+                }
+                Integer slot = names.get(name);
+                if (slot == null) {
+                    slot = Integer.valueOf(names.size());
+                    names.put(name, slot);
+                }
+                slots[i] = slot.intValue();
+                indexed++;
+            }
+            if (indexed < MIN_INDEXED_MEMBERS) {
+                names.clear();
+                for (int i = 0; i < slots.length; i++) {
+                    slots[i] = -1;
+                }
+            }
+        }
+
+        /**
+         * Indexes the children of the given element, returns null if no
+         * member uses the index.
+         */
+        ChildIndex newIndex(Element element) {
+            if (names.isEmpty()) {
+                return null;
+            }
+            return new ChildIndex(this, element);
+        }
+
+    }
+
+    private final List<Element>[] children;
+
+    @SuppressWarnings("unchecked")
+    ChildIndex(Table table, Element element) {
+        children = (List<Element>[]) new List<?>[table.names.size()];
+        Node p = element.getFirstChild();
+        while (p != null) {
+            if (p.getNodeType() == Node.ELEMENT_NODE) {
+                Integer slot = table.names.get(p.getNodeName());
+                if (slot != null) {
+                    List<Element> list = children[slot.intValue()];
+                    if (list == null) {
+                        list = new ArrayList<Element>();
+                        children[slot.intValue()] = list;
+                    }
+                    list.add((Element) p);
+                }
+            }
+            p = p.getNextSibling();
+        }
+    }
+
+    /**
+     * Gets the children collected for the given slot, in document order, or
+     * null if there is none.
+     */
+    List<Element> get(int slot) {
+        return children[slot];
+    }
+
+    /**
+     * Gets the name of the children a member would look up first, or null if
+     * the member is not known to use only such lookups.
+     */
+    static String getIndexedName(XAnnotatedMember member) {
+        Class<?> klass = member.getClass();
+        if (klass != XAnnotatedMember.class && klass != XAnnotatedList.class
+                && klass != XAnnotatedMap.class
+                && klass != XAnnotatedContent.class) {
+            return null; // custom members may override getValue
+        }
+        if (klass == XAnnotatedMember.class && member.xao == null
+                && member.type == Element.class) {
+            return null; // the base element itself
+        }
+        Path path = member.path;
+        if (path == null || path.segments.length == 0) {
+            return null;
+        }
+        return path.segments[0];
+    }
+
+    /**
+     * Follows the path segments after the first one, starting from the first
+     * of the given children. Mirrors {@link DOMHelper#getElementNode(Node,
+     * Path)} for the first {@code end} segments.
+     */
+    static Node getElementNode(List<Element> children, Path path, int end) {
+        if (children == null) {
+            return null;
+        }
+        Node el = children.get(0);
+        for (int i = 1; i < end; i++) {
+            el = DOMHelper.getElementNode(el, path.segments[i]);
+            if (el == null) {
+                return null;
+            }
+        }
+        return el;
+    }
+
+    /**
+     * Mirrors {@link DOMHelper#visitNodes}.
+     */
+    static void visitNodes(Context ctx, XAnnotatedList xam,
+            List<Element> children, Path path, DOMHelper.NodeVisitor visitor,
+            Collection<Object> result) {
+        int len = path.segments.length - 1;
+        if (len > 0) {
+            Node el = getElementNode(children, path, len);
+            if (el == null) {
+                return;
+            }
+            String name = path.segments[len];
+            if (path.attribute != null) {
+                DOMHelper.visitAttributes(ctx, xam, el, name, path.attribute,
+                        visitor, result);
+            } else {
+                DOMHelper.visitElements(ctx, xam, el, name, visitor, result);
+            }
+            return;
+        }
+        if (children == null) {
+            return;
+        }
+        for (Element p : children) {
+            if (path.attribute != null) {
+                Node at = p.getAttributes().getNamedItem(path.attribute);
+                if (at != null) {
+                    visitor.visitNode(ctx, xam, at, result);
+                }
+            } else {
+                visitor.visitNode(ctx, xam, p, result);
+            }
+        }
+    }
+
+    /**
+     * Mirrors {@link DOMHelper#visitMapNodes}.
+     */
+    static void visitMapNodes(Context ctx, XAnnotatedMap xam,
+            List<Element> children, Path path,
+            DOMHelper.NodeMapVisitor visitor, Map<String, Object> result) {
+        int len = path.segments.length - 1;
+        if (len > 0) {
+            Node el = getElementNode(children, path, len);
+            if (el == null) {
+                return;
+            }
+            String name = path.segments[len];
+            if (path.attribute != null) {
+                DOMHelper.visitMapAttributes(ctx, xam, el, name,
+                        path.attribute, visitor, result);
+            } else {
+                DOMHelper.visitMapElements(ctx, xam, el, name, visitor,
+                        result);
+            }
+            return;
+        }
+        if (children == null) {
+            return;
+        }
+        for (Element p : children) {
+            if (path.attribute != null) {
+                Node at = p.getAttributes().getNamedItem(path.attribute);
+                if (at != null) {
+                    String key = DOMHelper.getNodeValue(p, xam.key);
+                    if (key != null) {
+                        visitor.visitNode(ctx, xam, at, key, result);
+                    }
+                }
+            } else {
+                String key = DOMHelper.getNodeValue(p, xam.key);
+                if (key != null) {
+                    visitor.visitNode(ctx, xam, p, key, result);
+                }
+            }
+        }
+    }
+
+}
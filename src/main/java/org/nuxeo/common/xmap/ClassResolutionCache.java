@@ -0,0 +1,164 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the classes and resources resolved by name through a class loader,
+ * as done by {@link Context#loadClass(String)} and
+ * {@link Context#getResource(String)}.
+ * <p>
+ * Each class loader has its own cache, so that changing the context class
+ * loader changes the cache used, and the cache of a class loader goes away
+ * with it. Names that cannot be resolved are cached as well: classes or
+ * resources made available later to a class loader are only seen once its
+ * cache is {@link #invalidate(ClassLoader) invalidated}.
+ *
+ * @since 7.1
+ */
+public final class ClassResolutionCache {
+
+    private static final Object NOT_FOUND = new Object();
+
+    private static final Map<ClassLoader, LoaderCache> caches = new WeakHashMap<ClassLoader, LoaderCache>();
+
+    // the cache used last, to avoid locking when the loader does not change
+    private static volatile LoaderCache last;
+
+    // Utility class.
+    private ClassResolutionCache() {
+    }
+
+    static final class LoaderCache {
+
+        final WeakReference<ClassLoader> loader;
+
+        // weak references to the classes, which refer to their loader
+        final ConcurrentMap<String, Object> classes = new ConcurrentHashMap<String, Object>();
+
+        final ConcurrentMap<String, Object> resources = new ConcurrentHashMap<String, Object>();
+
+        LoaderCache(ClassLoader loader) {
+            this.loader = new WeakReference<ClassLoader>(loader);
+        }
+
+    }
+
+    private static LoaderCache getCache(ClassLoader cl) {
+        LoaderCache cache = last;
+        if (cache != null && cache.loader.get() == cl) {
+            return cache;
+        }
+        synchronized (caches) {
+            cache = caches.get(cl);
+            if (cache == null) {
+                cache = new LoaderCache(cl);
+                caches.put(cl, cache);
+            }
+            last = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * Loads the class having the given name using the given class loader.
+     * Array class names (such as {@code [Ljava.lang.String;}) are supported.
+     */
+    public static Class<?> loadClass(ClassLoader cl, String name)
+            throws ClassNotFoundException {
+        if (cl == null) {
+            return Class.forName(name);
+        }
+        LoaderCache cache = getCache(cl);
+        Object value = cache.classes.get(name);
+        if (value == NOT_FOUND) {
+            throw new ClassNotFoundException(name);
+        }
+        if (value != null) {
+            Class<?> klass = (Class<?>) ((WeakReference<?>) value).get();
+            if (klass != null) {
+                return klass;
+            }
+        }
+        Class<?> klass;
+        try {
+            if (name.startsWith("[")) {
+                klass = Class.forName(name, true, cl);
+            } else {
+                klass = cl.loadClass(name);
+            }
+        } catch (ClassNotFoundException e) {
+            cache.classes.put(name, NOT_FOUND);
+            throw e;
+        }
+        cache.classes.put(name, new WeakReference<Class<?>>(klass));
+        return klass;
+    }
+
+    /**
+     * Finds the resource having the given name using the given class loader.
+     *
+     * @return the resource URL, or null if not found
+     */
+    public static URL getResource(ClassLoader cl, String name) {
+        if (cl == null) {
+            return ClassLoader.getSystemResource(name);
+        }
+        LoaderCache cache = getCache(cl);
+        Object value = cache.resources.get(name);
+        if (value == NOT_FOUND) {
+            return null;
+        }
+        if (value != null) {
+            return (URL) value;
+        }
+        URL url = cl.getResource(name);
+        cache.resources.put(name, url == null ? NOT_FOUND : url);
+        return url;
+    }
+
+    /**
+     * Forgets the classes and resources resolved by the given class loader.
+     */
+    public static void invalidate(ClassLoader cl) {
+        synchronized (caches) {
+            caches.remove(cl);
+            last = null;
+        }
+    }
+
+    /**
+     * Forgets the classes and resources resolved by all the class loaders.
+     */
+    public static void clear() {
+        synchronized (caches) {
+            caches.clear();
+            last = null;
+        }
+    }
+
+}
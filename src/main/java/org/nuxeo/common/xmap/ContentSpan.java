@@ -0,0 +1,80 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.common.xmap;
+
+/**
+ * A span of the text of an XML source, used as the value of raw
+ * {@link org.nuxeo.common.xmap.annotation.XContent} members.
+ * <p>
+ * The span shares the characters of the source and is turned into a string
+ * only when {@link #toString()} is first called.
+ *
+ * @since 7.1
+ */
+final class ContentSpan implements CharSequence {
+
+    private final char[] chars;
+
+    private final int start;
+
+    private final int end;
+
+    private String string;
+
+    ContentSpan(char[] chars, int start, int end) {
+        this.chars = chars;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return chars[start + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to > end - start || from > to) {
+            throw new IndexOutOfBoundsException(from + ", " + to);
+        }
+        return new ContentSpan(chars, start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+        String s = string;
+        if (s == null) {
+            s = new String(chars, start, end - start);
+            string = s;
+        }
+        return s;
+    }
+
+}
@@ -36,16 +36,20 @@ public class Context extends ArrayList<Object> {
 
     private final HashMap<String, Object> properties = new HashMap<String, Object>();
 
+    // records the metrics of the current load, if enabled
+    transient XMapMetrics.Recorder recorder;
 
     public Class<?> loadClass(String className) throws ClassNotFoundException {
-        if (className.startsWith("[")) {
-            return Class.forName(className, true, Thread.currentThread().getContextClassLoader());
+        if (recorder != null) {
+            recorder.loadClass();
         }
-        return Thread.currentThread().getContextClassLoader().loadClass(className);
+        return ClassResolutionCache.loadClass(
+                Thread.currentThread().getContextClassLoader(), className);
     }
 
     public URL getResource(String name) {
-        return Thread.currentThread().getContextClassLoader().getResource(name);
+        return ClassResolutionCache.getResource(
+                Thread.currentThread().getContextClassLoader(), name);
     }
 
     public Object getObject() {
@@ -26,7 +26,7 @@ import java.io.StringReader;
 import java.util.Collection;
 import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.commons.logging.Log;
@@ -233,10 +233,15 @@ public final class DOMHelper {
         // Wrap the fragment in an arbitrary element
         fragment = "<fragment>" + fragment + "</fragment>";
         try {
-            // Create a DOM builder and parse the fragment
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            Document d = factory.newDocumentBuilder().parse(
-                    new InputSource(new StringReader(fragment)));
+            // Get a DOM builder and parse the fragment
+            DocumentBuilderPool builders = DOMSerializer.getBuilderPool();
+            DocumentBuilder builder = builders.acquire();
+            Document d;
+            try {
+                d = builder.parse(new InputSource(new StringReader(fragment)));
+            } finally {
+                builders.release(builder);
+            }
 
             Document doc = el.getOwnerDocument();
 
@@ -41,7 +41,8 @@ import org.w3c.dom.ranges.Range;
  */
 public final class DOMSerializer {
 
-    private static final DocumentBuilderFactory BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+    private static final DocumentBuilderPool BUILDERS = new DocumentBuilderPool(
+            initFactory(), XMLParserProfile.getDefault());
 
     // Default output format which is : no xml declaration, no document type,
     // indent.
@@ -58,11 +59,30 @@ public final class DOMSerializer {
     private DOMSerializer() {
     }
 
+    private static DocumentBuilderFactory initFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        XMLParserProfile.getDefault().configure(factory);
+        return factory;
+    }
+
     /**
+     * Gets the factory of the builders of this class. It must be used read
+     * only, see {@link DocumentBuilderPool#getFactory()}.
+     *
      * @return the builderFactory
      */
     public static DocumentBuilderFactory getBuilderFactory() {
-        return BUILDER_FACTORY;
+        return BUILDERS.getFactory();
+    }
+
+    /**
+     * Gets the pool of builders created by the {@link #getBuilderFactory()
+     * builder factory}.
+     *
+     * @since 7.1
+     */
+    public static DocumentBuilderPool getBuilderPool() {
+        return BUILDERS;
     }
 
     public static String toString(Element element) throws IOException {
@@ -0,0 +1,55 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+
+/**
+ * How the values of {@link Element} and {@link DocumentFragment} typed
+ * members are stored in the mapped objects, see
+ * {@link XMap#setDOMValueMode(DOMValueMode)}.
+ *
+ * @since 7.1
+ */
+public enum DOMValueMode {
+
+    /**
+     * The nodes of the parsed document are kept, which keeps the whole
+     * document in memory. This is the default.
+     */
+    LIVE,
+
+    /**
+     * The nodes are copied to a document of their own and made read-only
+     * when supported by the DOM implementation, so that the parsed document
+     * can be garbage collected.
+     */
+    DETACHED,
+
+    /**
+     * The nodes are kept as XML text behind a read-only node, which parses
+     * the text again on first access. The parsed tree is softly referenced,
+     * so memory is given back once it is no longer used.
+     */
+    LAZY
+
+}
@@ -0,0 +1,273 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.xerces.dom.NodeImpl;
+import org.apache.xml.serialize.OutputFormat;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Detaches the DOM values of mapped members from the parsed document,
+ * according to a {@link DOMValueMode}.
+ *
+ * @since 7.1
+ */
+final class DOMValues {
+
+    private static final ClassLoader LOADER = DOMValues.class.getClassLoader();
+
+    private static final Class<?>[] ELEMENT = { Element.class };
+
+    private static final Class<?>[] FRAGMENT = { DocumentFragment.class };
+
+    private static final OutputFormat FORMAT = new OutputFormat();
+
+    // the element holding the serialized content of a lazy fragment
+    private static final String FRAGMENT_WRAPPER = "fragment";
+
+    static {
+        FORMAT.setOmitXMLDeclaration(true);
+        FORMAT.setEncoding("UTF-8");
+    }
+
+    // Utility class.
+    private DOMValues() {
+    }
+
+    /**
+     * Gets the value to store for the given element.
+     */
+    static Element detach(Element el, DOMValueMode mode) {
+        if (mode == DOMValueMode.LIVE) {
+            return el;
+        }
+        Document doc = newDocument();
+        Element copy = (Element) doc.importNode(el, true);
+        declareNamespaces(copy, copy);
+        doc.appendChild(copy);
+        if (mode == DOMValueMode.LAZY) {
+            return (Element) Proxy.newProxyInstance(LOADER, ELEMENT,
+                    new LazyNode(serialize(copy), false));
+        }
+        setReadOnly(copy);
+        return copy;
+    }
+
+    /**
+     * Gets the value to store for the content of the given element.
+     */
+    static DocumentFragment detachContent(Element el, DOMValueMode mode) {
+        Document doc = newDocument();
+        // the lazy content is kept as a serialized wrapper element, as the
+        // serialization of fragments does not close a final CDATA section
+        boolean lazy = mode == DOMValueMode.LAZY;
+        Node parent = lazy ? doc.createElement(FRAGMENT_WRAPPER)
+                : doc.createDocumentFragment();
+        for (Node node = el.getFirstChild(); node != null; node = node.getNextSibling()) {
+            Node copy = doc.importNode(node, true);
+            if (copy.getNodeType() == Node.ELEMENT_NODE) {
+                declareNamespaces((Element) copy, (Element) copy);
+            }
+            parent.appendChild(copy);
+        }
+        if (lazy) {
+            doc.appendChild(parent);
+            return (DocumentFragment) Proxy.newProxyInstance(LOADER,
+                    FRAGMENT, new LazyNode(serialize((Element) parent), true));
+        }
+        setReadOnly(parent);
+        return (DocumentFragment) parent;
+    }
+
+    /**
+     * Declares on the given copy the namespaces used by its descendants,
+     * whose declarations may be lost by the copy.
+     */
+    static void declareNamespaces(Element copy, Element el) {
+        declareNamespace(copy, el, el.getPrefix(), el.getNamespaceURI());
+        NamedNodeMap attrs = el.getAttributes();
+        for (int i = 0, len = attrs.getLength(); i < len; i++) {
+            Node attr = attrs.item(i);
+            String uri = attr.getNamespaceURI();
+            if (attr.getPrefix() != null
+                    && !XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(uri)) {
+                declareNamespace(copy, el, attr.getPrefix(), uri);
+            }
+        }
+        for (Node n = el.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.ELEMENT_NODE) {
+                declareNamespaces(copy, (Element) n);
+            }
+        }
+    }
+
+    private static void declareNamespace(Element copy, Element el,
+            String prefix, String uri) {
+        if (uri == null) {
+            return;
+        }
+        String localName = prefix == null ? "xmlns" : prefix;
+        for (Node n = el; n != null && n.getNodeType() == Node.ELEMENT_NODE; n = n.getParentNode()) {
+            if (((Element) n).getAttributeNodeNS(
+                    XMLConstants.XMLNS_ATTRIBUTE_NS_URI, localName) != null) {
+                return;
+            }
+        }
+        copy.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                prefix == null ? "xmlns" : "xmlns:" + prefix, uri);
+    }
+
+    static void setReadOnly(Node node) {
+        if (node instanceof NodeImpl) {
+            ((NodeImpl) node).setReadOnly(true, true);
+        }
+    }
+
+    static Document newDocument() {
+        try {
+            return XMap.getBuilderPool().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String serialize(Element element) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DOMSerializer.write(element, FORMAT, out);
+            return out.toString("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Parses XML text again when the node is first accessed.
+     */
+    static final class LazyNode implements InvocationHandler {
+
+        final String xml;
+
+        final boolean fragment;
+
+        private volatile SoftReference<Node> ref;
+
+        LazyNode(String xml, boolean fragment) {
+            this.xml = xml;
+            this.fragment = fragment;
+        }
+
+        Node getNode() {
+            SoftReference<Node> r = ref;
+            Node node = r == null ? null : r.get();
+            if (node == null) {
+                node = parse();
+                ref = new SoftReference<Node>(node);
+            }
+            return node;
+        }
+
+        Node parse() {
+            Document doc;
+            try {
+                DocumentBuilderPool builders = XMap.getBuilderPool();
+                DocumentBuilder builder = builders.acquire();
+                try {
+                    doc = builder.parse(new InputSource(new StringReader(xml)));
+                } finally {
+                    builders.release(builder);
+                }
+            } catch (ParserConfigurationException | SAXException | IOException e) {
+                throw new IllegalStateException(e);
+            }
+            Node node = doc.getDocumentElement();
+            if (fragment) {
+                // strip the wrapper element
+                DocumentFragment df = doc.createDocumentFragment();
+                while (node.getFirstChild() != null) {
+                    df.appendChild(node.getFirstChild());
+                }
+                doc.removeChild(node);
+                node = df;
+            }
+            setReadOnly(node);
+            return node;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                case "equals":
+                    return Boolean.valueOf(proxy == args[0]);
+                case "hashCode":
+                    return Integer.valueOf(System.identityHashCode(proxy));
+                default:
+                    return xml;
+                }
+            }
+            Node node = getNode();
+            if (args != null) {
+                // nodes given to the real node must be real nodes too
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = unwrap(args[i]);
+                }
+            }
+            try {
+                return method.invoke(node, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        static Object unwrap(Object arg) {
+            if (arg instanceof Node && Proxy.isProxyClass(arg.getClass())) {
+                InvocationHandler handler = Proxy.getInvocationHandler(arg);
+                if (handler instanceof LazyNode) {
+                    return ((LazyNode) handler).getNode();
+                }
+            }
+            return arg;
+        }
+
+    }
+
+}
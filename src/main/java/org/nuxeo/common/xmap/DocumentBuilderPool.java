@@ -0,0 +1,157 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+
+/**
+ * A pool of {@link DocumentBuilder} created by a given factory.
+ * <p>
+ * Each thread keeps at most one idle builder, which is {@link
+ * DocumentBuilder#reset() reset} when released, so that parsing many small
+ * documents does not pay for the parser setup each time. As idle builders
+ * keep the configuration of the factory when they were created, the factory
+ * must not be changed once the pool is created. Builders must be
+ * released in a finally block:
+ *
+ * <pre>
+ * DocumentBuilder builder = pool.acquire();
+ * try {
+ *     doc = builder.parse(in);
+ * } finally {
+ *     pool.release(builder);
+ * }
+ * </pre>
+ *
+ * @since 7.1
+ */
+public final class DocumentBuilderPool {
+
+    private final DocumentBuilderFactory factory;
+
+    private final XMLParserProfile profile;
+
+    private final ThreadLocal<DocumentBuilder> idle = new ThreadLocal<DocumentBuilder>();
+
+    private final AtomicLong created = new AtomicLong();
+
+    private final AtomicLong reused = new AtomicLong();
+
+    public DocumentBuilderPool(DocumentBuilderFactory factory) {
+        this(factory, null);
+    }
+
+    /**
+     * Creates a pool whose builders are configured by the given profile,
+     * which must already be applied to the factory.
+     */
+    public DocumentBuilderPool(DocumentBuilderFactory factory,
+            XMLParserProfile profile) {
+        this.factory = factory;
+        this.profile = profile;
+    }
+
+    /**
+     * Gets the factory used to create the builders. It must be used read
+     * only: a change would only apply to the builders created afterwards,
+     * and not to the idle builders of the threads that already parsed.
+     */
+    public DocumentBuilderFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Gets the profile configuring the builders, or null if none.
+     */
+    public XMLParserProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Gets a builder, either the idle one of the current thread or a new one.
+     */
+    public DocumentBuilder acquire() throws ParserConfigurationException {
+        DocumentBuilder builder = idle.get();
+        if (builder != null) {
+            idle.set(null);
+            reused.incrementAndGet();
+        } else {
+            created.incrementAndGet();
+            // factories are not required to be thread safe
+            synchronized (factory) {
+                builder = factory.newDocumentBuilder();
+            }
+        }
+        if (profile != null) {
+            // the entity resolver does not survive a reset
+            profile.configure(builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Creates an empty document using a pooled builder.
+     */
+    public Document newDocument() throws ParserConfigurationException {
+        DocumentBuilder builder = acquire();
+        try {
+            return builder.newDocument();
+        } finally {
+            release(builder);
+        }
+    }
+
+    /**
+     * Gives back a builder obtained from {@link #acquire()}.
+     */
+    public void release(DocumentBuilder builder) {
+        if (idle.get() != null) {
+            return; // nested use, keep only one builder per thread
+        }
+        try {
+            builder.reset();
+        } catch (UnsupportedOperationException e) {
+            return; // cannot be reused
+        }
+        idle.set(builder);
+    }
+
+    /**
+     * Gets the number of builders created by this pool.
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * Gets the number of times an idle builder was reused.
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A snapshot store keeping each snapshot in a file of a directory.
+ * <p>
+ * Files are written atomically where the file system allows it, so that
+ * several processes may share the same directory.
+ *
+ * @since 7.1
+ */
+public class FileSnapshotStore implements SnapshotStore {
+
+    private static final Log log = LogFactory.getLog(FileSnapshotStore.class);
+
+    public static final String SUFFIX = ".xms";
+
+    protected final File dir;
+
+    public FileSnapshotStore(File dir) {
+        this.dir = dir;
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        File file = new File(dir, key + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            log.warn("Cannot read XMap snapshot: " + file, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] snapshot) {
+        File file = new File(dir, key + SUFFIX);
+        File tmp = null;
+        try {
+            dir.mkdirs();
+            tmp = File.createTempFile(key, ".tmp", dir);
+            Files.write(tmp.toPath(), snapshot);
+            try {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot write XMap snapshot: " + file, e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Removes all the snapshots in the directory, including the ones no
+     * longer used since their source or mapping changed.
+     */
+    public void clear() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+}
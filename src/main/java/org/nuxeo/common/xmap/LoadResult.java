@@ -0,0 +1,84 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.common.xmap;
+
+import java.net.URL;
+
+/**
+ * The outcome of loading one file of a batch, see
+ * {@link XMap#loadAll(java.util.Collection, java.util.concurrent.Executor)}.
+ * <p>
+ * Either the objects found in the file or the error that prevented to load
+ * it are available.
+ *
+ * @since 7.1
+ */
+public final class LoadResult {
+
+    private final URL url;
+
+    private final Object[] objects;
+
+    private final Exception error;
+
+    LoadResult(URL url, Object[] objects, Exception error) {
+        this.url = url;
+        this.objects = objects;
+        this.error = error;
+    }
+
+    /**
+     * Gets the URL of the loaded file.
+     */
+    public URL getURL() {
+        return url;
+    }
+
+    /**
+     * Gets all the registered top level objects found in the file, or null if
+     * the file could not be loaded.
+     */
+    public Object[] getObjects() {
+        return objects;
+    }
+
+    /**
+     * Gets the error raised while loading the file, or null if the file was
+     * successfully loaded. This is usually an {@link java.io.IOException} for
+     * unreadable or malformed files, or a runtime exception raised while
+     * mapping the objects.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return url + (error == null ? " (" + objects.length + " objects)"
+                : " (" + error + ")");
+    }
+
+}
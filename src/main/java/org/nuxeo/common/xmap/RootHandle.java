@@ -0,0 +1,269 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * A registered top level object found while indexing an XML stream, see
+ * {@link XMap#index(java.io.InputStream)}.
+ * <p>
+ * The handle records the root element name and the span of the object
+ * element in the source text. The object is mapped from this span the first
+ * time it is asked for, then kept by the handle. Handles of a source read
+ * from a URL only keep the URL and a digest of their span, and read the
+ * source again when mapping, failing if the span changed. Other handles
+ * keep a UTF-8 copy of their span until their object is mapped. The
+ * decoded text of the whole source is never kept.
+ * <p>
+ * Sources having a document type declaration cannot be indexed: their
+ * objects are mapped during indexing and the handles only hold them.
+ *
+ * @since 7.1
+ */
+public final class RootHandle {
+
+    private final XMap xmap;
+
+    private final String name;
+
+    private final XAnnotatedObject xao;
+
+    private final int start;
+
+    private final int end;
+
+    // the namespaces declared by the ancestors of the object element
+    private final Map<String, String> namespaces;
+
+    // the source to read again, null if the span is copied
+    private final URL url;
+
+    // the SHA-1 digest of the span read from the URL
+    private final byte[] digest;
+
+    // the UTF-8 source text of the span, if copied and not mapped yet
+    private byte[] span;
+
+    private boolean loaded;
+
+    private Object object;
+
+    RootHandle(XMap xmap, String name, XAnnotatedObject xao, URL url,
+            char[] chars, int start, int end, Map<String, String> namespaces) {
+        this.xmap = xmap;
+        this.name = name;
+        this.xao = xao;
+        this.url = url;
+        this.start = start;
+        this.end = end;
+        this.namespaces = namespaces;
+        byte[] bytes = new String(chars, start, end - start).getBytes(StandardCharsets.UTF_8);
+        if (url == null) {
+            span = bytes;
+            digest = null;
+        } else {
+            digest = DigestUtils.sha1(bytes);
+        }
+    }
+
+    RootHandle(XMap xmap, String name, XAnnotatedObject xao, Object object) {
+        this.xmap = xmap;
+        this.name = name;
+        this.xao = xao;
+        url = null;
+        digest = null;
+        start = -1;
+        end = -1;
+        namespaces = null;
+        this.object = object;
+        loaded = true;
+    }
+
+    /**
+     * Gets the name of the object element.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the class of the object.
+     */
+    public Class<?> getObjectClass() {
+        return xao.klass;
+    }
+
+    /**
+     * Gets the offset of the object element in the source text, in
+     * characters, or -1 if the source was not indexed.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Gets the offset following the object element in the source text, in
+     * characters, or -1 if the source was not indexed.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Gets the source text of the object element, or null if the source was
+     * not indexed or the object is already mapped.
+     */
+    synchronized String getSource() throws IOException {
+        if (loaded) {
+            return null;
+        }
+        char[] text = readSpan();
+        return new String(text);
+    }
+
+    /**
+     * Checks whether the object is already mapped.
+     */
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Gets the object, mapping it using a default context if needed.
+     */
+    public Object getObject() throws IOException {
+        return getObject(new Context());
+    }
+
+    /**
+     * Gets the object, mapping it using the given context if needed. The
+     * context is ignored once the object is mapped.
+     */
+    public synchronized Object getObject(Context ctx) throws IOException {
+        if (!loaded) {
+            XMapMetrics.Recorder recorder = xmap.startRecording(ctx, null);
+            try {
+                object = load(ctx);
+            } finally {
+                XMap.endRecording(ctx, recorder);
+            }
+            loaded = true;
+            span = null;
+        }
+        return object;
+    }
+
+    /**
+     * Gets the source text of the object element, reading the source again
+     * if the span was not copied.
+     */
+    private char[] readSpan() throws IOException {
+        if (url == null) {
+            return new String(span, StandardCharsets.UTF_8).toCharArray();
+        }
+        byte[] content;
+        InputStream in = url.openStream();
+        try {
+            content = IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+        SourceScanner source = SourceScanner.create(content);
+        if (source == null || end > source.length) {
+            throw new IOException("Source changed since indexed: " + url);
+        }
+        char[] text = new char[end - start];
+        System.arraycopy(source.chars, start, text, 0, text.length);
+        byte[] bytes = new String(text).getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(digest, DigestUtils.sha1(bytes))) {
+            throw new IOException("Source changed since indexed: " + url);
+        }
+        return text;
+    }
+
+    private Object load(Context ctx) throws IOException {
+        char[] chars = readSpan();
+        char[] text = chars;
+        int offset = 0;
+        int length = chars.length;
+        if (!namespaces.isEmpty()) {
+            // redeclare the namespaces of the ancestors on a wrapper element
+            StringBuilder buf = new StringBuilder(length + 64);
+            buf.append("<root");
+            for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+                String prefix = entry.getKey();
+                buf.append(prefix.length() == 0 ? " xmlns" : " xmlns:"
+                        + prefix);
+                buf.append("=\"").append(escape(entry.getValue())).append('"');
+            }
+            buf.append('>').append(chars, 0, length).append("</root>");
+            text = buf.toString().toCharArray();
+            offset = 0;
+            length = text.length;
+        }
+        if (xmap.isStreaming() || xmap.hasRawContent()) {
+            return new StreamLoader(xmap, ctx).load(text, offset, offset
+                    + length);
+        }
+        try {
+            Document document;
+            DocumentBuilder builder = XMap.getBuilderPool().acquire();
+            try {
+                document = builder.parse(new InputSource(new CharArrayReader(
+                        text, offset, length)));
+            } finally {
+                XMap.getBuilderPool().release(builder);
+            }
+            return xmap.load(ctx, document.getDocumentElement());
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        } catch (SAXException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"",
+                "&quot;");
+    }
+
+    @Override
+    public String toString() {
+        return name + " [" + start + ", " + end + "]";
+    }
+
+}
@@ -0,0 +1,632 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.common.xmap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Replays the events recorded by a {@link SnapshotWriter} as a
+ * {@link XMLStreamReader}.
+ * <p>
+ * The whole snapshot is decoded when the reader is created, so that an
+ * invalid snapshot is detected before any event is delivered.
+ *
+ * @since 7.1
+ */
+final class SnapshotReader implements XMLStreamReader, Location {
+
+    static final class Event {
+
+        final int type;
+
+        String prefix;
+
+        String localName;
+
+        String uri;
+
+        // prefix, uri pairs
+        String[] namespaces;
+
+        // prefix, local name, uri, value quadruples
+        String[] attributes;
+
+        // text, or processing instruction data
+        String text;
+
+        String target;
+
+        // for end elements, the matching start element
+        Event start;
+
+        Event(int type) {
+            this.type = type;
+        }
+
+    }
+
+    private static final String[] NO_STRINGS = new String[0];
+
+    private static final Event START_DOCUMENT = new Event(
+            XMLStreamConstants.START_DOCUMENT);
+
+    private final Event[] events;
+
+    private int pos = -1;
+
+    private Event current = START_DOCUMENT;
+
+    private char[] chars;
+
+    // the start events of the open elements
+    private final List<Event> open = new ArrayList<Event>();
+
+    SnapshotReader(byte[] data) throws IOException {
+        try {
+            events = new Decoder(data).decode();
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid XMap snapshot", e);
+        }
+    }
+
+    /**
+     * Decodes the events of a snapshot.
+     */
+    static final class Decoder {
+
+        final byte[] data;
+
+        int offset;
+
+        final List<String> strings = new ArrayList<String>();
+
+        Decoder(byte[] data) {
+            this.data = data;
+        }
+
+        Event[] decode() throws IOException {
+            if (readInt() != SnapshotWriter.MAGIC) {
+                throw new IOException("Not an XMap snapshot");
+            }
+            List<Event> list = new ArrayList<Event>();
+            List<Event> stack = new ArrayList<Event>();
+            for (;;) {
+                Event event = new Event(data[offset++]);
+                switch (event.type) {
+                case XMLStreamConstants.START_ELEMENT:
+                    event.prefix = readRef();
+                    event.localName = readRef();
+                    event.uri = readRef();
+                    event.namespaces = readRefs(readInt() * 2);
+                    event.attributes = readRefs(readInt() * 4);
+                    stack.add(event);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    event.start = stack.remove(stack.size() - 1);
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    event.target = readRef();
+                    event.text = readString();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.COMMENT:
+                    event.text = readString();
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    if (!stack.isEmpty() || offset != data.length) {
+                        throw new IOException("Truncated XMap snapshot");
+                    }
+                    list.add(event);
+                    return list.toArray(new Event[list.size()]);
+                default:
+                    throw new IOException("Invalid XMap snapshot event: "
+                            + event.type);
+                }
+                list.add(event);
+            }
+        }
+
+        int readInt() {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = data[offset++];
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        String readString() {
+            int len = readInt() - 1;
+            if (len < 0) {
+                return null;
+            }
+            if (offset + len > data.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            String s = new String(data, offset, len, StandardCharsets.UTF_8);
+            offset += len;
+            return s;
+        }
+
+        String readRef() {
+            int index = readInt();
+            if (index == 0) {
+                return null;
+            }
+            if (index == strings.size() + 1) {
+                strings.add(readString());
+            }
+            return strings.get(index - 1);
+        }
+
+        String[] readRefs(int count) {
+            if (count == 0) {
+                return NO_STRINGS;
+            }
+            String[] refs = new String[count];
+            for (int i = 0; i < count; i++) {
+                refs[i] = readRef();
+            }
+            return refs;
+        }
+
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        if (!hasNext()) {
+            throw new IllegalStateException("No more events");
+        }
+        if (current.type == END_ELEMENT) {
+            open.remove(open.size() - 1);
+        }
+        current = events[++pos];
+        chars = null;
+        if (current.type == START_ELEMENT) {
+            open.add(current);
+        }
+        return current.type;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return current.type != END_DOCUMENT;
+    }
+
+    @Override
+    public int getEventType() {
+        return current.type;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // the start element for element events
+    private Event getElement() {
+        switch (current.type) {
+        case START_ELEMENT:
+            return current;
+        case END_ELEMENT:
+            return current.start;
+        default:
+            throw new IllegalStateException("Not an element event");
+        }
+    }
+
+    private Event getStartElement() {
+        if (current.type != START_ELEMENT) {
+            throw new IllegalStateException("Not a start element event");
+        }
+        return current;
+    }
+
+    @Override
+    public String getLocalName() {
+        return getElement().localName;
+    }
+
+    @Override
+    public String getPrefix() {
+        return getElement().prefix;
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return getElement().uri;
+    }
+
+    @Override
+    public QName getName() {
+        Event el = getElement();
+        return new QName(el.uri == null ? XMLConstants.NULL_NS_URI : el.uri,
+                el.localName, el.prefix == null ? XMLConstants.DEFAULT_NS_PREFIX
+                        : el.prefix);
+    }
+
+    @Override
+    public boolean hasName() {
+        return current.type == START_ELEMENT || current.type == END_ELEMENT;
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        return getElement().namespaces.length / 2;
+    }
+
+    @Override
+    public String getNamespacePrefix(int index) {
+        return getElement().namespaces[index * 2];
+    }
+
+    @Override
+    public String getNamespaceURI(int index) {
+        return getElement().namespaces[index * 2 + 1];
+    }
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return XMLConstants.XML_NS_URI;
+        }
+        if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+            return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+        }
+        for (int i = open.size() - 1; i >= 0; i--) {
+            String[] ns = open.get(i).namespaces;
+            for (int j = 0; j < ns.length; j += 2) {
+                String p = ns[j] == null ? XMLConstants.DEFAULT_NS_PREFIX
+                        : ns[j];
+                if (p.equals(prefix)) {
+                    return ns[j + 1];
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return new NamespaceContext() {
+            @Override
+            public String getNamespaceURI(String prefix) {
+                String uri = SnapshotReader.this.getNamespaceURI(prefix);
+                return uri == null ? XMLConstants.NULL_NS_URI : uri;
+            }
+
+            @Override
+            public String getPrefix(String namespaceURI) {
+                for (int i = open.size() - 1; i >= 0; i--) {
+                    String[] ns = open.get(i).namespaces;
+                    for (int j = 0; j < ns.length; j += 2) {
+                        if (namespaceURI.equals(ns[j + 1])) {
+                            return ns[j] == null ? XMLConstants.DEFAULT_NS_PREFIX
+                                    : ns[j];
+                        }
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public Iterator<String> getPrefixes(String namespaceURI) {
+                String prefix = getPrefix(namespaceURI);
+                if (prefix == null) {
+                    return Collections.<String> emptyList().iterator();
+                }
+                return Collections.singletonList(prefix).iterator();
+            }
+        };
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return getStartElement().attributes.length / 4;
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+        return getStartElement().attributes[index * 4];
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+        return getStartElement().attributes[index * 4 + 1];
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        return getStartElement().attributes[index * 4 + 2];
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return getStartElement().attributes[index * 4 + 3];
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+        String prefix = getAttributePrefix(index);
+        String uri = getAttributeNamespace(index);
+        return new QName(uri == null ? XMLConstants.NULL_NS_URI : uri,
+                getAttributeLocalName(index),
+                prefix == null ? XMLConstants.DEFAULT_NS_PREFIX : prefix);
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+        getStartElement();
+        return "CDATA";
+    }
+
+    @Override
+    public boolean isAttributeSpecified(int index) {
+        getStartElement();
+        return true;
+    }
+
+    @Override
+    public String getAttributeValue(String namespaceURI, String localName) {
+        String[] attrs = getStartElement().attributes;
+        for (int i = 0; i < attrs.length; i += 4) {
+            if (localName.equals(attrs[i + 1])
+                    && (namespaceURI == null || namespaceURI.equals(
+                            attrs[i + 2] == null ? "" : attrs[i + 2]))) {
+                return attrs[i + 3];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasText() {
+        switch (current.type) {
+        case CHARACTERS:
+        case CDATA:
+        case SPACE:
+        case COMMENT:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    @Override
+    public String getText() {
+        if (!hasText()) {
+            throw new IllegalStateException("Not a text event");
+        }
+        return current.text;
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        if (chars == null) {
+            chars = getText().toCharArray();
+        }
+        return chars;
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target,
+            int targetStart, int length) {
+        char[] text = getTextCharacters();
+        int len = Math.min(length, text.length - sourceStart);
+        if (len <= 0) {
+            return 0;
+        }
+        System.arraycopy(text, sourceStart, target, targetStart, len);
+        return len;
+    }
+
+    @Override
+    public int getTextStart() {
+        getText();
+        return 0;
+    }
+
+    @Override
+    public int getTextLength() {
+        return getText().length();
+    }
+
+    @Override
+    public String getPITarget() {
+        return current.type == PROCESSING_INSTRUCTION ? current.target : null;
+    }
+
+    @Override
+    public String getPIData() {
+        return current.type == PROCESSING_INSTRUCTION ? current.text : null;
+    }
+
+    @Override
+    public boolean isStartElement() {
+        return current.type == START_ELEMENT;
+    }
+
+    @Override
+    public boolean isEndElement() {
+        return current.type == END_ELEMENT;
+    }
+
+    @Override
+    public boolean isCharacters() {
+        return current.type == CHARACTERS;
+    }
+
+    @Override
+    public boolean isWhiteSpace() {
+        if (current.type == SPACE) {
+            return true;
+        }
+        if (current.type != CHARACTERS) {
+            return false;
+        }
+        String text = current.text;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void require(int type, String namespaceURI, String localName)
+            throws XMLStreamException {
+        if (type != current.type
+                || namespaceURI != null
+                && !namespaceURI.equals(getNamespaceURI())
+                || localName != null && !localName.equals(getLocalName())) {
+            throw new XMLStreamException("Unexpected event: " + current.type);
+        }
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+        require(START_ELEMENT, null, null);
+        StringBuilder buf = new StringBuilder();
+        for (;;) {
+            switch (next()) {
+            case CHARACTERS:
+            case CDATA:
+            case SPACE:
+                buf.append(current.text);
+                break;
+            case COMMENT:
+            case PROCESSING_INSTRUCTION:
+                break;
+            case END_ELEMENT:
+                return buf.toString();
+            default:
+                throw new XMLStreamException(
+                        "Element text expected, got event: " + current.type);
+            }
+        }
+    }
+
+    @Override
+    public int nextTag() throws XMLStreamException {
+        for (;;) {
+            int type = next();
+            switch (type) {
+            case START_ELEMENT:
+            case END_ELEMENT:
+                return type;
+            case COMMENT:
+            case PROCESSING_INSTRUCTION:
+            case SPACE:
+                break;
+            case CHARACTERS:
+            case CDATA:
+                if (isWhiteSpace()) {
+                    break;
+                }
+                throw new XMLStreamException("Tag expected, got text");
+            default:
+                throw new XMLStreamException("Tag expected, got event: "
+                        + type);
+            }
+        }
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public String getEncoding() {
+        return null;
+    }
+
+    @Override
+    public String getVersion() {
+        return null;
+    }
+
+    @Override
+    public boolean isStandalone() {
+        return false;
+    }
+
+    @Override
+    public boolean standaloneSet() {
+        return false;
+    }
+
+    @Override
+    public String getCharacterEncodingScheme() {
+        return null;
+    }
+
+    @Override
+    public Location getLocation() {
+        return this;
+    }
+
+    // Location, there is no source to refer to
+
+    @Override
+    public int getLineNumber() {
+        return -1;
+    }
+
+    @Override
+    public int getColumnNumber() {
+        return -1;
+    }
+
+    @Override
+    public int getCharacterOffset() {
+        return -1;
+    }
+
+    @Override
+    public String getPublicId() {
+        return null;
+    }
+
+    @Override
+    public String getSystemId() {
+        return null;
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+/**
+ * Stores the snapshots XMap takes of the XML it loads, so that unchanged
+ * sources can later be mapped again without being parsed.
+ * <p>
+ * A snapshot is a compact binary form of the parsing events that matter to
+ * the registered mappings. Keys are derived from the source content and from
+ * the signature of the registered mappings: a changed source or mapping gets
+ * a new key, so stored snapshots never need to be invalidated explicitly.
+ * <p>
+ * Snapshots are only a cache: a store may drop them at any time, and should
+ * not raise errors when it fails to read or write them.
+ *
+ * @see XMap#setSnapshotStore(SnapshotStore)
+ * @since 7.1
+ */
+public interface SnapshotStore {
+
+    /**
+     * Gets the snapshot stored under the given key.
+     *
+     * @return the snapshot, or null if none is available
+     */
+    byte[] get(String key);
+
+    /**
+     * Stores a snapshot under the given key.
+     */
+    void put(String key, byte[] snapshot);
+
+}
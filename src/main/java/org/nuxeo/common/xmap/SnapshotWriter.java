@@ -0,0 +1,148 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.common.xmap;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Records StAX events in the binary snapshot format read back by
+ * {@link SnapshotReader}.
+ * <p>
+ * The format is a magic number followed by the events, each one starting
+ * with its {@link XMLStreamConstants} type and ending with
+ * {@code END_DOCUMENT}. Integers are written as variable length quantities.
+ * Names, namespaces and attribute values are written once and then referred
+ * to by their index; text content is written inline.
+ *
+ * @since 7.1
+ */
+final class SnapshotWriter {
+
+    static final int MAGIC = 0x584d5301; // "XMS" 1
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    // number of open elements
+    private int depth;
+
+    SnapshotWriter() {
+        writeInt(MAGIC);
+    }
+
+    void startElement(XMLStreamReader reader) {
+        depth++;
+        out.write(XMLStreamConstants.START_ELEMENT);
+        writeRef(reader.getPrefix());
+        writeRef(reader.getLocalName());
+        writeRef(reader.getNamespaceURI());
+        int count = reader.getNamespaceCount();
+        writeInt(count);
+        for (int i = 0; i < count; i++) {
+            writeRef(reader.getNamespacePrefix(i));
+            writeRef(reader.getNamespaceURI(i));
+        }
+        count = reader.getAttributeCount();
+        writeInt(count);
+        for (int i = 0; i < count; i++) {
+            writeRef(reader.getAttributePrefix(i));
+            writeRef(reader.getAttributeLocalName(i));
+            writeRef(reader.getAttributeNamespace(i));
+            writeRef(reader.getAttributeValue(i));
+        }
+    }
+
+    void endElement() {
+        depth--;
+        out.write(XMLStreamConstants.END_ELEMENT);
+    }
+
+    /**
+     * Records a text, comment or processing instruction event.
+     */
+    void event(int type, XMLStreamReader reader) {
+        out.write(type);
+        if (type == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+            writeRef(reader.getPITarget());
+            writeString(reader.getPIData());
+        } else {
+            writeString(reader.getText());
+        }
+    }
+
+    /**
+     * Ends the snapshot and returns its content.
+     * <p>
+     * Elements left open when the loader stopped early are closed. The
+     * replay stops at the same point so these events are never dispatched.
+     */
+    byte[] toByteArray() {
+        while (depth > 0) {
+            endElement();
+        }
+        out.write(XMLStreamConstants.END_DOCUMENT);
+        return out.toByteArray();
+    }
+
+    private void writeInt(int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            writeInt(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    // 0 is null, a new index is followed by the string
+    private void writeRef(String value) {
+        if (value == null) {
+            writeInt(0);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeInt(index.intValue());
+            return;
+        }
+        index = Integer.valueOf(strings.size() + 1);
+        strings.put(value, index);
+        writeInt(index.intValue());
+        writeString(value);
+    }
+
+}
@@ -0,0 +1,348 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.common.xmap;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Follows the tags of an XML source while its events are dispatched, so that
+ * the character span of the content of the current element is known.
+ * <p>
+ * StAX locations do not give reliable character offsets, so the source is
+ * decoded once and scanned for markup: {@link #startElement(String)} and
+ * {@link #endElement()} must be called for each element event of the
+ * source, in order. Documents having a document type declaration are not
+ * scanned, as their entities may expand to elements.
+ *
+ * @since 7.1
+ */
+final class SourceScanner {
+
+    final char[] chars;
+
+    final int length;
+
+    int pos;
+
+    // start of the start tag of the last started element
+    int elementStart;
+
+    // content start of the last started element
+    int contentStart;
+
+    // content end of the last ended element
+    int contentEnd;
+
+    // end of the end tag of the last ended element
+    int elementEnd;
+
+    // the last started element is an empty element tag
+    boolean empty;
+
+    SourceScanner(char[] chars, int length) {
+        this.chars = chars;
+        this.length = length;
+    }
+
+    /**
+     * Creates a scanner of the given XML source.
+     *
+     * @return the scanner, or null if the source cannot be scanned
+     */
+    static SourceScanner create(byte[] content) {
+        int offset = 0;
+        Charset charset;
+        if (startsWith(content, 0xEF, 0xBB, 0xBF)) {
+            charset = StandardCharsets.UTF_8;
+            offset = 3;
+        } else if (startsWith(content, 0xFE, 0xFF)) {
+            charset = StandardCharsets.UTF_16BE;
+            offset = 2;
+        } else if (startsWith(content, 0xFF, 0xFE)) {
+            charset = StandardCharsets.UTF_16LE;
+            offset = 2;
+        } else if (startsWith(content, 0x00, 0x3C, 0x00, 0x3F)) {
+            charset = StandardCharsets.UTF_16BE;
+        } else if (startsWith(content, 0x3C, 0x00, 0x3F, 0x00)) {
+            charset = StandardCharsets.UTF_16LE;
+        } else {
+            charset = getDeclaredCharset(content);
+            if (charset == null) {
+                return null;
+            }
+        }
+        CharBuffer buf = charset.decode(ByteBuffer.wrap(content, offset,
+                content.length - offset));
+        SourceScanner scanner;
+        if (buf.hasArray() && buf.arrayOffset() == 0) {
+            scanner = new SourceScanner(buf.array(), buf.limit());
+        } else {
+            char[] chars = new char[buf.remaining()];
+            buf.get(chars);
+            scanner = new SourceScanner(chars, chars.length);
+        }
+        return scanner.hasDoctype() ? null : scanner;
+    }
+
+    private static boolean startsWith(byte[] content, int... bytes) {
+        if (content.length < bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if ((content[i] & 0xFF) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the charset given by the XML declaration, UTF-8 if none.
+     *
+     * @return the charset, or null if not supported
+     */
+    static Charset getDeclaredCharset(byte[] content) {
+        String head = new String(content, 0, Math.min(content.length, 200),
+                StandardCharsets.ISO_8859_1);
+        if (!head.startsWith("<?xml")) {
+            return StandardCharsets.UTF_8;
+        }
+        int end = head.indexOf("?>");
+        int i = head.indexOf("encoding");
+        if (i < 0 || (end >= 0 && i > end)) {
+            return StandardCharsets.UTF_8;
+        }
+        i = head.indexOf('=', i);
+        while (i >= 0 && ++i < head.length() && head.charAt(i) <= ' ') {
+            // skip spaces
+        }
+        if (i < 0 || i >= head.length()) {
+            return null;
+        }
+        char quote = head.charAt(i);
+        int close = head.indexOf(quote, i + 1);
+        if ((quote != '"' && quote != '\'') || close < 0) {
+            return null;
+        }
+        try {
+            return Charset.forName(head.substring(i + 1, close));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the prolog has a document type declaration.
+     */
+    boolean hasDoctype() {
+        int i = 0;
+        while (true) {
+            while (i < length && chars[i] <= ' ') {
+                i++;
+            }
+            if (startsWith(i, "<?")) {
+                i = skipPast(i, "?>");
+            } else if (startsWith(i, "<!--")) {
+                i = skipPast(i, "-->");
+            } else {
+                return startsWith(i, "<!DOCTYPE");
+            }
+            if (i < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Moves past the start tag of the next element, which must have the
+     * given qualified name.
+     */
+    void startElement(String name) throws XMLStreamException {
+        int i = nextTag();
+        if (chars[i + 1] == '/' || !startsWith(i + 1, name)) {
+            throw outOfSync(name);
+        }
+        int n = i + 1 + name.length();
+        char c = n < length ? chars[n] : 0;
+        if (c != '>' && c != '/' && c > ' ') {
+            throw outOfSync(name);
+        }
+        int end = skipTag(n);
+        if (end < 0) {
+            throw outOfSync(name);
+        }
+        empty = chars[end - 2] == '/';
+        elementStart = i;
+        pos = end;
+        contentStart = pos;
+    }
+
+    /**
+     * Moves past the end tag of the current element.
+     */
+    void endElement() throws XMLStreamException {
+        if (empty) {
+            empty = false;
+            contentEnd = pos;
+            elementEnd = pos;
+            return;
+        }
+        int i = nextTag();
+        if (chars[i + 1] != '/') {
+            throw outOfSync("end tag");
+        }
+        contentEnd = i;
+        int end = skipPast(i, ">");
+        if (end < 0) {
+            throw outOfSync("end tag");
+        }
+        pos = end;
+        elementEnd = end;
+    }
+
+    /**
+     * Moves past the end tag of the element started last, skipping its
+     * content.
+     */
+    void skipElement() throws XMLStreamException {
+        int depth = empty ? 0 : 1;
+        while (depth > 0) {
+            int i = nextTag();
+            if (chars[i + 1] == '/') {
+                depth--;
+                if (depth == 0) {
+                    // let endElement check the tag
+                    pos = i;
+                    break;
+                }
+                i = skipPast(i, ">");
+            } else {
+                i = skipTag(i + 1);
+                if (i > 0 && chars[i - 2] != '/') {
+                    depth++;
+                }
+            }
+            if (i < 0) {
+                throw outOfSync("tag");
+            }
+            pos = i;
+        }
+        endElement();
+    }
+
+    /**
+     * Gets the offset following the end of a tag, skipping attribute values,
+     * or -1 if not found.
+     */
+    private int skipTag(int i) {
+        char quote = 0;
+        for (; i < length; i++) {
+            char c = chars[i];
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the offset of the next start or end tag, skipping text,
+     * comments, CDATA sections and processing instructions.
+     */
+    private int nextTag() throws XMLStreamException {
+        int i = pos;
+        while (true) {
+            while (i < length && chars[i] != '<') {
+                i++;
+            }
+            if (i + 1 >= length) {
+                throw outOfSync("tag");
+            }
+            if (startsWith(i, "<!--")) {
+                i = skipPast(i, "-->");
+            } else if (startsWith(i, "<![CDATA[")) {
+                i = skipPast(i, "]]>");
+            } else if (chars[i + 1] == '?') {
+                i = skipPast(i, "?>");
+            } else if (chars[i + 1] == '!') {
+                throw outOfSync("tag");
+            } else {
+                return i;
+            }
+            if (i < 0) {
+                throw outOfSync("tag");
+            }
+        }
+    }
+
+    private boolean startsWith(int i, String s) {
+        int len = s.length();
+        if (i + len > length) {
+            return false;
+        }
+        for (int j = 0; j < len; j++) {
+            if (chars[i + j] != s.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the offset following the first occurrence of the given string
+     * from the given offset, or -1 if not found.
+     */
+    private int skipPast(int i, String s) {
+        char first = s.charAt(0);
+        for (; i < length; i++) {
+            if (chars[i] == first && startsWith(i, s)) {
+                return i + s.length();
+            }
+        }
+        return -1;
+    }
+
+    private XMLStreamException outOfSync(String expected) {
+        return new XMLStreamException("XML source out of sync at offset "
+                + pos + ", expecting " + expected);
+    }
+
+    /**
+     * Gets the content of the last ended element, whose content started at
+     * the given offset.
+     */
+    ContentSpan getContent(int start) {
+        return new ContentSpan(chars, start, contentEnd);
+    }
+
+}
@@ -0,0 +1,1246 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Maps XML to annotated objects in a single forward pass over a StAX
+ * {@link XMLStreamReader}, without building a DOM of the whole document.
+ * <p>
+ * Each element is dispatched to the handlers interested in it: the handlers
+ * of the enclosing annotated object follow the member paths and collect the
+ * member values, which are set on the object, in member order, when its
+ * element ends. A DOM subtree is built only for the members that need one:
+ * {@link Element} members and {@link org.nuxeo.common.xmap.annotation.XContent}
+ * members.
+ * <p>
+ * When the XMap has a {@link SnapshotStore}, the events dispatched to the
+ * handlers are recorded and stored, and replayed instead of parsing the
+ * source the next time the same content is loaded with the same mappings.
+ * Subtrees that no handler is interested in are left out of snapshots.
+ * <p>
+ * Raw {@link org.nuxeo.common.xmap.annotation.XContent} members are captured
+ * from the source text, which a {@link SourceScanner} follows while the
+ * events are dispatched. The same scanner gives the source spans of the top
+ * level objects when indexing a stream (see {@link RootHandle}).
+ *
+ * @since 7.1
+ */
+final class StreamLoader {
+
+    private static final Log log = LogFactory.getLog(StreamLoader.class);
+
+    static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private static final XMLInputFactory factory = initFactory();
+
+    private static final List<Handler> NO_HANDLERS = Collections.emptyList();
+
+    private static XMLInputFactory initFactory() {
+        Thread t = Thread.currentThread();
+        ClassLoader cl = t.getContextClassLoader();
+        t.setContextClassLoader(XMap.class.getClassLoader());
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+            if (factory.isPropertySupported(REPORT_CDATA)) {
+                // keep CDATA sections in content as the DOM parser does
+                factory.setProperty(REPORT_CDATA, Boolean.TRUE);
+            }
+            XMLParserProfile.getDefault().configure(factory);
+            return factory;
+        } finally {
+            t.setContextClassLoader(cl);
+        }
+    }
+
+    static XMLStreamReader createReader(InputStream in)
+            throws XMLStreamException {
+        // factories are not required to be thread safe
+        synchronized (factory) {
+            return factory.createXMLStreamReader(in);
+        }
+    }
+
+    static XMLStreamReader createReader(Reader in) throws XMLStreamException {
+        synchronized (factory) {
+            return factory.createXMLStreamReader(in);
+        }
+    }
+
+    final XMap xmap;
+
+    final Context ctx;
+
+    // set when no more objects are expected from the stream
+    boolean done;
+
+    // records the dispatched events when taking a snapshot
+    SnapshotWriter recorder;
+
+    // follows the source tags when capturing raw content
+    SourceScanner source;
+
+    // the URL of the indexed source, null if it cannot be read again
+    URL sourceURL;
+
+    StreamLoader(XMap xmap, Context ctx) {
+        this.xmap = xmap;
+        this.ctx = ctx;
+    }
+
+    /**
+     * Gets the first registered top level object found in the stream, using
+     * the same lookup as {@link XMap#load(Context, Element)}.
+     */
+    Object load(InputStream in) throws IOException {
+        final Object[] result = new Object[1];
+        run(in, "load", new FirstRootHandler(new Sink() {
+            @Override
+            void put(Object value) {
+                result[0] = value;
+                done = true;
+            }
+        }));
+        return result[0];
+    }
+
+    /**
+     * Gets the first registered top level object found in the given span of
+     * source text, as {@link #load(InputStream)} does.
+     */
+    Object load(char[] chars, int start, int end) throws IOException {
+        final Object[] result = new Object[1];
+        try {
+            if (xmap.hasRawContent()) {
+                source = new SourceScanner(chars, end);
+                source.pos = start;
+            }
+            run(createReader(new CharArrayReader(chars, start, end - start)),
+                    new FirstRootHandler(new Sink() {
+                        @Override
+                        void put(Object value) {
+                            result[0] = value;
+                            done = true;
+                        }
+                    }));
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            source = null;
+        }
+        return result[0];
+    }
+
+    /**
+     * Indexes the registered top level objects found in the stream, using
+     * the same lookup as {@link #loadAll(InputStream, Collection)}, without
+     * mapping them: the handles record the source text span of each object
+     * element, which is skipped by the parser.
+     * <p>
+     * Sources that cannot be scanned (see {@link SourceScanner#create}) are
+     * mapped right away, and the handles hold the objects.
+     */
+    void index(URL url, InputStream in, List<RootHandle> result)
+            throws IOException {
+        try {
+            byte[] content = IOUtils.toByteArray(in);
+            source = SourceScanner.create(content);
+            sourceURL = url;
+            run(createReader(new ByteArrayInputStream(content)),
+                    new IndexHandler(null, null, result));
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            source = null;
+            sourceURL = null;
+        }
+    }
+
+    /**
+     * Collects all the registered top level objects found in the stream,
+     * using the same lookup as
+     * {@link XMap#loadAll(Context, Element, Collection)}.
+     */
+    void loadAll(InputStream in, final Collection<Object> result)
+            throws IOException {
+        run(in, "loadAll", new RootHandler(null, new Sink() {
+            @Override
+            void put(Object value) {
+                result.add(value);
+            }
+        }));
+    }
+
+    /**
+     * Collects the registered top level objects having one of the given
+     * names, as {@link #loadAll(InputStream, Collection)} does. The elements
+     * of the other top level objects are skipped.
+     *
+     * @param first true to stop once the first object is found
+     */
+    void loadAll(InputStream in, Set<String> rootNames,
+            final Collection<Object> result, final boolean first)
+            throws IOException {
+        String mode = (first ? "loadFirst" : "loadAll")
+                + new TreeSet<String>(rootNames);
+        run(in, mode, new RootHandler(rootNames, new Sink() {
+            @Override
+            void put(Object value) {
+                result.add(value);
+                done = first;
+            }
+        }));
+    }
+
+    void run(InputStream in, String mode, Handler root) throws IOException {
+        SnapshotStore store = xmap.getSnapshotStore();
+        boolean raw = xmap.hasRawContent();
+        try {
+            if (store == null && !raw) {
+                run(createReader(in), root);
+                return;
+            }
+            byte[] content = IOUtils.toByteArray(in);
+            if (raw) {
+                source = SourceScanner.create(content);
+            }
+            if (store == null || (raw ? source
+                    : SourceScanner.create(content)) == null) {
+                // the text of external entities and DTDs would be recorded
+                // in the snapshot without being part of its key
+                run(createReader(new ByteArrayInputStream(content)), root);
+                return;
+            }
+            String key = getSnapshotKey(xmap.getMappingSignature(), mode,
+                    content);
+            byte[] snapshot = store.get(key);
+            if (snapshot != null) {
+                SnapshotReader reader = null;
+                try {
+                    reader = new SnapshotReader(snapshot);
+                } catch (IOException e) {
+                    log.warn("Ignoring invalid XMap snapshot: " + key, e);
+                }
+                if (reader != null) {
+                    run(reader, root);
+                    return;
+                }
+            }
+            recorder = new SnapshotWriter();
+            run(createReader(new ByteArrayInputStream(content)), root);
+            store.put(key, recorder.toByteArray());
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            recorder = null;
+            source = null;
+        }
+    }
+
+    /**
+     * Gets the key of the snapshot of the given content loaded in the given
+     * mode with the given mappings.
+     */
+    static String getSnapshotKey(String signature, String mode, byte[] content) {
+        MessageDigest digest = DigestUtils.getSha1Digest();
+        digest.update(signature.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(mode.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(content);
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Dispatches the reader events to the given handler, which is bound to
+     * the document, and to the handlers it creates.
+     */
+    void run(XMLStreamReader reader, Handler root) throws XMLStreamException {
+        try {
+            dispatch(reader, root);
+        } finally {
+            reader.close();
+        }
+    }
+
+    void dispatch(XMLStreamReader reader, Handler root)
+            throws XMLStreamException {
+        // handlers of the ancestors of the current element
+        List<List<Handler>> stack = new ArrayList<List<Handler>>();
+        List<Handler> handlers = Collections.singletonList(root);
+        while (!done && reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                if (handlers.isEmpty()
+                        && (source == null || recorder == null)) {
+                    // nobody is interested in this subtree
+                    if (source != null) {
+                        source.startElement(getName(reader.getPrefix(),
+                                reader.getLocalName()));
+                        source.skipElement();
+                    }
+                    skipElement(reader);
+                    break;
+                }
+                stack.add(handlers);
+                String name = null;
+                if (source != null) {
+                    name = getName(reader.getPrefix(), reader.getLocalName());
+                    source.startElement(name);
+                }
+                if (recorder != null) {
+                    // the whole document is recorded when following the
+                    // source, so that replayed events match its tags
+                    recorder.startElement(reader);
+                }
+                if (handlers.isEmpty()) {
+                    break;
+                }
+                List<Handler> children = new ArrayList<Handler>(4);
+                if (name == null) {
+                    name = getName(reader.getPrefix(), reader.getLocalName());
+                }
+                for (int i = 0, len = handlers.size(); i < len; i++) {
+                    handlers.get(i).startElement(name, reader, children);
+                }
+                handlers = children.isEmpty() ? NO_HANDLERS : children;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if (source != null) {
+                    source.endElement();
+                }
+                // handlers registered last end first so that an object ends
+                // after the handlers feeding it
+                for (int i = handlers.size() - 1; i >= 0; i--) {
+                    handlers.get(i).endElement();
+                }
+                handlers = stack.remove(stack.size() - 1);
+                if (recorder != null
+                        && (source != null || !handlers.isEmpty())) {
+                    recorder.endElement();
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.COMMENT:
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                if (recorder != null && !handlers.isEmpty()) {
+                    recorder.event(event, reader);
+                }
+                for (int i = 0, len = handlers.size(); i < len; i++) {
+                    handlers.get(i).event(event, reader);
+                }
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Moves the reader to the end of the current element.
+     */
+    static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    static String getName(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0) {
+            return localName;
+        }
+        return prefix + ':' + localName;
+    }
+
+    /**
+     * Gets the value of the attribute having the given qualified name on the
+     * current element, or null if none.
+     */
+    static String getAttribute(XMLStreamReader reader, String name) {
+        for (int i = 0, len = reader.getAttributeCount(); i < len; i++) {
+            if (name.equals(getName(reader.getAttributePrefix(i),
+                    reader.getAttributeLocalName(i)))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Receives an element and the events of its content.
+     * <p>
+     * A handler is bound to the element for which it was created and to the
+     * descendants for which it registers itself again.
+     */
+    abstract static class Handler {
+
+        /**
+         * A child element of the bound element starts: handlers interested
+         * in it must be added to {@code out}.
+         */
+        void startElement(String name, XMLStreamReader reader,
+                List<Handler> out) throws XMLStreamException {
+        }
+
+        /**
+         * Text, comment or processing instruction in the bound element.
+         */
+        void event(int type, XMLStreamReader reader) {
+        }
+
+        /**
+         * The bound element ends.
+         */
+        void endElement() {
+        }
+
+    }
+
+    /**
+     * Receives a value produced by a handler.
+     */
+    abstract static class Sink {
+
+        abstract void put(Object value);
+
+    }
+
+    /**
+     * Acts when the element selected by a path is reached.
+     */
+    abstract static class Target {
+
+        abstract void reach(XMLStreamReader reader, List<Handler> out)
+                throws XMLStreamException;
+
+    }
+
+    /**
+     * Follows path segments from the bound element. As with
+     * {@link DOMHelper#getElementNode(Node, Path)}, only the first child
+     * matching a segment is followed, except for the last segment of a
+     * {@code multiple} path for which all matching children are targets.
+     */
+    static final class PathHandler extends Handler {
+
+        final String[] segments;
+
+        final int level;
+
+        final boolean multiple;
+
+        final Target target;
+
+        boolean matched;
+
+        PathHandler(String[] segments, int level, boolean multiple,
+                Target target) {
+            this.segments = segments;
+            this.level = level;
+            this.multiple = multiple;
+            this.target = target;
+        }
+
+        /**
+         * Follows the path from an element where {@code level} segments are
+         * matched.
+         */
+        static void follow(String[] segments, int level, boolean multiple,
+                Target target, XMLStreamReader reader, List<Handler> out)
+                throws XMLStreamException {
+            if (level == segments.length) {
+                target.reach(reader, out);
+            } else {
+                out.add(new PathHandler(segments, level, multiple, target));
+            }
+        }
+
+        @Override
+        void startElement(String name, XMLStreamReader reader,
+                List<Handler> out) throws XMLStreamException {
+            if (matched || !segments[level].equals(name)) {
+                return;
+            }
+            int next = level + 1;
+            matched = !multiple || next < segments.length;
+            follow(segments, next, multiple, target, reader, out);
+        }
+
+    }
+
+    /**
+     * Collects the text content of the bound element, as
+     * {@link Node#getTextContent()} does.
+     */
+    static final class TextHandler extends Handler {
+
+        final Sink sink;
+
+        final StringBuilder buf = new StringBuilder();
+
+        int depth;
+
+        TextHandler(Sink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        void startElement(String name, XMLStreamReader reader,
+                List<Handler> out) {
+            depth++;
+            out.add(this);
+        }
+
+        @Override
+        void event(int type, XMLStreamReader reader) {
+            if (type != XMLStreamConstants.COMMENT
+                    && type != XMLStreamConstants.PROCESSING_INSTRUCTION) {
+                buf.append(reader.getTextCharacters(), reader.getTextStart(),
+                        reader.getTextLength());
+            }
+        }
+
+        @Override
+        void endElement() {
+            if (depth-- == 0) {
+                sink.put(buf.toString());
+            }
+        }
+
+    }
+
+    /**
+     * Captures the source text of the content of the bound element.
+     */
+    final class SpanHandler extends Handler {
+
+        final Sink sink;
+
+        final int start;
+
+        SpanHandler(Sink sink) {
+            this.sink = sink;
+            start = source.contentStart;
+        }
+
+        @Override
+        void endElement() {
+            sink.put(source.getContent(start));
+        }
+
+    }
+
+    /**
+     * Builds a detached DOM copy of the bound element.
+     */
+    static final class DOMHandler extends Handler {
+
+        final Sink sink;
+
+        final Document doc;
+
+        Node current;
+
+        DOMHandler(XMLStreamReader reader, Sink sink) {
+            this.sink = sink;
+            try {
+                doc = XMap.getBuilderPool().newDocument();
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+            current = doc;
+            current = appendElement(reader);
+        }
+
+        Element appendElement(XMLStreamReader reader) {
+            String uri = reader.getNamespaceURI();
+            Element el = doc.createElementNS(
+                    uri == null || uri.length() == 0 ? null : uri,
+                    getName(reader.getPrefix(), reader.getLocalName()));
+            for (int i = 0, len = reader.getNamespaceCount(); i < len; i++) {
+                String prefix = reader.getNamespacePrefix(i);
+                el.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                        prefix == null || prefix.length() == 0 ? "xmlns"
+                                : "xmlns:" + prefix,
+                        reader.getNamespaceURI(i));
+            }
+            for (int i = 0, len = reader.getAttributeCount(); i < len; i++) {
+                String ns = reader.getAttributeNamespace(i);
+                el.setAttributeNS(
+                        ns == null || ns.length() == 0 ? null : ns,
+                        getName(reader.getAttributePrefix(i),
+                                reader.getAttributeLocalName(i)),
+                        reader.getAttributeValue(i));
+            }
+            current.appendChild(el);
+            return el;
+        }
+
+        @Override
+        void startElement(String name, XMLStreamReader reader,
+                List<Handler> out) {
+            current = appendElement(reader);
+            out.add(this);
+        }
+
+        @Override
+        void event(int type, XMLStreamReader reader) {
+            switch (type) {
+            case XMLStreamConstants.CDATA:
+                current.appendChild(doc.createCDATASection(reader.getText()));
+                break;
+            case XMLStreamConstants.COMMENT:
+                current.appendChild(doc.createComment(reader.getText()));
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                current.appendChild(doc.createProcessingInstruction(
+                        reader.getPITarget(), reader.getPIData()));
+                break;
+            default:
+                Node last = current.getLastChild();
+                if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+                    // the parser may split text in several events
+                    ((org.w3c.dom.Text) last).appendData(reader.getText());
+                } else {
+                    current.appendChild(doc.createTextNode(reader.getText()));
+                }
+                break;
+            }
+        }
+
+        @Override
+        void endElement() {
+            Node parent = current.getParentNode();
+            if (parent == doc) {
+                sink.put(current);
+            } else {
+                current = parent;
+            }
+        }
+
+    }
+
+    /**
+     * Looks for root objects in the bound element and its descendants.
+     */
+    final class RootHandler extends Handler {
+
+        // the names of the objects to map, null for all
+        final Set<String> names;
+
+        final Sink sink;
+
+        RootHandler(Set<String> names, Sink sink) {
+            this.names = names;
+            this.sink = sink;
+        }
+
+        @Override
+        void startElement(String name, XMLStreamReader reader,
+                List<Handler> out) throws XMLStreamException {
+            XAnnotatedObject xao = xmap.getRootObject(name);
+            if (xao == null) {
+                out.add(this);
+            } else if (names == null || names.contains(name)) {
+                openObject(xao, reader, out, sink);
+            }
+            // else another top level object, its element is skipped
+        }
+
+    }
+
+    /**
+     * Looks for root objects in the bound element and its descendants, and
+     * records their handles.
+     */
+    final class IndexHandler extends Handler {
+
+        // the handler of the parent element, null for the document
+        final IndexHandler parent;
+
+        // the namespaces declared by the bound element, null if none
+        final Map<String, String> namespaces;
+
+        final List<RootHandle> result;
+
+        IndexHandler(IndexHandler parent, Map<String, String> namespaces,
+                List<RootHandle> result) {
+            this.parent = parent;
+            this.namespaces = namespaces;
+            this.result = result;
+        }
+
+        @Override
+        void startElement(final String name, XMLStreamReader reader,
+                List<Handler> out) throws XMLStreamException {
+            final XAnnotatedObject xao = xmap.getRootObject(name);
+            if (xao == null) {
+                out.add(new IndexHandler(this, getNamespaces(reader), result));
+            } else if (source == null) {
+                openObject(xao, reader, out, new Sink() {
+                    @Override
+                    void put(Object value) {
+                        result.add(new RootHandle(xmap, name, xao, value));
+                    }
+                });
+            } else {
+                out.add(new RootSpanHandler(name, xao, getScope(), result));
+            }
+        }
+
+        /**
+         * Gets the namespaces in scope for a child of the bound element.
+         */
+        Map<String, String> getScope() {
+            Map<String, String> scope = null;
+            for (IndexHandler h = this; h != null; h = h.parent) {
+                if (h.namespaces == null) {
+                    continue;
+                }
+                if (scope == null) {
+                    scope = new HashMap<String, String>();
+                }
+                for (Map.Entry<String, String> entry : h.namespaces.entrySet()) {
+                    if (!scope.containsKey(entry.getKey())) {
+                        // inner declarations win
+                        scope.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            return scope == null ? Collections.<String, String> emptyMap()
+                    : scope;
+        }
+
+    }
+
+    static Map<String, String> getNamespaces(XMLStreamReader reader) {
+        int count = reader.getNamespaceCount();
+        if (count == 0) {
+            return null;
+        }
+        Map<String, String> namespaces = new HashMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            namespaces.put(prefix == null ? "" : prefix,
+                    reader.getNamespaceURI(i));
+        }
+        return namespaces;
+    }
+
+    /**
+     * Records the source text span of the bound root object element.
+     */
+    final class RootSpanHandler extends Handler {
+
+        final String name;
+
+        final XAnnotatedObject xao;
+
+        final Map<String, String> namespaces;
+
+        final List<RootHandle> result;
+
+        final int start;
+
+        RootSpanHandler(String name, XAnnotatedObject xao,
+                Map<String, String> namespaces, List<RootHandle> result) {
+            this.name = name;
+            this.xao = xao;
+            this.namespaces = namespaces;
+            this.result = result;
+            start = source.elementStart;
+        }
+
+        @Override
+        void endElement() {
+            result.add(new RootHandle(xmap, name, xao, sourceURL,
+                    source.chars, start, source.elementEnd, namespaces));
+        }
+
+    }
+
+    /**
+     * Looks for a root object following the chain of first child elements.
+     */
+    final class FirstRootHandler extends Handler {
+
+        final Sink sink;
+
+        boolean started;
+
+        FirstRootHandler(Sink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        void startElement(String name, XMLStreamReader reader,
+                List<Handler> out) throws XMLStreamException {
+            if (started) {
+                return;
+            }
+            started = true;
+            XAnnotatedObject xao = xmap.getRootObject(name);
+            if (xao != null) {
+                openObject(xao, reader, out, sink);
+            } else {
+                out.add(new FirstRootHandler(sink));
+            }
+        }
+
+        @Override
+        void endElement() {
+            if (!started) {
+                // no child element, nothing to find
+                done = true;
+            }
+        }
+
+    }
+
+    /**
+     * Starts mapping the current element to a new instance of the given
+     * annotated object. The instance is given to the sink once the element
+     * ends and all its members are set.
+     */
+    void openObject(XAnnotatedObject xao, XMLStreamReader reader,
+            List<Handler> out, Sink sink) throws XMLStreamException {
+        // a top level object, its parent is the current context object
+        openObject(xao, ctx.getObject(), reader, out, sink);
+    }
+
+    /**
+     * Starts mapping the current element to a new instance of the given
+     * annotated object, whose {@code XParent} members get the given parent.
+     */
+    void openObject(XAnnotatedObject xao, Object parent,
+            XMLStreamReader reader, List<Handler> out, Sink sink)
+            throws XMLStreamException {
+        ObjectHandler handler = new ObjectHandler(xao, parent, sink);
+        out.add(handler);
+        handler.open(reader, out);
+    }
+
+    static final int SCALAR = 0;
+
+    static final int LIST = 1;
+
+    static final int MAP = 2;
+
+    static final int CONTENT = 3;
+
+    static final int ELEMENT = 4;
+
+    static final int OTHER = 5;
+
+    static int getKind(XAnnotatedMember member) {
+        if (member instanceof XAnnotatedMap) {
+            return MAP;
+        } else if (member instanceof XAnnotatedList) {
+            return LIST;
+        } else if (member instanceof XAnnotatedContent) {
+            return CONTENT;
+        } else if (member instanceof XAnnotatedParent
+                || member instanceof XAnnotatedContext) {
+            return OTHER;
+        } else if (member.xao == null && member.type == Element.class) {
+            return ELEMENT;
+        }
+        return SCALAR;
+    }
+
+    /**
+     * Maps the bound element to an instance of an annotated object.
+     */
+    final class ObjectHandler extends Handler {
+
+        final XAnnotatedMember[] members;
+
+        final Object ob;
+
+        // the owner of the object, not the top of the context stack as
+        // sibling objects may be mapped at the same time
+        final Object parent;
+
+        final Object[] values;
+
+        final Sink sink;
+
+        final long start;
+
+        ObjectHandler(XAnnotatedObject xao, Object parent, Sink sink) {
+            members = xao.getSortedMembers();
+            values = new Object[members.length];
+            this.parent = parent;
+            this.sink = sink;
+            start = ctx.recorder == null ? 0
+                    : ctx.recorder.startObject(xao.klass);
+            ob = xao.newObject();
+        }
+
+        void open(XMLStreamReader reader, List<Handler> out)
+                throws XMLStreamException {
+            for (int i = 0; i < members.length; i++) {
+                XAnnotatedMember member = members[i];
+                switch (getKind(member)) {
+                case LIST:
+                    Collection<Object> items = ((XAnnotatedList) member)
+                            .newCollection(0);
+                    values[i] = items;
+                    followItems(member, new ListTarget(this, member, items),
+                            reader, out);
+                    break;
+                case MAP:
+                    Map<String, Object> map = ((XAnnotatedMap) member).newMap(0);
+                    values[i] = map;
+                    followItems(member, new MapTarget(this,
+                            (XAnnotatedMap) member, map), reader, out);
+                    break;
+                case ELEMENT:
+                    // the element of the object itself, whatever the path
+                    out.add(new DOMHandler(reader, new MemberSink(this, i,
+                            false)));
+                    break;
+                case OTHER:
+                    break;
+                default:
+                    PathHandler.follow(member.path.segments, 0, false,
+                            new MemberTarget(this, i), reader, out);
+                    break;
+                }
+            }
+        }
+
+        void followItems(XAnnotatedMember member, Target target,
+                XMLStreamReader reader, List<Handler> out)
+                throws XMLStreamException {
+            if (member.path.segments.length > 0) {
+                PathHandler.follow(member.path.segments, 0, true, target,
+                        reader, out);
+            }
+        }
+
+        @Override
+        void endElement() {
+            for (int i = 0; i < members.length; i++) {
+                XAnnotatedMember member = members[i];
+                Object value;
+                switch (getKind(member)) {
+                case LIST:
+                    @SuppressWarnings("unchecked")
+                    Collection<Object> items = (Collection<Object>) values[i];
+                    value = ((XAnnotatedList) member).toValue(items);
+                    break;
+                case MAP:
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> map = (Map<String, Object>) values[i];
+                    value = ((XAnnotatedMap) member).toValue(map);
+                    break;
+                case OTHER:
+                    value = member instanceof XAnnotatedParent ? parent
+                            : member.getValue(ctx, null);
+                    break;
+                default:
+                    value = values[i];
+                    break;
+                }
+                if (value != null) {
+                    member.setValue(ob, value);
+                }
+            }
+            if (ctx.recorder != null) {
+                ctx.recorder.endObject(start);
+            }
+            sink.put(ob);
+        }
+
+    }
+
+    /**
+     * Stores the value of a member.
+     */
+    final class MemberSink extends Sink {
+
+        final ObjectHandler owner;
+
+        final int index;
+
+        final boolean decode;
+
+        MemberSink(ObjectHandler owner, int index, boolean decode) {
+            this.owner = owner;
+            this.index = index;
+            this.decode = decode;
+        }
+
+        @Override
+        void put(Object value) {
+            XAnnotatedMember member = owner.members[index];
+            if (decode) {
+                value = member.decode(ctx, (String) value);
+            } else if (value instanceof ContentSpan) {
+                value = ((XAnnotatedContent) member).getContent((ContentSpan) value);
+            } else if (member instanceof XAnnotatedContent) {
+                value = ((XAnnotatedContent) member).getContent((Element) value);
+            } else if (value instanceof Element) {
+                value = member.detach((Element) value);
+            }
+            owner.values[index] = value;
+        }
+
+    }
+
+    /**
+     * Reads the node selected by a scalar or content member.
+     */
+    final class MemberTarget extends Target {
+
+        final ObjectHandler owner;
+
+        final int index;
+
+        MemberTarget(ObjectHandler owner, int index) {
+            this.owner = owner;
+            this.index = index;
+        }
+
+        @Override
+        void reach(XMLStreamReader reader, List<Handler> out)
+                throws XMLStreamException {
+            XAnnotatedMember member = owner.members[index];
+            if (member instanceof XAnnotatedContent
+                    && ((XAnnotatedContent) member).raw && source != null) {
+                out.add(new SpanHandler(new MemberSink(owner, index, false)));
+            } else if (member instanceof XAnnotatedContent) {
+                out.add(new DOMHandler(reader, new MemberSink(owner, index,
+                        false)));
+            } else if (member.xao != null) {
+                openObject(member.xao, owner.ob, reader, out, new MemberSink(
+                        owner, index, false));
+            } else if (member.path.attribute != null) {
+                String value = getAttribute(reader, member.path.attribute);
+                if (value != null) {
+                    new MemberSink(owner, index, true).put(value);
+                }
+            } else {
+                out.add(new TextHandler(new MemberSink(owner, index, true)));
+            }
+        }
+
+    }
+
+    /**
+     * Adds the items selected by a list member.
+     */
+    final class ListTarget extends Target {
+
+        final ObjectHandler owner;
+
+        final XAnnotatedMember member;
+
+        final Collection<Object> values;
+
+        ListTarget(ObjectHandler owner, XAnnotatedMember member,
+                Collection<Object> values) {
+            this.owner = owner;
+            this.member = member;
+            this.values = values;
+        }
+
+        @Override
+        void reach(XMLStreamReader reader, List<Handler> out)
+                throws XMLStreamException {
+            if (member.xao != null) {
+                openObject(member.xao, owner.ob, reader, out, new Sink() {
+                    @Override
+                    void put(Object value) {
+                        values.add(value);
+                    }
+                });
+            } else if (member.path.attribute != null) {
+                String value = getAttribute(reader, member.path.attribute);
+                if (value != null) {
+                    values.add(member.decodeItem(ctx, value, false));
+                }
+            } else {
+                out.add(new TextHandler(new Sink() {
+                    @Override
+                    void put(Object value) {
+                        values.add(member.decodeItem(ctx, (String) value, true));
+                    }
+                }));
+            }
+        }
+
+    }
+
+    /**
+     * Adds the entries selected by a map member.
+     */
+    final class MapTarget extends Target {
+
+        final ObjectHandler owner;
+
+        final XAnnotatedMap member;
+
+        final Map<String, Object> values;
+
+        MapTarget(ObjectHandler owner, XAnnotatedMap member,
+                Map<String, Object> values) {
+            this.owner = owner;
+            this.member = member;
+            this.values = values;
+        }
+
+        @Override
+        void reach(XMLStreamReader reader, List<Handler> out)
+                throws XMLStreamException {
+            String attribute = member.path.attribute;
+            if (attribute != null && getAttribute(reader, attribute) == null) {
+                return; // no value, entry ignored
+            }
+            EntryHandler entry = new EntryHandler(member, values);
+            out.add(entry);
+            // key
+            Path key = member.key;
+            Target keyTarget = entry.new KeyTarget();
+            PathHandler.follow(key.segments, 0, false, keyTarget, reader, out);
+            // value
+            if (member.xao != null) {
+                openObject(member.xao, owner.ob, reader, out,
+                        entry.new ValueSink(false));
+            } else if (attribute != null) {
+                entry.new ValueSink(false).put(member.decodeItem(ctx,
+                        getAttribute(reader, attribute), false));
+            } else {
+                out.add(new TextHandler(entry.new ValueSink(true)));
+            }
+        }
+
+    }
+
+    /**
+     * Puts a map entry once both its key and value are known.
+     */
+    final class EntryHandler extends Handler {
+
+        final XAnnotatedMap member;
+
+        final Map<String, Object> values;
+
+        String key;
+
+        Object value;
+
+        EntryHandler(XAnnotatedMap member, Map<String, Object> values) {
+            this.member = member;
+            this.values = values;
+        }
+
+        @Override
+        void endElement() {
+            if (key != null) {
+                values.put(key, value);
+            }
+        }
+
+        final class KeyTarget extends Target {
+
+            @Override
+            void reach(XMLStreamReader reader, List<Handler> out) {
+                String attribute = member.key.attribute;
+                if (attribute != null) {
+                    key = getAttribute(reader, attribute);
+                } else {
+                    out.add(new TextHandler(new Sink() {
+                        @Override
+                        void put(Object text) {
+                            key = (String) text;
+                        }
+                    }));
+                }
+            }
+
+        }
+
+        final class ValueSink extends Sink {
+
+            final boolean decode;
+
+            ValueSink(boolean decode) {
+                this.decode = decode;
+            }
+
+            @Override
+            void put(Object v) {
+                value = decode ? member.decodeItem(ctx, (String) v, true) : v;
+            }
+
+        }
+
+    }
+
+}
@@ -22,6 +22,7 @@
 package org.nuxeo.common.xmap;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.nuxeo.common.xmap.annotation.XContent;
 import org.w3c.dom.DocumentFragment;
@@ -47,10 +48,19 @@ public class XAnnotatedContent extends XAnnotatedMember {
     }
 
 
+    // capture the source text of the content when available
+    final boolean raw;
+
     public XAnnotatedContent(XMap xmap, XAccessor setter, XContent anno) {
         super(xmap, setter);
         path = new Path(anno.value());
         type = setter.getType();
+        raw = anno.raw();
+        if (raw && type != String.class && type != CharSequence.class) {
+            throw new IllegalArgumentException(
+                    "Raw XContent requires a String or CharSequence member: "
+                            + setter);
+        }
         valueFactory = xmap.getValueFactory(type);
         xao = xmap.register(type);
     }
@@ -61,17 +71,38 @@ public class XAnnotatedContent extends XAnnotatedMember {
         if (el == null) {
             return null;
         }
+        return getContent(el);
+    }
+
+    @Override
+    Object getValue(Context ctx, Element base, List<Element> children) {
+        Element el = (Element) ChildIndex.getElementNode(children, path,
+                path.segments.length);
+        if (el == null) {
+            return null;
+        }
+        return getContent(el);
+    }
+
+    /**
+     * Gets the content of the element selected by this member.
+     */
+    Object getContent(Element el) {
         el.normalize();
         Node node = el.getFirstChild();
         if (node == null) {
             boolean asDOM = accessor.getType() == DocumentFragment.class;
             return asDOM ? null : "";
         }
+        boolean asDOM = accessor.getType() == DocumentFragment.class;
+        DOMValueMode mode = getXMap().getDOMValueMode();
+        if (asDOM && mode != DOMValueMode.LIVE) {
+            return DOMValues.detachContent(el, mode);
+        }
         Range range = ((DocumentRange) el.getOwnerDocument()).createRange();
         range.setStartBefore(node);
         range.setEndAfter(el.getLastChild());
         DocumentFragment fragment = range.cloneContents();
-        boolean asDOM = accessor.getType() == DocumentFragment.class;
         if (asDOM) {
             return fragment;
         } else {
@@ -83,6 +114,13 @@ public class XAnnotatedContent extends XAnnotatedMember {
         }
     }
 
+    /**
+     * Gets the raw content captured from the source.
+     */
+    Object getContent(ContentSpan span) {
+        return type == CharSequence.class ? span : span.toString();
+    }
+
     @Override
     public void toXML(Object instance, Element parent) {
         Object v = accessor.getValue(instance);
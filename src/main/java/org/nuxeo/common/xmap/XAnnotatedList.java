@@ -22,9 +22,18 @@
 package org.nuxeo.common.xmap;
 
 import java.lang.reflect.Array;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Vector;
 
 import org.nuxeo.common.collections.PrimitiveArrays;
 import org.nuxeo.common.xmap.annotation.XNodeList;
@@ -48,6 +57,9 @@ public class XAnnotatedList extends XAnnotatedMember {
 
     protected boolean isNullByDefault;
 
+    // creates the collection the items are added to
+    CollectionFactory collectionFactory;
+
     protected XAnnotatedList(XMap xmap, XAccessor setter) {
         super(xmap, setter);
     }
@@ -61,55 +73,219 @@ public class XAnnotatedList extends XAnnotatedMember {
         valueFactory = xmap.getValueFactory(componentType);
         xao = xmap.register(componentType);
         isNullByDefault = anno.nullByDefault();
+        collectionFactory = getCollectionFactory(type);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     protected Object getValue(Context ctx, Element base) {
-        List<Object> values = new ArrayList<Object>();
+        Collection<Object> values = newCollection(0);
+        DOMHelper.visitNodes(ctx, this, base, path, getVisitor(), values);
+        return toValue(values);
+    }
+
+    @Override
+    Object getValue(Context ctx, Element base, List<Element> children) {
+        Collection<Object> values = newCollection(getSizeHint(children));
+        ChildIndex.visitNodes(ctx, this, children, path, getVisitor(), values);
+        return toValue(values);
+    }
+
+    /**
+     * Gets the number of items selected by the member path given the
+     * children of the base element named after its first segment, if known
+     * without visiting them, otherwise 0.
+     */
+    int getSizeHint(List<Element> children) {
+        return children != null && path.segments.length == 1 ? children.size()
+                : 0;
+    }
+
+    private DOMHelper.NodeVisitor getVisitor() {
         if (xao != null) {
-            DOMHelper.visitNodes(ctx, this, base, path, elementListVisitor,
-                    values);
-        } else {
-            if (path.attribute != null) {
-                // attribute list
-                DOMHelper.visitNodes(ctx, this, base, path, attributeVisitor,
-                        values);
-            } else {
-                // element list
-                DOMHelper.visitNodes(ctx, this, base, path, elementVisitor,
-                        values);
-            }
+            return elementListVisitor;
+        }
+        if (path.attribute != null) {
+            // attribute list
+            return attributeVisitor;
+        }
+        // element list
+        return elementVisitor;
+    }
+
+    /**
+     * Creates the collection the items are added to: a collection of the
+     * member type, or for arrays of objects the array itself when the
+     * number of items is known, a list otherwise.
+     *
+     * @param size the expected number of items, 0 if unknown
+     */
+    Collection<Object> newCollection(int size) {
+        if (size > 0 && type.isArray() && !componentType.isPrimitive()) {
+            return new ArrayItems((Object[]) Array.newInstance(componentType,
+                    size));
         }
+        return collectionFactory.newCollection(size);
+    }
 
+    /**
+     * Converts the collection filled with the item values to the member
+     * type.
+     */
+    @SuppressWarnings("unchecked")
+    Object toValue(Collection<Object> values) {
         if (isNullByDefault && values.isEmpty()) {
             return null;
         }
-
-        if (type != ArrayList.class) {
-            if (type.isArray()) {
-                if (componentType.isPrimitive()) {
-                    // primitive arrays cannot be casted to Object[]
-                    return PrimitiveArrays.toPrimitiveArray(values,
-                            componentType);
-                } else {
-                    return values.toArray((Object[]) Array.newInstance(
-                            componentType, values.size()));
-                }
+        if (type.isArray()) {
+            if (componentType.isPrimitive()) {
+                // primitive arrays cannot be casted to Object[]
+                return PrimitiveArrays.toPrimitiveArray(values, componentType);
+            } else if (values instanceof ArrayItems) {
+                return ((ArrayItems) values).toArray();
             } else {
+                return values.toArray((Object[]) Array.newInstance(
+                        componentType, values.size()));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Items added in place to an array of the member type. The array is
+     * returned as is when the expected number of items was added, and
+     * truncated or grown otherwise.
+     */
+    static final class ArrayItems extends AbstractCollection<Object> {
+
+        Object[] array;
+
+        int size;
+
+        ArrayItems(Object[] array) {
+            this.array = array;
+        }
+
+        @Override
+        public boolean add(Object item) {
+            if (size == array.length) {
+                array = Arrays.copyOf(array, size * 2);
+            }
+            array[size++] = item;
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return Arrays.asList(array).subList(0, size).iterator();
+        }
+
+        @Override
+        public Object[] toArray() {
+            return size == array.length ? array : Arrays.copyOf(array, size);
+        }
+
+    }
+
+    /**
+     * Creates the collections of a given type.
+     */
+    abstract static class CollectionFactory {
+
+        abstract Collection<Object> newCollection(int size);
+
+    }
+
+    static final CollectionFactory ARRAY_LIST = new CollectionFactory() {
+        @Override
+        Collection<Object> newCollection(int size) {
+            return size == 0 ? new ArrayList<Object>() : new ArrayList<Object>(
+                    size);
+        }
+    };
+
+    static final CollectionFactory LINKED_LIST = new CollectionFactory() {
+        @Override
+        Collection<Object> newCollection(int size) {
+            return new LinkedList<Object>();
+        }
+    };
+
+    static final CollectionFactory VECTOR = new CollectionFactory() {
+        @Override
+        Collection<Object> newCollection(int size) {
+            return size == 0 ? new Vector<Object>() : new Vector<Object>(size);
+        }
+    };
+
+    static final CollectionFactory HASH_SET = new CollectionFactory() {
+        @Override
+        Collection<Object> newCollection(int size) {
+            return size == 0 ? new HashSet<Object>() : new HashSet<Object>(
+                    getCapacity(size));
+        }
+    };
+
+    static final CollectionFactory LINKED_HASH_SET = new CollectionFactory() {
+        @Override
+        Collection<Object> newCollection(int size) {
+            return size == 0 ? new LinkedHashSet<Object>()
+                    : new LinkedHashSet<Object>(getCapacity(size));
+        }
+    };
+
+    static final CollectionFactory TREE_SET = new CollectionFactory() {
+        @Override
+        Collection<Object> newCollection(int size) {
+            return new TreeSet<Object>();
+        }
+    };
+
+    /**
+     * Gets the capacity of a hash table holding the given number of entries
+     * without being resized.
+     */
+    static int getCapacity(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    /**
+     * Gets the factory of the collections of the given type. Types other
+     * than arrays and the usual collections of {@code java.util} are
+     * instantiated reflectively.
+     */
+    static CollectionFactory getCollectionFactory(final Class<?> type) {
+        if (type.isArray() || type == ArrayList.class || type == List.class
+                || type == Collection.class) {
+            return ARRAY_LIST;
+        } else if (type == HashSet.class || type == Set.class) {
+            return HASH_SET;
+        } else if (type == LinkedHashSet.class) {
+            return LINKED_HASH_SET;
+        } else if (type == TreeSet.class) {
+            return TREE_SET;
+        } else if (type == LinkedList.class) {
+            return LINKED_LIST;
+        } else if (type == Vector.class) {
+            return VECTOR;
+        }
+        return new CollectionFactory() {
+            @Override
+            @SuppressWarnings("unchecked")
+            Collection<Object> newCollection(int size) {
                 try {
-                    Collection col = (Collection) type.newInstance();
-                    col.addAll(values);
-                    return col;
+                    return (Collection<Object>) type.newInstance();
                 } catch (InstantiationException e) {
                     throw new IllegalArgumentException(e);
                 } catch (IllegalAccessException e) {
                     throw new IllegalArgumentException(e);
                 }
             }
-        }
-
-        return values;
+        };
     }
 
     @Override
@@ -159,16 +335,7 @@ class ElementValueVisitor implements DOMHelper.NodeVisitor {
     @Override
     public void visitNode(Context ctx, XAnnotatedMember xam, Node node,
             Collection<Object> result) {
-        String val = node.getTextContent();
-        if (xam.trim) {
-            val = val.trim();
-        }
-        if (xam.valueFactory != null) {
-            result.add(xam.valueFactory.deserialize(ctx, val));
-        } else {
-            // TODO: log warning?
-            result.add(val);
-        }
+        result.add(xam.decodeItem(ctx, node.getTextContent(), true));
     }
 }
 
@@ -176,12 +343,6 @@ class AttributeValueVisitor implements DOMHelper.NodeVisitor {
     @Override
     public void visitNode(Context ctx, XAnnotatedMember xam, Node node,
             Collection<Object> result) {
-        String val = node.getNodeValue();
-        if (xam.valueFactory != null) {
-            result.add(xam.valueFactory.deserialize(ctx, val));
-        } else {
-            // TODO: log warning?
-            result.add(val);
-        }
+        result.add(xam.decodeItem(ctx, node.getNodeValue(), false));
     }
 }
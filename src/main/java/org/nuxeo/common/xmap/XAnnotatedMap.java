@@ -21,7 +21,13 @@
 
 package org.nuxeo.common.xmap;
 
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.nuxeo.common.xmap.annotation.XNodeMap;
 import org.w3c.dom.Element;
@@ -43,6 +49,9 @@ public class XAnnotatedMap extends XAnnotatedList {
 
     protected final boolean isNullByDefault;
 
+    // creates the map the entries are put in
+    final MapFactory mapFactory;
+
     public XAnnotatedMap(XMap xmap, XAccessor setter, XNodeMap anno) {
         super(xmap, setter);
         path = new Path(anno.value());
@@ -53,35 +62,130 @@ public class XAnnotatedMap extends XAnnotatedList {
         valueFactory = xmap.getValueFactory(componentType);
         xao = xmap.register(componentType);
         isNullByDefault = anno.nullByDefault();
+        mapFactory = getMapFactory(type);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     protected Object getValue(Context ctx, Element base) {
-        Map<String, Object> values;
-        try {
-            values = (Map) type.newInstance();
-        } catch (InstantiationException e) {
-            throw new IllegalArgumentException(e);
-        } catch (IllegalAccessException e) {
-            throw new IllegalArgumentException(e);
-        }
+        Map<String, Object> values = newMap(0);
+        DOMHelper.visitMapNodes(ctx, this, base, path, getMapVisitor(), values);
+        return toValue(values);
+    }
+
+    @Override
+    Object getValue(Context ctx, Element base, List<Element> children) {
+        Map<String, Object> values = newMap(getSizeHint(children));
+        ChildIndex.visitMapNodes(ctx, this, children, path, getMapVisitor(),
+                values);
+        return toValue(values);
+    }
+
+    private DOMHelper.NodeMapVisitor getMapVisitor() {
         if (xao != null) {
-            DOMHelper.visitMapNodes(ctx, this, base, path, elementMapVisitor,
-                    values);
-        } else {
-            if (path.attribute != null) {
-                // attribute list
-                DOMHelper.visitMapNodes(ctx, this, base, path,
-                        attributeVisitor, values);
-            } else {
-                // element list
-                DOMHelper.visitMapNodes(ctx, this, base, path, elementVisitor,
-                        values);
-            }
+            return elementMapVisitor;
         }
+        if (path.attribute != null) {
+            // attribute list
+            return attributeVisitor;
+        }
+        // element list
+        return elementVisitor;
+    }
+
+    /**
+     * Creates an empty map of the member type.
+     *
+     * @param size the expected number of entries, 0 if unknown
+     */
+    Map<String, Object> newMap(int size) {
+        return mapFactory.newMap(size);
+    }
+
+    /**
+     * Creates the maps of a given type.
+     */
+    abstract static class MapFactory {
+
+        abstract Map<String, Object> newMap(int size);
+
+    }
+
+    static final MapFactory HASH_MAP = new MapFactory() {
+        @Override
+        Map<String, Object> newMap(int size) {
+            return size == 0 ? new HashMap<String, Object>()
+                    : new HashMap<String, Object>(getCapacity(size));
+        }
+    };
+
+    static final MapFactory LINKED_HASH_MAP = new MapFactory() {
+        @Override
+        Map<String, Object> newMap(int size) {
+            return size == 0 ? new LinkedHashMap<String, Object>()
+                    : new LinkedHashMap<String, Object>(getCapacity(size));
+        }
+    };
+
+    static final MapFactory TREE_MAP = new MapFactory() {
+        @Override
+        Map<String, Object> newMap(int size) {
+            return new TreeMap<String, Object>();
+        }
+    };
+
+    static final MapFactory HASHTABLE = new MapFactory() {
+        @Override
+        Map<String, Object> newMap(int size) {
+            return size == 0 ? new Hashtable<String, Object>()
+                    : new Hashtable<String, Object>(getCapacity(size));
+        }
+    };
+
+    static final MapFactory CONCURRENT_HASH_MAP = new MapFactory() {
+        @Override
+        Map<String, Object> newMap(int size) {
+            return size == 0 ? new ConcurrentHashMap<String, Object>()
+                    : new ConcurrentHashMap<String, Object>(getCapacity(size));
+        }
+    };
+
+    /**
+     * Gets the factory of the maps of the given type. Types other than the
+     * usual maps of {@code java.util} are instantiated reflectively.
+     */
+    static MapFactory getMapFactory(final Class<?> type) {
+        if (type == HashMap.class || type == Map.class) {
+            return HASH_MAP;
+        } else if (type == LinkedHashMap.class) {
+            return LINKED_HASH_MAP;
+        } else if (type == TreeMap.class) {
+            return TREE_MAP;
+        } else if (type == Hashtable.class) {
+            return HASHTABLE;
+        } else if (type == ConcurrentHashMap.class) {
+            return CONCURRENT_HASH_MAP;
+        }
+        return new MapFactory() {
+            @Override
+            @SuppressWarnings("unchecked")
+            Map<String, Object> newMap(int size) {
+                try {
+                    return (Map<String, Object>) type.newInstance();
+                } catch (InstantiationException e) {
+                    throw new IllegalArgumentException(e);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Gets the member value given the collected entries.
+     */
+    Object toValue(Map<String, Object> values) {
         if (isNullByDefault && values.isEmpty()) {
-            values = null;
+            return null;
         }
         return values;
     }
@@ -125,28 +229,13 @@ class ElementMapVisitor implements DOMHelper.NodeMapVisitor {
 class ElementValueMapVisitor implements DOMHelper.NodeMapVisitor {
     public void visitNode(Context ctx, XAnnotatedMember xam, Node node,
             String key, Map<String, Object> result) {
-        String val = node.getTextContent();
-        if (xam.trim) {
-            val = val.trim();
-        }
-        if (xam.valueFactory != null) {
-            result.put(key, xam.valueFactory.deserialize(ctx, val));
-        } else {
-            // TODO: log warning?
-            result.put(key, val);
-        }
+        result.put(key, xam.decodeItem(ctx, node.getTextContent(), true));
     }
 }
 
 class AttributeValueMapVisitor implements DOMHelper.NodeMapVisitor {
     public void visitNode(Context ctx, XAnnotatedMember xam, Node node,
             String key, Map<String, Object> result) {
-        String val = node.getNodeValue();
-        if (xam.valueFactory != null) {
-            result.put(key, xam.valueFactory.deserialize(ctx, val));
-        } else {
-            // TODO: log warning?
-            result.put(key, val);
-        }
+        result.put(key, xam.decodeItem(ctx, node.getNodeValue(), false));
     }
 }
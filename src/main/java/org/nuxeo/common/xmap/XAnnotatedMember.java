@@ -20,8 +20,11 @@
 
 package org.nuxeo.common.xmap;
 
+import java.util.List;
+
 import org.nuxeo.common.xmap.annotation.XNode;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * @author <a href="mailto:bs@nuxeo.com">Bogdan Stefanescu</a>
@@ -112,6 +115,17 @@ public class XAnnotatedMember {
         }
     }
 
+    /**
+     * Same as {@link #process(Context, Element)} given the children of the
+     * element named after the first path segment, see {@link ChildIndex}.
+     */
+    void process(Context ctx, Element element, List<Element> children) {
+        Object value = getValue(ctx, element, children);
+        if (value != null) {
+            setValue(ctx.getObject(), value);
+        }
+    }
+
     protected Object getValue(Context ctx, Element base) {
         if (xao != null) {
             Element el = (Element) DOMHelper.getElementNode(base, path);
@@ -124,20 +138,103 @@ public class XAnnotatedMember {
         // scalar field
         if (type == Element.class) {
             // allow DOM elements as values
-            return base;
+            return detach(base);
         }
         String val = DOMHelper.getNodeValue(base, path);
         if (val != null) {
-            if (trim) {
-                val = val.trim();
-            }
-            if (valueFactory == null) {
-                throw new NullPointerException("Missing XValueFactory for "
-                        + type);
+            return decode(ctx, val);
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link #getValue(Context, Element)} given the children of the
+     * base element named after the first path segment.
+     */
+    Object getValue(Context ctx, Element base, List<Element> children) {
+        Node node = ChildIndex.getElementNode(children, path,
+                path.segments.length);
+        if (xao != null) {
+            if (node == null) {
+                return null;
+            } else {
+                return xao.newInstance(ctx, (Element) node);
             }
-            return valueFactory.deserialize(ctx, val);
+        }
+        // DOM element members are not indexed
+        if (node == null) {
+            return null;
+        }
+        String val;
+        if (path.attribute != null) {
+            Node at = node.getAttributes().getNamedItem(path.attribute);
+            val = at != null ? at.getNodeValue() : null;
+        } else {
+            val = node.getTextContent();
+        }
+        if (val != null) {
+            return decode(ctx, val);
         }
         return null;
     }
 
+    /**
+     * Decodes the text of the node selected by this member.
+     */
+    Object decode(Context ctx, String val) {
+        if (trim) {
+            val = val.trim();
+        }
+        if (valueFactory == null) {
+            throw new NullPointerException("Missing XValueFactory for " + type);
+        }
+        return deserialize(ctx, val);
+    }
+
+    /**
+     * Decodes the text of a collection item selected by this member. Element
+     * text is trimmed if required, attribute values are left unchanged.
+     */
+    Object decodeItem(Context ctx, String val, boolean element) {
+        if (element && trim) {
+            val = val.trim();
+        }
+        if (valueFactory != null) {
+            return deserialize(ctx, val);
+        }
+        // TODO: log warning?
+        return val;
+    }
+
+    /**
+     * Gets the value to store for a DOM element, see {@link DOMValueMode}.
+     */
+    Element detach(Element el) {
+        return DOMValues.detach(el, xmap.getDOMValueMode());
+    }
+
+    /**
+     * Gets the XMap of this member.
+     */
+    XMap getXMap() {
+        return xmap;
+    }
+
+    private Object deserialize(Context ctx, String val) {
+        XMapMetrics.Recorder recorder = ctx == null ? null : ctx.recorder;
+        Object value;
+        if (recorder == null) {
+            value = valueFactory.deserialize(ctx, val);
+        } else {
+            long start = System.nanoTime();
+            try {
+                value = valueFactory.deserialize(ctx, val);
+            } finally {
+                recorder.endFactory(start);
+            }
+        }
+        XValuePool pool = xmap.getValuePool();
+        return pool == null ? value : pool.intern(value);
+    }
+
 }
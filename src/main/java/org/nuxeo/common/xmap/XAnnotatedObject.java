@@ -22,10 +22,11 @@
 package org.nuxeo.common.xmap;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -42,12 +43,39 @@ public class XAnnotatedObject {
 
     final XMap xmap;
     final Class<?> klass;
+    // null if instances are created by the binder
     final Constructor<?> ctor;
+    // compiled constructor, null if reflection must be used
+    final MethodHandle ctorHandle;
+    // generated binder, null if the class was scanned
+    final XMapBinder binder;
     final Path path;
 
+    // members in scan order
     final List<XAnnotatedMember> members;
 
-    Sorter sorter;
+    final Sorter sorter;
+
+    // frozen members and dispatch table, published when registered
+    private volatile ChildIndex.Table table;
+
+    // compiled reverse mapping, built on first use
+    private volatile XMLStreamBuilder.Plan writePlan;
+
+    /**
+     * Creates the mapping description of a class from its shared plan.
+     */
+    XAnnotatedObject(XMap xmap, XClassPlan plan) {
+        this.xmap = xmap;
+        klass = plan.klass;
+        ctor = plan.ctor;
+        ctorHandle = plan.ctorHandle;
+        binder = plan.binder;
+        path = new Path(plan.xob.value());
+        members = new ArrayList<XAnnotatedMember>();
+        String[] order = plan.xob.order();
+        sorter = order.length > 0 ? new Sorter(order) : null;
+    }
 
     public XAnnotatedObject(XMap xmap, Class<?> klass, XObject xob) {
         try {
@@ -55,12 +83,12 @@ public class XAnnotatedObject {
             this.klass = klass;
             this.ctor = this.klass.getDeclaredConstructor();
             ctor.setAccessible(true);
+            ctorHandle = XHandles.constructor(ctor);
+            binder = null;
             path = new Path(xob.value());
             members = new ArrayList<XAnnotatedMember>();
             String[] order = xob.order();
-            if (order.length > 0) {
-                sorter = new Sorter(order);
-            }
+            sorter = order.length > 0 ? new Sorter(order) : null;
         } catch (SecurityException e) {
             throw new IllegalArgumentException(e);
         } catch (NoSuchMethodException e) {
@@ -69,18 +97,85 @@ public class XAnnotatedObject {
         }
     }
 
-    public void addMember(XAnnotatedMember member) {
+    public synchronized void addMember(XAnnotatedMember member) {
         members.add(member);
+        table = null;
+        writePlan = null;
     }
 
     public Path getPath() {
         return path;
     }
 
-    public Object newInstance(Context ctx, Element element) {
-        Object ob;
+    /**
+     * Freezes the members: sorts a copy of them and compiles their dispatch
+     * table. XMap freezes an object once its class is scanned, before it
+     * becomes visible to loads, so that concurrent loads only read the
+     * frozen state.
+     */
+    synchronized ChildIndex.Table freeze() {
+        ChildIndex.Table t = table;
+        if (t == null) {
+            XAnnotatedMember[] sorted = members.toArray(new XAnnotatedMember[members.size()]);
+            if (sorter != null) {
+                Arrays.sort(sorted, sorter); // stable
+            }
+            t = new ChildIndex.Table(sorted);
+            table = t;
+        }
+        return t;
+    }
+
+    /**
+     * Gets the table dispatching the children of a mapped element to the
+     * members.
+     */
+    ChildIndex.Table getTable() {
+        ChildIndex.Table t = table;
+        if (t == null) {
+            // members added outside of a registration
+            t = freeze();
+        }
+        return t;
+    }
+
+    /**
+     * Gets the members in the order they must be processed. The returned
+     * array is shared and must not be modified.
+     */
+    XAnnotatedMember[] getSortedMembers() {
+        return getTable().members;
+    }
+
+    /**
+     * Gets the plan writing instances to an XML stream.
+     */
+    XMLStreamBuilder.Plan getWritePlan() {
+        XMLStreamBuilder.Plan plan = writePlan;
+        if (plan == null) {
+            // plans are immutable, concurrent builds are harmless
+            plan = new XMLStreamBuilder.Plan(this);
+            writePlan = plan;
+        }
+        return plan;
+    }
+
+    /**
+     * Creates a new empty instance of the mapped class.
+     */
+    Object newObject() {
+        if (binder != null) {
+            return binder.newInstance();
+        }
+        if (ctorHandle != null) {
+            try {
+                return ctorHandle.invokeExact();
+            } catch (Throwable t) {
+                throw XHandles.propagate(t);
+            }
+        }
         try {
-            ob = ctor.newInstance();
+            return ctor.newInstance();
         } catch (InstantiationException e) {
             throw new IllegalArgumentException(e);
         } catch (IllegalAccessException e) {
@@ -91,19 +186,32 @@ public class XAnnotatedObject {
             }
             throw new IllegalArgumentException(e);
         }
+    }
+
+    public Object newInstance(Context ctx, Element element) {
+        XMapMetrics.Recorder recorder = ctx.recorder;
+        long start = recorder == null ? 0 : recorder.startObject(klass);
+        Object ob = newObject();
         ctx.push(ob);
 
-        if (sorter != null) {
-            Collections.sort(members, sorter);
-            sorter = null; // sort only once
+        // set annotated members, looking up the children only once
+        ChildIndex.Table t = getTable();
+        ChildIndex index = t.newIndex(element);
+        for (int i = 0; i < t.members.length; i++) {
+            XAnnotatedMember member = t.members[i];
+            int slot = t.slots[i];
+            if (slot < 0) {
+                member.process(ctx, element);
+            } else {
+                member.process(ctx, element, index.get(slot));
+            }
         }
 
-        // set annotated members
-        for (XAnnotatedMember member : members) {
-            member.process(ctx, element);
+        ob = ctx.pop();
+        if (recorder != null) {
+            recorder.endObject(start);
         }
-
-        return ctx.pop();
+        return ob;
     }
 }
 
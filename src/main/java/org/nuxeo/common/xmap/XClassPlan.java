@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.common.xmap;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * The result of scanning a class for XMap annotations: the object annotation,
+ * the default constructor and the annotated members with their accessors.
+ * <p>
+ * The plan of a class having a generated {@link XMapBinder} is built from
+ * the binder, without scanning the class.
+ * <p>
+ * Plans only depend on the class, so they are computed once per class and
+ * shared by all the XMap instances, which build their own
+ * {@link XAnnotatedObject} from them with their own value factories. Plans
+ * are held through a {@link ClassValue} and do not prevent classes from
+ * being unloaded.
+ *
+ * @since 7.1
+ */
+final class XClassPlan {
+
+    private static final Log log = LogFactory.getLog(XClassPlan.class);
+
+    private static final ClassValue<XClassPlan> PLANS = new ClassValue<XClassPlan>() {
+        @Override
+        protected XClassPlan computeValue(Class<?> klass) {
+            XMapBinder binder = XMapBinder.find(klass);
+            if (binder != null) {
+                try {
+                    return new XClassPlan(klass, binder);
+                } catch (RuntimeException | LinkageError e) {
+                    log.warn("Ignoring XMap binder for " + klass.getName(), e);
+                }
+            }
+            return new XClassPlan(klass);
+        }
+    };
+
+    /**
+     * An annotated field or method.
+     */
+    static final class Member {
+
+        final Annotation annotation;
+
+        final XAccessor accessor;
+
+        Member(Annotation annotation, XAccessor accessor) {
+            this.annotation = annotation;
+            this.accessor = accessor;
+        }
+
+    }
+
+    static final Member[] NO_MEMBERS = new Member[0];
+
+    final Class<?> klass;
+
+    // the generated binder, null if the class was scanned
+    final XMapBinder binder;
+
+    // null if the class is not mappable
+    final XObject xob;
+
+    // null if instances are created by the binder
+    final Constructor<?> ctor;
+
+    // compiled constructor, null if reflection must be used
+    final MethodHandle ctorHandle;
+
+    // in scan order: fields then methods, from the class up to Object
+    final Member[] members;
+
+    private XClassPlan(Class<?> klass, XMapBinder binder) {
+        this.klass = klass;
+        this.binder = binder;
+        xob = binder.getObjectAnnotation();
+        ctor = null;
+        ctorHandle = null;
+        members = binder.getMembers();
+    }
+
+    private XClassPlan(Class<?> klass) {
+        this.klass = klass;
+        binder = null;
+        xob = XMap.checkObjectAnnotation(klass);
+        if (xob == null) {
+            ctor = null;
+            ctorHandle = null;
+            members = NO_MEMBERS;
+            return;
+        }
+        try {
+            ctor = klass.getDeclaredConstructor();
+            ctor.setAccessible(true);
+        } catch (SecurityException e) {
+            throw new IllegalArgumentException(e);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(
+                    "Invalid xmap class - no default constructor found", e);
+        }
+        ctorHandle = XHandles.constructor(ctor);
+        List<Member> list = new ArrayList<Member>();
+        scanClass(list, klass);
+        members = list.toArray(new Member[list.size()]);
+    }
+
+    /**
+     * Gets the plan of the given class, scanning it on first use.
+     *
+     * @throws IllegalArgumentException if the class is mappable but has no
+     *             default constructor
+     */
+    static XClassPlan get(Class<?> klass) {
+        return PLANS.get(klass);
+    }
+
+    private static void scanClass(List<Member> list, Class<?> aClass) {
+        Field[] fields = aClass.getDeclaredFields();
+        for (Field field : fields) {
+            Annotation anno = XMap.checkMemberAnnotation(field);
+            if (anno != null) {
+                list.add(new Member(anno, new XFieldAccessor(field)));
+            }
+        }
+
+        Method[] methods = aClass.getDeclaredMethods();
+        for (Method method : methods) {
+            // we accept only methods with one parameter
+            Class<?>[] paramTypes = method.getParameterTypes();
+            if (paramTypes.length != 1) {
+                continue;
+            }
+            Annotation anno = XMap.checkMemberAnnotation(method);
+            if (anno != null) {
+                list.add(new Member(anno, new XMethodAccessor(method, aClass)));
+            }
+        }
+
+        // scan superClass annotations
+        if (aClass.getSuperclass() != null) {
+            scanClass(list, aClass.getSuperclass());
+        }
+    }
+
+}
@@ -21,6 +21,7 @@
 
 package org.nuxeo.common.xmap;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 
 /**
@@ -31,9 +32,23 @@ public class XFieldAccessor implements XAccessor {
 
     private final Field field;
 
+    // compiled accessors, null if reflection must be used
+    private final MethodHandle setter;
+
+    private final MethodHandle getter;
+
+    private final Class<?> valueType;
+
     public XFieldAccessor(Field field) {
+        this(field, true);
+    }
+
+    XFieldAccessor(Field field, boolean useHandles) {
         this.field = field;
         this.field.setAccessible(true);
+        setter = useHandles ? XHandles.setter(field) : null;
+        getter = useHandles ? XHandles.getter(field) : null;
+        valueType = XHandles.valueType(field.getType());
     }
 
     public Class getType() {
@@ -41,6 +56,15 @@ public class XFieldAccessor implements XAccessor {
     }
 
     public void setValue(Object instance, Object value) {
+        if (setter != null
+                && XHandles.accepts(valueType, valueType != field.getType(), value)) {
+            try {
+                setter.invokeExact(instance, value);
+                return;
+            } catch (Throwable t) {
+                throw XHandles.propagate(t);
+            }
+        }
         try {
             field.set(instance, value);
         } catch (IllegalAccessException e) {
@@ -49,6 +73,13 @@ public class XFieldAccessor implements XAccessor {
     }
 
     public Object getValue(Object instance) {
+        if (getter != null) {
+            try {
+                return getter.invokeExact(instance);
+            } catch (Throwable t) {
+                throw XHandles.propagate(t);
+            }
+        }
         try {
             return field.get(instance);
         } catch (IllegalAccessException e) {
@@ -0,0 +1,161 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Compiles reflective members into method handles having erased signatures
+ * so that they can be called through {@link MethodHandle#invokeExact}.
+ * <p>
+ * All the factory methods return null when the member cannot be unreflected
+ * (security manager, final field, ...) or is static, as the handle of a
+ * static member has no receiver parameter. Callers must then fall back on
+ * plain reflection.
+ *
+ * @since 7.1
+ */
+final class XHandles {
+
+    static final MethodType SETTER_TYPE = MethodType.methodType(void.class,
+            Object.class, Object.class);
+
+    static final MethodType GETTER_TYPE = MethodType.methodType(Object.class,
+            Object.class);
+
+    static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // Utility class.
+    private XHandles() {
+    }
+
+    /**
+     * Gets a {@code (Object, Object)void} handle writing the given field.
+     */
+    static MethodHandle setter(Field field) {
+        if (Modifier.isStatic(field.getModifiers())) {
+            return null;
+        }
+        try {
+            return LOOKUP.unreflectSetter(field).asType(SETTER_TYPE);
+        } catch (IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets a {@code (Object)Object} handle reading the given field.
+     */
+    static MethodHandle getter(Field field) {
+        if (Modifier.isStatic(field.getModifiers())) {
+            return null;
+        }
+        try {
+            return LOOKUP.unreflectGetter(field).asType(GETTER_TYPE);
+        } catch (IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets a {@code (Object, Object)void} handle calling the given one
+     * argument method. The method result, if any, is dropped.
+     */
+    static MethodHandle setter(Method method) {
+        if (Modifier.isStatic(method.getModifiers())) {
+            return null;
+        }
+        try {
+            return LOOKUP.unreflect(method).asType(SETTER_TYPE);
+        } catch (IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets a {@code (Object)Object} handle calling the given no argument
+     * method.
+     */
+    static MethodHandle getter(Method method) {
+        if (Modifier.isStatic(method.getModifiers())) {
+            return null;
+        }
+        try {
+            return LOOKUP.unreflect(method).asType(GETTER_TYPE);
+        } catch (IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets a {@code ()Object} handle calling the given default constructor.
+     */
+    static MethodHandle constructor(Constructor<?> ctor) {
+        try {
+            return LOOKUP.unreflectConstructor(ctor).asType(CONSTRUCTOR_TYPE);
+        } catch (IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the type a value must be an instance of to be passed to a handle
+     * parameter of the given type, i.e. the wrapper type for primitives.
+     */
+    static Class<?> valueType(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    /**
+     * Checks whether a value can be passed as is to a handle parameter. Other
+     * values (null primitives, values needing a widening conversion) are left
+     * to reflection which either converts them or raises the expected
+     * {@link IllegalArgumentException}.
+     */
+    static boolean accepts(Class<?> valueType, boolean primitive, Object value) {
+        return value == null ? !primitive : valueType.isInstance(value);
+    }
+
+    /**
+     * Rethrows a throwable caught while invoking a method handle the same way
+     * the reflective accessors do for an {@code InvocationTargetException}:
+     * runtime exceptions as is, anything else wrapped.
+     */
+    static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        return new IllegalArgumentException(new InvocationTargetException(t));
+    }
+
+}
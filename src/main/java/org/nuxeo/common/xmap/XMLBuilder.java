@@ -55,7 +55,7 @@ public class XMLBuilder {
             parent.appendChild(currentNode);
         }
         // process annotated members
-        for (XAnnotatedMember m : xao.members) {
+        for (XAnnotatedMember m : xao.getSortedMembers()) {
             if (m instanceof XAnnotatedMap) {
                 m.toXML(o, currentNode);
             } else if (m instanceof XAnnotatedList) {
@@ -0,0 +1,240 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+/**
+ * The settings applied to every XML parser created by XMap.
+ * <p>
+ * In offline mode, which is the default, external DTDs and entities are
+ * never fetched: they are read from an in-memory catalog keyed by public or
+ * system id, and resolve to empty content when not found there. The external
+ * DTD subset is not read at all unless {@link #isLoadExternalDTD() enabled},
+ * as it is rarely needed to map contributions. Internal subsets and entities
+ * are still processed.
+ * <p>
+ * The default profile is configured by the {@value #OFFLINE_PROPERTY} and
+ * {@value #LOAD_EXTERNAL_DTD_PROPERTY} system properties, read when the
+ * parsers are first created. Catalog entries can be added at any time.
+ *
+ * @since 7.1
+ */
+public final class XMLParserProfile {
+
+    private static final Log log = LogFactory.getLog(XMLParserProfile.class);
+
+    /**
+     * System property enabling the offline mode of the default profile,
+     * {@code true} if not set.
+     */
+    public static final String OFFLINE_PROPERTY = "org.nuxeo.xmap.parser.offline";
+
+    /**
+     * System property enabling the loading of external DTDs by the default
+     * profile, {@code false} if not set.
+     */
+    public static final String LOAD_EXTERNAL_DTD_PROPERTY = "org.nuxeo.xmap.parser.loadExternalDTD";
+
+    static final String LOAD_EXTERNAL_DTD_FEATURE = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+
+    static final String DEFER_NODE_EXPANSION_FEATURE = "http://apache.org/xml/features/dom/defer-node-expansion";
+
+    static final String IGNORE_EXTERNAL_DTD_PROPERTY = "http://java.sun.com/xml/stream/properties/ignore-external-dtd";
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final XMLParserProfile DEFAULT = new XMLParserProfile(
+            Boolean.parseBoolean(System.getProperty(OFFLINE_PROPERTY, "true")),
+            Boolean.parseBoolean(System.getProperty(LOAD_EXTERNAL_DTD_PROPERTY,
+                    "false")));
+
+    private final boolean offline;
+
+    private final boolean loadExternalDTD;
+
+    private final ConcurrentMap<String, byte[]> catalog = new ConcurrentHashMap<String, byte[]>();
+
+    private final EntityResolver entityResolver = new EntityResolver() {
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) {
+            InputStream in = resolve(publicId, systemId);
+            if (in == null) {
+                return null;
+            }
+            InputSource source = new InputSource(in);
+            source.setPublicId(publicId);
+            source.setSystemId(systemId);
+            return source;
+        }
+    };
+
+    private final XMLResolver xmlResolver = new XMLResolver() {
+        @Override
+        public Object resolveEntity(String publicId, String systemId,
+                String baseURI, String namespace) {
+            return resolve(publicId, systemId);
+        }
+    };
+
+    public XMLParserProfile(boolean offline, boolean loadExternalDTD) {
+        this.offline = offline;
+        this.loadExternalDTD = loadExternalDTD;
+    }
+
+    /**
+     * Gets the profile used by the parsers of XMap.
+     */
+    public static XMLParserProfile getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Checks whether external resources are only read from the catalog.
+     */
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Checks whether the external DTD subset of documents is read.
+     */
+    public boolean isLoadExternalDTD() {
+        return loadExternalDTD;
+    }
+
+    /**
+     * Registers the content of an external DTD or entity.
+     *
+     * @param id the public or system id of the resource
+     * @param content the content of the resource
+     */
+    public void addEntity(String id, byte[] content) {
+        catalog.put(id, content.clone());
+    }
+
+    /**
+     * Registers the content of an external DTD or entity.
+     */
+    public void addEntity(String id, String content) {
+        catalog.put(id, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void removeEntity(String id) {
+        catalog.remove(id);
+    }
+
+    /**
+     * Gets the content of an external resource from the catalog.
+     *
+     * @return the content, empty if the resource is not in the catalog in
+     *         offline mode, or null to let the parser fetch it
+     */
+    public InputStream resolve(String publicId, String systemId) {
+        byte[] content = null;
+        if (publicId != null) {
+            content = catalog.get(publicId);
+        }
+        if (content == null && systemId != null) {
+            content = catalog.get(systemId);
+        }
+        if (content == null) {
+            if (!offline) {
+                return null;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Not fetching external resource in offline mode: "
+                        + (systemId == null ? publicId : systemId));
+            }
+            content = EMPTY;
+        }
+        return new ByteArrayInputStream(content);
+    }
+
+    public EntityResolver getEntityResolver() {
+        return entityResolver;
+    }
+
+    public XMLResolver getXMLResolver() {
+        return xmlResolver;
+    }
+
+    /**
+     * Applies this profile to a DOM parser factory. Builders created by the
+     * factory must also be {@link #configure(DocumentBuilder) configured}.
+     */
+    public void configure(DocumentBuilderFactory factory) {
+        factory.setValidating(false);
+        factory.setXIncludeAware(false);
+        setFeature(factory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        setFeature(factory, LOAD_EXTERNAL_DTD_FEATURE, loadExternalDTD);
+        // mapped documents are fully walked, building nodes lazily only
+        // adds to the cost
+        setFeature(factory, DEFER_NODE_EXPANSION_FEATURE, false);
+    }
+
+    /**
+     * Applies this profile to a DOM parser. This must be done again after
+     * the builder is {@link DocumentBuilder#reset() reset}.
+     */
+    public void configure(DocumentBuilder builder) {
+        builder.setEntityResolver(entityResolver);
+    }
+
+    /**
+     * Applies this profile to a StAX parser factory.
+     */
+    public void configure(XMLInputFactory factory) {
+        factory.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+        factory.setXMLResolver(xmlResolver);
+        if (factory.isPropertySupported(IGNORE_EXTERNAL_DTD_PROPERTY)) {
+            factory.setProperty(IGNORE_EXTERNAL_DTD_PROPERTY,
+                    Boolean.valueOf(!loadExternalDTD));
+        }
+    }
+
+    private static void setFeature(DocumentBuilderFactory factory,
+            String name, boolean value) {
+        try {
+            factory.setFeature(name, value);
+        } catch (ParserConfigurationException e) {
+            log.debug("Feature not supported by " + factory.getClass() + ": "
+                    + name);
+        }
+    }
+
+}
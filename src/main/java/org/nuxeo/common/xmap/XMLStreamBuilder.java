@@ -0,0 +1,678 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.common.xmap;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Writes the XML representation of annotated objects to an
+ * {@link XMLStreamWriter}, without building a DOM.
+ * <p>
+ * The produced elements are the ones {@link XMLBuilder} creates: members
+ * sharing a path prefix write into the same elements, list and map entries
+ * always add new elements, and parent and context members are ignored. The
+ * members of each class are compiled once into a tree of elements, so that
+ * writing an object only reads its members and walks that tree: memory does
+ * not depend on the number of objects written. The output is not indented.
+ *
+ * @since 7.1
+ */
+public final class XMLStreamBuilder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final XMLOutputFactory factory = XMLOutputFactory.newInstance();
+
+    private static final XMLInputFactory inputFactory = initInputFactory();
+
+    // Utility class.
+    private XMLStreamBuilder() {
+    }
+
+    private static XMLInputFactory initInputFactory() {
+        Thread t = Thread.currentThread();
+        ClassLoader cl = t.getContextClassLoader();
+        t.setContextClassLoader(XMap.class.getClassLoader());
+        try {
+            XMLInputFactory f = XMLInputFactory.newInstance();
+            // keep prefixed names as is, like the DOM parser does
+            f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+            if (f.isPropertySupported(StreamLoader.REPORT_CDATA)) {
+                f.setProperty(StreamLoader.REPORT_CDATA, Boolean.TRUE);
+            }
+            XMLParserProfile.getDefault().configure(f);
+            return f;
+        } finally {
+            t.setContextClassLoader(cl);
+        }
+    }
+
+    /**
+     * Creates an UTF-8 writer on the given stream. The writer must be flushed
+     * or closed once done.
+     */
+    public static XMLStreamWriter createWriter(OutputStream out)
+            throws XMLStreamException {
+        // the JDK writer encodes byte per byte when given a stream, and
+        // checks each char against the encoding of an OutputStreamWriter
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+        // factories are not required to be thread safe
+        synchronized (factory) {
+            return factory.createXMLStreamWriter(writer);
+        }
+    }
+
+    /**
+     * Writes an object at the current position of the writer.
+     */
+    public static void toXML(Object o, XMLStreamWriter writer,
+            XAnnotatedObject xao) throws XMLStreamException {
+        xao.getWritePlan().write(o, writer);
+    }
+
+    /**
+     * The compiled reverse mapping of a class.
+     */
+    static final class Plan {
+
+        // path of the object element, may be empty
+        final String[] segments;
+
+        // members written by the plan, values are read in this order
+        final Op[] ops;
+
+        final ElementNode root;
+
+        Plan(XAnnotatedObject xao) {
+            segments = getSegments(xao.getPath(), 0);
+            root = new ElementNode(null);
+            List<Op> list = new ArrayList<Op>();
+            for (XAnnotatedMember m : xao.getSortedMembers()) {
+                Op op = newOp(m, list.size());
+                if (op == null) {
+                    continue;
+                }
+                list.add(op);
+                Path path = m.path;
+                if (op instanceof RepeatOp) {
+                    // entries are added to the parent of the last segment
+                    ElementNode node = root.getOrCreate(getSegments(path, 1));
+                    node.content.add(op);
+                } else if (op instanceof AttributeOp) {
+                    ElementNode node = root.getOrCreate(getSegments(path, 0));
+                    node.always = true;
+                    node.attributes.add((AttributeOp) op);
+                } else {
+                    ElementNode node = root.getOrCreate(getSegments(path, 0));
+                    node.always |= !(op instanceof ContentOp);
+                    node.content.add(op);
+                }
+            }
+            ops = list.toArray(new Op[list.size()]);
+        }
+
+        static Op newOp(XAnnotatedMember m, int index) {
+            if (m instanceof XAnnotatedParent || m instanceof XAnnotatedContext) {
+                return null;
+            }
+            if (m instanceof XAnnotatedMap) {
+                return m.path.segments.length == 0 ? null : new MapOp(
+                        (XAnnotatedMap) m, index);
+            }
+            if (m instanceof XAnnotatedList) {
+                return m.path.segments.length == 0 ? null : new RepeatOp(m,
+                        index);
+            }
+            if (m instanceof XAnnotatedContent) {
+                return new ContentOp(m, index);
+            }
+            if (m.xao != null) {
+                return new ObjectOp(m, index);
+            }
+            if (m.path.attribute != null) {
+                return new AttributeOp(m, index);
+            }
+            return new TextOp(m, index);
+        }
+
+        void write(Object o, XMLStreamWriter writer) throws XMLStreamException {
+            Object[] values = new Object[ops.length];
+            for (int i = 0; i < ops.length; i++) {
+                values[i] = ops[i].member.accessor.getValue(o);
+            }
+            for (String segment : segments) {
+                writer.writeStartElement(segment);
+            }
+            root.writeContent(writer, values);
+            for (int i = 0; i < segments.length; i++) {
+                writer.writeEndElement();
+            }
+        }
+
+        /**
+         * Checks whether the members of this plan write the given text or
+         * attribute path, relative to the element the plan is written in.
+         */
+        boolean writes(Path path) {
+            if (segments.length > 0) {
+                // members are written inside the object element
+                return false;
+            }
+            for (Op op : ops) {
+                if ((op instanceof TextOp || op instanceof AttributeOp)
+                        && op.member.path.equals(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * Gets the non empty segments of a path, ignoring the given number of
+     * trailing segments.
+     */
+    static String[] getSegments(Path path, int skip) {
+        List<String> list = new ArrayList<String>(path.segments.length);
+        for (int i = 0; i < path.segments.length - skip; i++) {
+            if (path.segments[i].length() > 0) {
+                list.add(path.segments[i]);
+            }
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * An element written by a plan.
+     */
+    static final class ElementNode {
+
+        final String name;
+
+        final List<AttributeOp> attributes = new ArrayList<AttributeOp>();
+
+        // child nodes and ops, in creation order
+        final List<Object> content = new ArrayList<Object>();
+
+        // true if the element is written even when its members are empty
+        boolean always;
+
+        ElementNode(String name) {
+            this.name = name;
+        }
+
+        ElementNode getOrCreate(String[] path) {
+            ElementNode node = this;
+            for (String segment : path) {
+                node = node.getOrCreate(segment);
+            }
+            return node;
+        }
+
+        ElementNode getOrCreate(String segment) {
+            for (Object item : content) {
+                if (item instanceof ElementNode
+                        && segment.equals(((ElementNode) item).name)) {
+                    return (ElementNode) item;
+                }
+            }
+            ElementNode node = new ElementNode(segment);
+            content.add(node);
+            return node;
+        }
+
+        boolean isPresent(Object[] values) {
+            if (always) {
+                return true;
+            }
+            for (int i = 0, len = content.size(); i < len; i++) {
+                Object item = content.get(i);
+                if (item instanceof ElementNode) {
+                    if (((ElementNode) item).isPresent(values)) {
+                        return true;
+                    }
+                } else {
+                    Op op = (Op) item;
+                    if (op.isPresent(values[op.index])) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        void write(XMLStreamWriter writer, Object[] values)
+                throws XMLStreamException {
+            if (!isPresent(values)) {
+                return;
+            }
+            writer.writeStartElement(name);
+            writeContent(writer, values);
+            writer.writeEndElement();
+        }
+
+        void writeContent(XMLStreamWriter writer, Object[] values)
+                throws XMLStreamException {
+            for (int i = 0, len = attributes.size(); i < len; i++) {
+                AttributeOp op = attributes.get(i);
+                op.write(writer, values[op.index]);
+            }
+            for (int i = 0, len = content.size(); i < len; i++) {
+                Object item = content.get(i);
+                if (item instanceof ElementNode) {
+                    ((ElementNode) item).write(writer, values);
+                } else {
+                    Op op = (Op) item;
+                    op.write(writer, values[op.index]);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Writes the value of a member.
+     */
+    abstract static class Op {
+
+        final XAnnotatedMember member;
+
+        final int index;
+
+        Op(XAnnotatedMember member, int index) {
+            this.member = member;
+            this.index = index;
+        }
+
+        /**
+         * Checks whether the value adds content to the enclosing element.
+         */
+        boolean isPresent(Object value) {
+            return value != null;
+        }
+
+        abstract void write(XMLStreamWriter writer, Object value)
+                throws XMLStreamException;
+
+        String serialize(Object value) {
+            if (value == null || member.valueFactory == null) {
+                return null;
+            }
+            return member.valueFactory.serialize(null, value);
+        }
+
+    }
+
+    static final class AttributeOp extends Op {
+
+        AttributeOp(XAnnotatedMember member, int index) {
+            super(member, index);
+        }
+
+        @Override
+        void write(XMLStreamWriter writer, Object value)
+                throws XMLStreamException {
+            String s = serialize(value);
+            if (s != null) {
+                writer.writeAttribute(member.path.attribute, s);
+            }
+        }
+
+    }
+
+    static final class TextOp extends Op {
+
+        TextOp(XAnnotatedMember member, int index) {
+            super(member, index);
+        }
+
+        @Override
+        void write(XMLStreamWriter writer, Object value)
+                throws XMLStreamException {
+            String s = serialize(value);
+            if (s != null) {
+                writer.writeCharacters(s);
+            }
+        }
+
+    }
+
+    static final class ObjectOp extends Op {
+
+        ObjectOp(XAnnotatedMember member, int index) {
+            super(member, index);
+        }
+
+        @Override
+        void write(XMLStreamWriter writer, Object value)
+                throws XMLStreamException {
+            if (value != null) {
+                member.xao.getWritePlan().write(value, writer);
+            }
+        }
+
+    }
+
+    static final class ContentOp extends Op {
+
+        ContentOp(XAnnotatedMember member, int index) {
+            super(member, index);
+        }
+
+        @Override
+        boolean isPresent(Object value) {
+            return value instanceof Node
+                    || (value != null && member.valueFactory != null);
+        }
+
+        @Override
+        void write(XMLStreamWriter writer, Object value)
+                throws XMLStreamException {
+            if (value instanceof Node) {
+                writeNode(writer, (Node) value);
+                return;
+            }
+            String s = serialize(value);
+            if (s != null) {
+                writeFragment(writer, s);
+            }
+        }
+
+    }
+
+    /**
+     * Writes the entries of a list member, one element each.
+     */
+    static class RepeatOp extends Op {
+
+        final String name;
+
+        RepeatOp(XAnnotatedMember member, int index) {
+            super(member, index);
+            name = member.path.segments[member.path.segments.length - 1];
+        }
+
+        @Override
+        boolean isPresent(Object value) {
+            if (value == null) {
+                return false;
+            }
+            if (value instanceof Object[]) {
+                return ((Object[]) value).length > 0;
+            }
+            if (value instanceof Iterable) {
+                return ((Iterable<?>) value).iterator().hasNext();
+            }
+            return value.getClass().isArray() && Array.getLength(value) > 0;
+        }
+
+        @Override
+        void write(XMLStreamWriter writer, Object value)
+                throws XMLStreamException {
+            if (value instanceof Object[]) {
+                for (Object item : (Object[]) value) {
+                    writeEntry(writer, item);
+                }
+            } else if (value instanceof Iterable) {
+                for (Object item : (Iterable<?>) value) {
+                    writeEntry(writer, item);
+                }
+            } else if (value != null && value.getClass().isArray()) {
+                for (int i = 0, len = Array.getLength(value); i < len; i++) {
+                    writeEntry(writer, Array.get(value, i));
+                }
+            }
+        }
+
+        void writeEntry(XMLStreamWriter writer, Object item)
+                throws XMLStreamException {
+            if (member.xao != null) {
+                writer.writeStartElement(name);
+                if (item != null) {
+                    member.xao.getWritePlan().write(item, writer);
+                }
+                writer.writeEndElement();
+                return;
+            }
+            String s = serialize(item);
+            if (s == null) {
+                return;
+            }
+            writer.writeStartElement(name);
+            if (member.path.attribute != null) {
+                writer.writeAttribute(member.path.attribute, s);
+            } else {
+                writer.writeCharacters(s);
+            }
+            writer.writeEndElement();
+        }
+
+    }
+
+    /**
+     * Writes the entries of a map member, one element each.
+     */
+    static final class MapOp extends RepeatOp {
+
+        final Path key;
+
+        final String[] keySegments;
+
+        // true if object values already write their key, computed on first
+        // use as the value plan may not be built yet
+        Boolean keyWrittenByValue;
+
+        MapOp(XAnnotatedMap member, int index) {
+            super(member, index);
+            key = member.key;
+            keySegments = getSegments(key, 0);
+        }
+
+        @Override
+        boolean isPresent(Object value) {
+            return value instanceof Map && !((Map<?, ?>) value).isEmpty();
+        }
+
+        @Override
+        void write(XMLStreamWriter writer, Object value)
+                throws XMLStreamException {
+            if (!(value instanceof Map)) {
+                return;
+            }
+            if (keyWrittenByValue == null) {
+                keyWrittenByValue = Boolean.valueOf(member.xao != null
+                        && member.xao.getWritePlan().writes(key));
+            }
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writer.writeStartElement(name);
+                if (!keyWrittenByValue.booleanValue()) {
+                    writeKey(writer, String.valueOf(entry.getKey()));
+                }
+                Object v = entry.getValue();
+                if (member.xao != null) {
+                    if (v != null) {
+                        member.xao.getWritePlan().write(v, writer);
+                    }
+                } else {
+                    String s = serialize(v);
+                    if (s != null) {
+                        writer.writeCharacters(s);
+                    }
+                }
+                writer.writeEndElement();
+            }
+        }
+
+        void writeKey(XMLStreamWriter writer, String k)
+                throws XMLStreamException {
+            for (String segment : keySegments) {
+                writer.writeStartElement(segment);
+            }
+            if (key.attribute != null) {
+                writer.writeAttribute(key.attribute, k);
+            } else {
+                writer.writeCharacters(k);
+            }
+            for (int i = 0; i < keySegments.length; i++) {
+                writer.writeEndElement();
+            }
+        }
+
+    }
+
+    /**
+     * Copies a serialized content value, parsed the way
+     * {@link DOMHelper#loadFragment} does, without building a DOM.
+     */
+    static void writeFragment(XMLStreamWriter writer, String fragment)
+            throws XMLStreamException {
+        String xml = "<fragment>" + fragment + "</fragment>";
+        XMLStreamReader reader;
+        synchronized (inputFactory) {
+            reader = inputFactory.createXMLStreamReader(new StringReader(xml));
+        }
+        try {
+            int depth = 0;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (depth++ == 0) {
+                        break; // wrapper
+                    }
+                    writer.writeStartElement(getName(reader.getPrefix(),
+                            reader.getLocalName()));
+                    for (int i = 0, len = reader.getAttributeCount(); i < len; i++) {
+                        writer.writeAttribute(
+                                getName(reader.getAttributePrefix(i),
+                                        reader.getAttributeLocalName(i)),
+                                reader.getAttributeValue(i));
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (--depth > 0) {
+                        writer.writeEndElement();
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getTextCharacters(),
+                            reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    writer.writeProcessingInstruction(reader.getPITarget(),
+                            reader.getPIData());
+                    break;
+                default:
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String getName(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0) {
+            return localName;
+        }
+        return prefix + ':' + localName;
+    }
+
+    /**
+     * Writes a node to the writer. The children of fragments and documents
+     * are written without their parent.
+     */
+    static void writeNode(XMLStreamWriter writer, Node node)
+            throws XMLStreamException {
+        switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+            writer.writeStartElement(node.getNodeName());
+            NamedNodeMap attrs = node.getAttributes();
+            for (int i = 0, len = attrs.getLength(); i < len; i++) {
+                Attr attr = (Attr) attrs.item(i);
+                writer.writeAttribute(attr.getName(), attr.getValue());
+            }
+            writeChildren(writer, node);
+            writer.writeEndElement();
+            break;
+        case Node.TEXT_NODE:
+            writer.writeCharacters(node.getNodeValue());
+            break;
+        case Node.CDATA_SECTION_NODE:
+            writer.writeCData(node.getNodeValue());
+            break;
+        case Node.COMMENT_NODE:
+            writer.writeComment(node.getNodeValue());
+            break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            writer.writeProcessingInstruction(node.getNodeName(),
+                    node.getNodeValue());
+            break;
+        case Node.ENTITY_REFERENCE_NODE:
+            writer.writeEntityRef(node.getNodeName());
+            break;
+        case Node.DOCUMENT_NODE:
+        case Node.DOCUMENT_FRAGMENT_NODE:
+            writeChildren(writer, node);
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static void writeChildren(XMLStreamWriter writer, Node node)
+            throws XMLStreamException {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            writeNode(writer, child);
+        }
+    }
+
+}
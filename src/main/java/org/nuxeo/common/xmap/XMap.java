@@ -32,14 +32,25 @@ import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.common.xmap.annotation.XContent;
 import org.nuxeo.common.xmap.annotation.XContext;
@@ -50,6 +61,7 @@ import org.nuxeo.common.xmap.annotation.XNodeMap;
 import org.nuxeo.common.xmap.annotation.XObject;
 import org.nuxeo.common.xmap.annotation.XParent;
 import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
@@ -82,6 +94,15 @@ import org.xml.sax.SAXException;
  * <li> The XML file is loaded as a DOM document
  * <li> The DOM document is parsed and the nodes mapping is resolved
  * </ul>
+ * <p>
+ * In streaming mode (see {@link #setStreaming(boolean)}) XML streams are
+ * instead mapped in a single pass using a StAX parser, and DOM nodes are only
+ * built for members bound to DOM values or to XML content.
+ * <p>
+ * When a {@link SnapshotStore} is set (see
+ * {@link #setSnapshotStore(SnapshotStore)}) XML streams are mapped as in
+ * streaming mode, and a snapshot of each loaded stream is stored so that the
+ * same content is later mapped again without being parsed.
  *
  * @author  <a href="mailto:bs@nuxeo.com">Bogdan Stefanescu</a>
  */
@@ -95,17 +116,33 @@ public class XMap {
         try {
             DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
             factory.setNamespaceAware(true);
+            XMLParserProfile.getDefault().configure(factory);
             return factory;
         } finally {
             t.setContextClassLoader(cl);
         }
     }
 
+    /**
+     * Gets the factory of the builders used to parse the loaded documents.
+     * It must be used read only, see {@link DocumentBuilderPool#getFactory()}.
+     */
     public static DocumentBuilderFactory getFactory() {
-        return factory;
+        return builders.getFactory();
+    }
+
+    /**
+     * Gets the pool of namespace aware builders used to parse the loaded
+     * documents.
+     *
+     * @since 7.1
+     */
+    public static DocumentBuilderPool getBuilderPool() {
+        return builders;
     }
 
-    private static DocumentBuilderFactory factory = initFactory();
+    private static final DocumentBuilderPool builders = new DocumentBuilderPool(
+            initFactory(), XMLParserProfile.getDefault());
 
     // top level objects
     private final Map<String, XAnnotatedObject> roots;
@@ -115,14 +152,29 @@ public class XMap {
 
     private final Map<Class<?>, XValueFactory> factories;
 
+    private volatile boolean streaming;
+
+    private volatile SnapshotStore snapshotStore;
+
+    private volatile XMapMetrics metrics;
+
+    private volatile XValuePool valuePool;
+
+    private volatile DOMValueMode domValueMode = DOMValueMode.LIVE;
+
+    // whether a registered member captures raw content from the source
+    private volatile boolean rawContent;
+
+    // digest of the registered mappings, reset on registration
+    private volatile String signature;
 
     /**
      * Creates a new XMap object.
      */
     public XMap() {
-        objects = new Hashtable<Class<?>, XAnnotatedObject>();
-        roots = new Hashtable<String, XAnnotatedObject>();
-        factories = new Hashtable<Class<?>, XValueFactory>(XValueFactory.defaultFactories);
+        objects = new ConcurrentHashMap<Class<?>, XAnnotatedObject>();
+        roots = new ConcurrentHashMap<String, XAnnotatedObject>();
+        factories = new ConcurrentHashMap<Class<?>, XValueFactory>(XValueFactory.defaultFactories);
     }
 
     /**
@@ -149,6 +201,210 @@ public class XMap {
         factories.put(type, factory);
     }
 
+    /**
+     * Whether XML streams are mapped without building a DOM document.
+     *
+     * @since 7.1
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Enables or disables the streaming mode.
+     * <p>
+     * When enabled, the methods loading objects from an URL or an input
+     * stream parse the XML with a StAX reader and map it in a single pass,
+     * building DOM subtrees only for members of type {@link Element} or
+     * {@link org.w3c.dom.DocumentFragment} and for {@link XContent} members.
+     * Such DOM values are then detached from any document.
+     *
+     * @param streaming true to enable the streaming mode
+     * @since 7.1
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Gets the store of the snapshots taken of the loaded XML streams, or
+     * null if snapshots are disabled.
+     *
+     * @since 7.1
+     */
+    public SnapshotStore getSnapshotStore() {
+        return snapshotStore;
+    }
+
+    /**
+     * Sets the store of the snapshots taken of the loaded XML streams.
+     * <p>
+     * With a store set, the methods loading objects from an URL or an input
+     * stream first look for a snapshot of the same content taken with the
+     * same registered mappings. If one is found, the objects are mapped from
+     * it without parsing the XML. Otherwise the XML is parsed and a snapshot
+     * is stored. Objects are mapped as in streaming mode in both cases.
+     * Documents having a document type declaration are never snapshotted,
+     * as the external entities and DTDs they refer to may change.
+     *
+     * @param store the snapshot store, or null to disable snapshots
+     * @since 7.1
+     */
+    public void setSnapshotStore(SnapshotStore store) {
+        snapshotStore = store;
+    }
+
+    /**
+     * Gets the pool of the decoded values, or null if values are not pooled.
+     *
+     * @since 7.1
+     */
+    public XValuePool getValuePool() {
+        return valuePool;
+    }
+
+    /**
+     * Sets the pool sharing the values decoded by the value factories.
+     * <p>
+     * Descriptors often repeat the same attribute values (class names, event
+     * names, booleans, ...). With a pool, equal strings and boxed primitives
+     * decoded by this XMap are the same instance, which reduces the heap
+     * retained by the loaded objects. The pool may be shared with other
+     * XMaps, see {@link XValuePool#getShared()}.
+     *
+     * @param pool the pool, or null to disable pooling
+     * @since 7.1
+     */
+    public void setValuePool(XValuePool pool) {
+        valuePool = pool;
+    }
+
+    /**
+     * Gets how the DOM values of the mapped objects are stored.
+     *
+     * @since 7.1
+     */
+    public DOMValueMode getDOMValueMode() {
+        return domValueMode;
+    }
+
+    /**
+     * Sets how the values of {@link Element} and {@link DocumentFragment}
+     * typed members are stored.
+     * <p>
+     * By default the values are nodes of the parsed document, which then
+     * stays in memory as long as the mapped objects do. The other modes
+     * detach the values so that the document can be garbage collected right
+     * after the load.
+     *
+     * @param mode the mode, not null
+     * @since 7.1
+     */
+    public void setDOMValueMode(DOMValueMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("DOM value mode cannot be null");
+        }
+        domValueMode = mode;
+    }
+
+    /**
+     * Gets the load time metrics, or null if disabled.
+     *
+     * @since 7.1
+     */
+    public XMapMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics recording the time spent loading XML with this XMap.
+     * <p>
+     * When disabled, which is the default, the loads pay for a null check
+     * per mapped object and per decoded value.
+     *
+     * @param metrics the metrics, or null to disable them
+     * @since 7.1
+     */
+    public void setMetrics(XMapMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts recording the metrics of a load using the given context, unless
+     * metrics are disabled or the context is already used by a recorded
+     * load.
+     *
+     * @return the recorder to give to {@link #endRecording}, or null
+     */
+    XMapMetrics.Recorder startRecording(Context ctx, URL url) {
+        XMapMetrics m = metrics;
+        if (m == null || ctx.recorder != null) {
+            return null;
+        }
+        XMapMetrics.Recorder recorder = new XMapMetrics.Recorder(m, url);
+        ctx.recorder = recorder;
+        return recorder;
+    }
+
+    static void endRecording(Context ctx, XMapMetrics.Recorder recorder) {
+        if (recorder != null) {
+            ctx.recorder = null;
+            recorder.end();
+        }
+    }
+
+    /**
+     * Whether a registered member captures its content from the XML source.
+     */
+    boolean hasRawContent() {
+        return rawContent;
+    }
+
+    /**
+     * Gets a digest of the registered mappings, which changes when a
+     * mapping that may change what is read from XML changes.
+     */
+    String getMappingSignature() {
+        String sig = signature;
+        if (sig == null) {
+            sig = computeMappingSignature();
+            signature = sig;
+        }
+        return sig;
+    }
+
+    private synchronized String computeMappingSignature() {
+        Map<String, XAnnotatedObject> sorted = new TreeMap<String, XAnnotatedObject>();
+        for (XAnnotatedObject xao : objects.values()) {
+            sorted.put(xao.klass.getName(), xao);
+        }
+        StringBuilder buf = new StringBuilder();
+        for (XAnnotatedObject xao : sorted.values()) {
+            buf.append(xao.klass.getName()).append('=').append(xao.path).append(
+                    roots.get(xao.path.path) == xao ? "!" : "").append('{');
+            for (XAnnotatedMember member : xao.getSortedMembers()) {
+                buf.append(member.getClass().getSimpleName()).append(' ');
+                buf.append(member.path).append(' ');
+                buf.append(member.type == null ? null : member.type.getName());
+                if (member instanceof XAnnotatedList) {
+                    Class<?> componentType = ((XAnnotatedList) member).componentType;
+                    buf.append('<').append(componentType == null ? null
+                            : componentType.getName()).append('>');
+                }
+                if (member instanceof XAnnotatedMap) {
+                    buf.append(" key=").append(((XAnnotatedMap) member).key);
+                }
+                if (member instanceof XAnnotatedContent
+                        && ((XAnnotatedContent) member).raw) {
+                    buf.append(" raw");
+                }
+                buf.append(';');
+            }
+            buf.append("}\n");
+        }
+        return DigestUtils.sha1Hex(buf.toString());
+    }
+
     /**
      * Gets a list of scanned objects.
      * <p>
@@ -176,58 +432,41 @@ public class XMap {
      * <p>
      * The class will be scanned for XMap annotations
      * and a mapping description is created.
+     * <p>
+     * Registrations are serialized. A root object becomes visible to the
+     * load methods, possibly running in other threads, only once its class
+     * is fully scanned and its members are frozen.
      *
      * @param klass the object class
      * @return the mapping description
      */
-    public XAnnotatedObject register(Class<?> klass) {
+    public synchronized XAnnotatedObject register(Class<?> klass) {
         XAnnotatedObject xao = objects.get(klass);
         if (xao == null) { // avoid scanning twice
-            XObject xob = checkObjectAnnotation(klass);
+            XClassPlan plan = XClassPlan.get(klass);
+            XObject xob = plan.xob;
             if (xob != null) {
-                xao = new XAnnotatedObject(this, klass, xob);
+                xao = new XAnnotatedObject(this, plan);
                 objects.put(xao.klass, xao);
-                scan(xao);
+                scan(xao, plan);
+                xao.freeze();
                 String key = xob.value();
                 if (key.length() > 0) {
                     roots.put(xao.path.path, xao);
                 }
+                signature = null;
             }
         }
         return xao;
     }
 
-    private void scan(XAnnotatedObject xob) {
-        scanClass(xob, xob.klass);
-    }
-
-    private void scanClass(XAnnotatedObject xob, Class<?> aClass) {
-        Field[] fields = aClass.getDeclaredFields();
-        for (Field field : fields) {
-            Annotation anno =  checkMemberAnnotation(field);
-            if (anno != null) {
-                XAnnotatedMember member = createFieldMember(field, anno);
-                xob.addMember(member);
-            }
-        }
-
-        Method[] methods = aClass.getDeclaredMethods();
-        for (Method method : methods) {
-            // we accept only methods with one parameter
-            Class<?>[] paramTypes = method.getParameterTypes();
-            if (paramTypes.length != 1) {
-                continue;
-            }
-            Annotation anno =  checkMemberAnnotation(method);
-            if (anno != null) {
-                XAnnotatedMember member = createMethodMember(method, anno, aClass);
-                xob.addMember(member);
-            }
-        }
-
-        // scan superClass annotations
-        if (aClass.getSuperclass() != null) {
-            scanClass(xob, aClass.getSuperclass());
+    /**
+     * Creates the members of an object from the shared scan of its class.
+     * Members are bound to this XMap, which provides their value factories.
+     */
+    private void scan(XAnnotatedObject xob, XClassPlan plan) {
+        for (XClassPlan.Member m : plan.members) {
+            xob.addMember(createMember(m.annotation, m.accessor));
         }
     }
 
@@ -239,7 +478,7 @@ public class XMap {
      *    or null if no objects are found.
      */
     public Object load(URL url) throws IOException {
-        return load(new Context(), url.openStream());
+        return load(new Context(), url);
     }
 
     /**
@@ -250,7 +489,7 @@ public class XMap {
      * @return the first registered top level object that is found in the file.
      */
     public Object load(Context ctx, URL url) throws IOException {
-        return load(ctx, url.openStream());
+        return load(ctx, url.openStream(), url);
     }
 
     /**
@@ -271,16 +510,30 @@ public class XMap {
      * @return the first registered top level object that is found in the file.
      */
     public Object load(Context ctx, InputStream in) throws IOException {
+        return load(ctx, in, null);
+    }
+
+    private Object load(Context ctx, InputStream in, URL url)
+            throws IOException {
+        XMapMetrics.Recorder recorder = startRecording(ctx, url);
         try {
-            DocumentBuilderFactory factory = getFactory();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(in);
+            if (streaming || snapshotStore != null || rawContent) {
+                return new StreamLoader(this, ctx).load(in);
+            }
+            Document document;
+            DocumentBuilder builder = builders.acquire();
+            try {
+                document = builder.parse(in);
+            } finally {
+                builders.release(builder);
+            }
             return load(ctx, document.getDocumentElement());
         } catch (ParserConfigurationException e) {
             throw new IOException(e);
         } catch (SAXException e) {
             throw new IOException(e);
         } finally {
+            endRecording(ctx, recorder);
             if (in != null) {
                 try {
                     in.close();
@@ -302,7 +555,7 @@ public class XMap {
      * @return a list with all registered top level objects that are found in the file
      */
     public Object[] loadAll(URL url) throws IOException {
-        return loadAll(new Context(), url.openStream());
+        return loadAll(new Context(), url);
     }
 
     /**
@@ -317,7 +570,77 @@ public class XMap {
      * @return a list with all registered top level objects that are found in the file
      */
     public Object[] loadAll(Context ctx, URL url) throws IOException {
-        return loadAll(ctx, url.openStream());
+        return loadAll(ctx, url.openStream(), url);
+    }
+
+    /**
+     * Processes the XML files at the given URLs concurrently, using the given
+     * executor.
+     * <p>
+     * Each file is loaded as by {@link #loadAll(URL)}, with a new default
+     * context and with the context class loader of the calling thread. The
+     * method blocks until all the files are processed. A failure to load a
+     * file does not prevent the other files from being loaded.
+     * <p>
+     * Files submitted after the executor rejects a task are loaded in the
+     * calling thread.
+     *
+     * @param urls the XML file urls
+     * @param executor the executor running the load tasks
+     * @return the load results, in the order of the given urls
+     * @throws InterruptedException if the calling thread is interrupted while
+     *             waiting, the remaining tasks are then cancelled
+     * @since 7.1
+     */
+    public List<LoadResult> loadAll(Collection<URL> urls, Executor executor)
+            throws InterruptedException {
+        final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        List<FutureTask<Object[]>> tasks = new ArrayList<FutureTask<Object[]>>(
+                urls.size());
+        for (final URL url : urls) {
+            FutureTask<Object[]> task = new FutureTask<Object[]>(
+                    new Callable<Object[]>() {
+                        @Override
+                        public Object[] call() throws IOException {
+                            Thread t = Thread.currentThread();
+                            ClassLoader oldcl = t.getContextClassLoader();
+                            t.setContextClassLoader(cl);
+                            try {
+                                return loadAll(url);
+                            } finally {
+                                t.setContextClassLoader(oldcl);
+                            }
+                        }
+                    });
+            tasks.add(task);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+        List<LoadResult> results = new ArrayList<LoadResult>(tasks.size());
+        Iterator<URL> it = urls.iterator();
+        try {
+            for (FutureTask<Object[]> task : tasks) {
+                URL url = it.next();
+                try {
+                    results.add(new LoadResult(url, task.get(), null));
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    results.add(new LoadResult(url, null, (Exception) cause));
+                }
+            }
+        } catch (InterruptedException e) {
+            for (FutureTask<Object[]> task : tasks) {
+                task.cancel(true);
+            }
+            throw e;
+        }
+        return results;
     }
 
     /**
@@ -346,15 +669,149 @@ public class XMap {
      * @return a list with all registered top level objects that are found in the file
      */
     public Object[] loadAll(Context ctx, InputStream in) throws IOException {
+        return loadAll(ctx, in, (URL) null);
+    }
+
+    private Object[] loadAll(Context ctx, InputStream in, URL url)
+            throws IOException {
+        XMapMetrics.Recorder recorder = startRecording(ctx, url);
         try {
-            DocumentBuilderFactory factory = getFactory();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(in);
+            if (streaming || snapshotStore != null || rawContent) {
+                List<Object> result = new ArrayList<Object>();
+                new StreamLoader(this, ctx).loadAll(in, result);
+                return result.toArray();
+            }
+            Document document;
+            DocumentBuilder builder = builders.acquire();
+            try {
+                document = builder.parse(in);
+            } finally {
+                builders.release(builder);
+            }
             return loadAll(ctx, document.getDocumentElement());
         } catch (ParserConfigurationException e) {
             throw new IOException(e);
         } catch (SAXException e) {
             throw new IOException(e);
+        } finally {
+            endRecording(ctx, recorder);
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes the XML from the given input stream using the given context,
+     * mapping only the registered top level objects having one of the given
+     * names.
+     * <p>
+     * Returns the objects {@link #loadAll(Context, InputStream)} would return
+     * for these names. The XML is mapped as in streaming mode: the elements
+     * of the other top level objects are skipped by the parser without
+     * being mapped.
+     *
+     * @param ctx the context to use
+     * @param in the XML input stream
+     * @param rootNames the names of the top level objects to map
+     * @return the matching top level objects found in the file
+     * @since 7.1
+     */
+    public Object[] loadAll(Context ctx, InputStream in, Set<String> rootNames)
+            throws IOException {
+        XMapMetrics.Recorder recorder = startRecording(ctx, null);
+        try {
+            List<Object> result = new ArrayList<Object>();
+            new StreamLoader(this, ctx).loadAll(in, rootNames, result, false);
+            return result.toArray();
+        } finally {
+            endRecording(ctx, recorder);
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes the XML from the given input stream using the given context
+     * and returns the first top level object having one of the given names,
+     * in the order of {@link #loadAll(Context, InputStream, Set)}.
+     * <p>
+     * The parsing stops as soon as this object is mapped.
+     *
+     * @param ctx the context to use
+     * @param in the XML input stream
+     * @param rootNames the names of the top level objects to look for
+     * @return the first matching top level object, or null if none is found
+     * @since 7.1
+     */
+    public Object loadFirst(Context ctx, InputStream in, Set<String> rootNames)
+            throws IOException {
+        XMapMetrics.Recorder recorder = startRecording(ctx, null);
+        try {
+            List<Object> result = new ArrayList<Object>(1);
+            new StreamLoader(this, ctx).loadAll(in, rootNames, result, true);
+            return result.isEmpty() ? null : result.get(0);
+        } finally {
+            endRecording(ctx, recorder);
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the registered top level objects found in the XML file at the
+     * given URL without mapping them.
+     * <p>
+     * The handles only keep the URL, and read the file again when their
+     * object is first asked for.
+     *
+     * @param url the XML file url
+     * @return the handles of the top level objects found in the file
+     * @see #index(InputStream)
+     * @since 7.1
+     */
+    public List<RootHandle> index(URL url) throws IOException {
+        return index(url, url.openStream());
+    }
+
+    /**
+     * Indexes the registered top level objects found in the XML from the
+     * given input stream without mapping them.
+     * <p>
+     * The handles are returned in the order {@link #loadAll(InputStream)}
+     * would return the objects. Each handle records the name and the source
+     * span of its object, which is only mapped the first time the handle is
+     * asked for it (see {@link RootHandle#getObject(Context)}). The elements
+     * of the objects are skipped by the parser while indexing.
+     *
+     * @param in the XML input stream
+     * @return the handles of the top level objects found in the stream
+     * @since 7.1
+     */
+    public List<RootHandle> index(InputStream in) throws IOException {
+        return index(null, in);
+    }
+
+    private List<RootHandle> index(URL url, InputStream in)
+            throws IOException {
+        try {
+            List<RootHandle> result = new ArrayList<RootHandle>();
+            new StreamLoader(this, new Context()).index(url, in, result);
+            return result;
         } finally {
             if (in != null) {
                 try {
@@ -475,6 +932,13 @@ public class XMap {
         }
     }
 
+    /**
+     * Gets the root object bound to the given element name, if any.
+     */
+    XAnnotatedObject getRootObject(String name) {
+        return roots.get(name);
+    }
+
     protected static Annotation checkMemberAnnotation(AnnotatedElement ae) {
         Annotation[] annos = ae.getAnnotations();
         for (Annotation anno : annos) {
@@ -503,6 +967,7 @@ public class XMap {
             member = new XAnnotatedParent(this, setter);
         } else if (type == XMemberAnnotation.CONTENT) {
             member = new XAnnotatedContent(this, setter, (XContent) annotation);
+            rawContent |= ((XContent) annotation).raw();
         } else if (type == XMemberAnnotation.CONTEXT) {
             member = new XAnnotatedContext(this, setter, (XContext) annotation);
         }
@@ -522,14 +987,12 @@ public class XMap {
 
     // methods to serialize the map
     public String toXML(Object object) throws IOException {
-        DocumentBuilderFactory dbfac = getFactory();
-        DocumentBuilder docBuilder;
+        Document doc;
         try {
-            docBuilder = dbfac.newDocumentBuilder();
+            doc = builders.newDocument();
         } catch (ParserConfigurationException e) {
             throw new IOException(e);
         }
-        Document doc = docBuilder.newDocument();
         // create root element
         Element root = doc.createElement("root");
         doc.appendChild(root);
@@ -550,11 +1013,61 @@ public class XMap {
     }
 
     public void toXML(Object object, Element root){
+        XMLBuilder.saveToXML(object, root, getRegisteredObject(object));
+    }
+
+    /**
+     * Writes the XML representation of an object at the current position of
+     * a stream writer, without building a DOM.
+     *
+     * @see XMLStreamBuilder
+     * @since 7.1
+     */
+    public void toXML(Object object, XMLStreamWriter writer)
+            throws XMLStreamException {
+        XMLStreamBuilder.toXML(object, writer, getRegisteredObject(object));
+    }
+
+    /**
+     * Writes the XML representation of many objects as the children of a
+     * single root element, without building a DOM. Memory use does not
+     * depend on the number of objects, which may be lazily produced by the
+     * given iterable. The stream is not closed.
+     *
+     * @param objects the objects to write
+     * @param rootName the name of the document element
+     * @param os the stream receiving the UTF-8 encoded document
+     * @since 7.1
+     */
+    public void toXML(Iterable<?> objects, String rootName, OutputStream os)
+            throws IOException {
+        try {
+            XMLStreamWriter writer = XMLStreamBuilder.createWriter(os);
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(rootName);
+            Class<?> lastClass = null;
+            XAnnotatedObject xao = null;
+            for (Object object : objects) {
+                if (object.getClass() != lastClass) {
+                    xao = getRegisteredObject(object);
+                    lastClass = object.getClass();
+                }
+                XMLStreamBuilder.toXML(object, writer, xao);
+            }
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private XAnnotatedObject getRegisteredObject(Object object) {
         XAnnotatedObject xao = objects.get(object.getClass());
         if ( xao == null ){
             throw new IllegalArgumentException(object.getClass().getCanonicalName() + " is NOT registred in xmap");
         }
-        XMLBuilder.saveToXML(object, root, xao);
+        return xao;
     }
 
 }
@@ -0,0 +1,193 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.common.xmap;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Binds an annotated class to XMap without scanning it by reflection.
+ * <p>
+ * Binders are generated at compile time by the
+ * {@link org.nuxeo.common.xmap.processor.XMapProcessor} annotation processor,
+ * next to each {@link XObject} class, under the binary name of the class
+ * followed by {@link #SUFFIX}. When registering a class, XMap looks for its
+ * binder and uses it instead of scanning the class; classes without a binder
+ * are scanned as usual.
+ * <p>
+ * The value conversions stay in the members created by each XMap, so that
+ * the value factories of the XMap apply as with scanned classes.
+ *
+ * @since 7.1
+ */
+public abstract class XMapBinder {
+
+    private static final Log log = LogFactory.getLog(XMapBinder.class);
+
+    public static final String SUFFIX = "$XMapBinder";
+
+    /**
+     * Collects the annotated members of a bound class.
+     */
+    public static final class Members {
+
+        final List<XClassPlan.Member> list = new ArrayList<XClassPlan.Member>();
+
+        Members() {
+        }
+
+        /**
+         * Adds a member given its XMap annotation and its accessor.
+         */
+        public void add(Annotation annotation, XAccessor accessor) {
+            list.add(new XClassPlan.Member(annotation, accessor));
+        }
+
+    }
+
+    protected final Class<?> klass;
+
+    protected XMapBinder(Class<?> klass) {
+        this.klass = klass;
+    }
+
+    public Class<?> getBoundClass() {
+        return klass;
+    }
+
+    /**
+     * Gets the {@link XObject} annotation of the bound class.
+     */
+    public abstract XObject getObjectAnnotation();
+
+    /**
+     * Creates a new instance of the bound class using its default
+     * constructor.
+     */
+    public abstract Object newInstance();
+
+    /**
+     * Adds the annotated members of the bound class and of its super classes,
+     * fields first then methods, starting with the bound class.
+     */
+    protected abstract void bindMembers(Members members);
+
+    /**
+     * Gets a reflective accessor for a field that generated code cannot
+     * access directly.
+     *
+     * @param depth the number of super classes between the bound class and
+     *            the class declaring the field
+     * @param name the field name
+     */
+    protected XAccessor field(int depth, String name) {
+        Class<?> declaring = getDeclaringClass(depth);
+        try {
+            Field field = declaring.getDeclaredField(name);
+            return new XFieldAccessor(field);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Outdated XMap binder for "
+                    + klass.getName() + ", missing field: " + name, e);
+        }
+    }
+
+    /**
+     * Gets a reflective accessor for a method that generated code cannot
+     * call directly.
+     *
+     * @param depth the number of super classes between the bound class and
+     *            the class declaring the method
+     * @param name the method name
+     * @param parameterType the {@link Class#getTypeName() type name} of the
+     *            method parameter
+     */
+    protected XAccessor method(int depth, String name, String parameterType) {
+        Class<?> declaring = getDeclaringClass(depth);
+        for (Method method : declaring.getDeclaredMethods()) {
+            Class<?>[] types = method.getParameterTypes();
+            if (types.length == 1 && method.getName().equals(name)
+                    && types[0].getTypeName().equals(parameterType)) {
+                return new XMethodAccessor(method, declaring);
+            }
+        }
+        throw new IllegalStateException("Outdated XMap binder for "
+                + klass.getName() + ", missing method: " + name + "("
+                + parameterType + ")");
+    }
+
+    private Class<?> getDeclaringClass(int depth) {
+        Class<?> declaring = klass;
+        for (int i = 0; i < depth; i++) {
+            declaring = declaring.getSuperclass();
+        }
+        return declaring;
+    }
+
+    /**
+     * Gets the members declared by this binder.
+     */
+    XClassPlan.Member[] getMembers() {
+        Members members = new Members();
+        bindMembers(members);
+        return members.list.toArray(new XClassPlan.Member[members.list.size()]);
+    }
+
+    /**
+     * Finds the generated binder of the given class.
+     *
+     * @return the binder, or null if the class has no usable binder
+     */
+    static XMapBinder find(Class<?> klass) {
+        ClassLoader cl = klass.getClassLoader();
+        if (cl == null || klass.isArray() || klass.isPrimitive()) {
+            return null;
+        }
+        Class<?> binderClass;
+        try {
+            binderClass = Class.forName(klass.getName() + SUFFIX, true, cl);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            log.warn("Cannot load XMap binder for " + klass.getName(), e);
+            return null;
+        }
+        try {
+            XMapBinder binder = (XMapBinder) binderClass.getDeclaredConstructor().newInstance();
+            if (binder.getBoundClass() != klass) {
+                return null;
+            }
+            return binder;
+        } catch (ReflectiveOperationException | ClassCastException
+                | LinkageError e) {
+            log.warn("Cannot use XMap binder for " + klass.getName(), e);
+            return null;
+        }
+    }
+
+}
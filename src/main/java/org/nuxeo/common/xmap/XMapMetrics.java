@@ -0,0 +1,286 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.beans.ConstructorProperties;
+import java.net.URL;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load time metrics of an {@link XMap}, see
+ * {@link XMap#setMetrics(XMapMetrics)}.
+ * <p>
+ * The metrics are recorded for each mapped class and for each source URL.
+ * Loads from an input stream only contribute to the class metrics. The
+ * metrics can be read as a snapshot through {@link #getClassStats()} and
+ * {@link #getSourceStats()}, or through JMX once the instance is registered
+ * in an MBean server:
+ *
+ * <pre>
+ * ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+ *         new ObjectName(&quot;org.nuxeo:type=XMapMetrics&quot;));
+ * </pre>
+ *
+ * @since 7.1
+ */
+public final class XMapMetrics implements XMapMetricsMXBean {
+
+    private final ConcurrentMap<String, Counters> classes = new ConcurrentHashMap<String, Counters>();
+
+    private final ConcurrentMap<String, Counters> sources = new ConcurrentHashMap<String, Counters>();
+
+    /**
+     * Gets the metrics of each mapped class, by class name.
+     */
+    @Override
+    public SortedMap<String, Stats> getClassStats() {
+        return snapshot(classes);
+    }
+
+    /**
+     * Gets the metrics of each loaded URL, by URL.
+     */
+    @Override
+    public SortedMap<String, Stats> getSourceStats() {
+        return snapshot(sources);
+    }
+
+    private static SortedMap<String, Stats> snapshot(
+            Map<String, Counters> counters) {
+        SortedMap<String, Stats> result = new TreeMap<String, Stats>();
+        for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toStats());
+        }
+        return result;
+    }
+
+    /**
+     * Forgets all the recorded metrics.
+     */
+    @Override
+    public void reset() {
+        classes.clear();
+        sources.clear();
+    }
+
+    Counters getClassCounters(Class<?> klass) {
+        return getCounters(classes, klass.getName());
+    }
+
+    private static Counters getCounters(ConcurrentMap<String, Counters> map,
+            String key) {
+        Counters counters = map.get(key);
+        if (counters == null) {
+            counters = new Counters();
+            Counters old = map.putIfAbsent(key, counters);
+            if (old != null) {
+                counters = old;
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * The metrics of a class or of a source.
+     * <p>
+     * The mapping time of a class includes the time spent mapping the
+     * objects nested in its instances. In streaming mode the XML is parsed
+     * while the objects are mapped, so that the mapping time also covers the
+     * parsing of the object elements. The parse time of a source is the load
+     * time not spent mapping objects, it is always 0 for a class. Times are
+     * in nanoseconds.
+     */
+    public static final class Stats {
+
+        private final long instanceCount;
+
+        private final long parseTime;
+
+        private final long mappingTime;
+
+        private final long factoryTime;
+
+        private final long loadClassCount;
+
+        @ConstructorProperties({ "instanceCount", "parseTime", "mappingTime",
+                "factoryTime", "loadClassCount" })
+        public Stats(long instanceCount, long parseTime, long mappingTime,
+                long factoryTime, long loadClassCount) {
+            this.instanceCount = instanceCount;
+            this.parseTime = parseTime;
+            this.mappingTime = mappingTime;
+            this.factoryTime = factoryTime;
+            this.loadClassCount = loadClassCount;
+        }
+
+        /**
+         * Gets the number of mapped objects.
+         */
+        public long getInstanceCount() {
+            return instanceCount;
+        }
+
+        public long getParseTime() {
+            return parseTime;
+        }
+
+        public long getMappingTime() {
+            return mappingTime;
+        }
+
+        /**
+         * Gets the time spent decoding values with {@link XValueFactory}.
+         */
+        public long getFactoryTime() {
+            return factoryTime;
+        }
+
+        /**
+         * Gets the number of {@link Context#loadClass(String)} calls.
+         */
+        public long getLoadClassCount() {
+            return loadClassCount;
+        }
+
+        @Override
+        public String toString() {
+            return "instances=" + instanceCount + ", parse=" + parseTime
+                    + "ns, mapping=" + mappingTime + "ns, factories="
+                    + factoryTime + "ns, loadClass=" + loadClassCount;
+        }
+
+    }
+
+    static final class Counters {
+
+        final AtomicLong instances = new AtomicLong();
+
+        final AtomicLong parse = new AtomicLong();
+
+        final AtomicLong mapping = new AtomicLong();
+
+        final AtomicLong factory = new AtomicLong();
+
+        final AtomicLong loadClass = new AtomicLong();
+
+        Stats toStats() {
+            return new Stats(instances.get(), parse.get(), mapping.get(),
+                    factory.get(), loadClass.get());
+        }
+
+    }
+
+    /**
+     * Records the metrics of one load, which runs in a single thread. It is
+     * attached to the {@link Context} of the load.
+     */
+    static final class Recorder {
+
+        final XMapMetrics metrics;
+
+        final URL url;
+
+        final long start = System.nanoTime();
+
+        // counters of the classes being mapped
+        Counters[] stack = new Counters[8];
+
+        int depth;
+
+        long instances;
+
+        long mapping;
+
+        long factory;
+
+        long loadClass;
+
+        Recorder(XMapMetrics metrics, URL url) {
+            this.metrics = metrics;
+            this.url = url;
+        }
+
+        /**
+         * An instance of the given class starts being mapped.
+         *
+         * @return the start time to give to {@link #endObject(long)}
+         */
+        long startObject(Class<?> klass) {
+            if (depth == stack.length) {
+                Counters[] a = new Counters[depth * 2];
+                System.arraycopy(stack, 0, a, 0, depth);
+                stack = a;
+            }
+            stack[depth++] = metrics.getClassCounters(klass);
+            return System.nanoTime();
+        }
+
+        void endObject(long startTime) {
+            long time = System.nanoTime() - startTime;
+            Counters counters = stack[--depth];
+            stack[depth] = null;
+            counters.instances.incrementAndGet();
+            counters.mapping.addAndGet(time);
+            instances++;
+            if (depth == 0) {
+                mapping += time;
+            }
+        }
+
+        void endFactory(long startTime) {
+            long time = System.nanoTime() - startTime;
+            if (depth > 0) {
+                stack[depth - 1].factory.addAndGet(time);
+            }
+            factory += time;
+        }
+
+        void loadClass() {
+            if (depth > 0) {
+                stack[depth - 1].loadClass.incrementAndGet();
+            }
+            loadClass++;
+        }
+
+        /**
+         * The load ends, adds up its metrics to the source ones.
+         */
+        void end() {
+            if (url == null) {
+                return;
+            }
+            long time = System.nanoTime() - start;
+            Counters counters = getCounters(metrics.sources, url.toString());
+            counters.instances.addAndGet(instances);
+            counters.parse.addAndGet(Math.max(0, time - mapping));
+            counters.mapping.addAndGet(mapping);
+            counters.factory.addAndGet(factory);
+            counters.loadClass.addAndGet(loadClass);
+        }
+
+    }
+
+}
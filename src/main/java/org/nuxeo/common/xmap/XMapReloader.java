@@ -0,0 +1,465 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Watches XML source files and maps them again with an {@link XMap} when
+ * they change, reporting the top level objects that were added, removed or
+ * changed.
+ * <p>
+ * Only the changed files are read again. A changed file is indexed (see
+ * {@link XMap#index(java.io.InputStream)}) and the top level objects whose
+ * source text did not change keep their previous instance without being
+ * mapped again. The other objects are mapped and matched with the previous
+ * ones by key: the key given by the {@link KeyFunction}, or by default the
+ * element name and its rank among the elements of the same name. The source
+ * text of the objects is kept for this comparison. Sources that cannot be
+ * indexed (having a DTD) are reported as entirely changed.
+ * <p>
+ * Changes are processed by {@link #poll(long, TimeUnit)}, or by a
+ * background thread once {@link #start()} is called. Events are delivered
+ * in the thread processing the changes.
+ *
+ * @since 7.1
+ */
+public class XMapReloader implements Closeable {
+
+    private static final Log log = LogFactory.getLog(XMapReloader.class);
+
+    public enum EventType {
+        ADDED, REMOVED, CHANGED
+    }
+
+    /**
+     * A change of a top level object of a watched file.
+     */
+    public static final class Event {
+
+        private final EventType type;
+
+        private final Path file;
+
+        private final Object oldObject;
+
+        private final Object newObject;
+
+        Event(EventType type, Path file, Object oldObject, Object newObject) {
+            this.type = type;
+            this.file = file;
+            this.oldObject = oldObject;
+            this.newObject = newObject;
+        }
+
+        public EventType getType() {
+            return type;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Gets the previous object, null if added.
+         */
+        public Object getOldObject() {
+            return oldObject;
+        }
+
+        /**
+         * Gets the new object, null if removed.
+         */
+        public Object getNewObject() {
+            return newObject;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + file + ": "
+                    + (newObject != null ? newObject : oldObject);
+        }
+
+    }
+
+    public interface Listener {
+
+        void handleEvent(Event event);
+
+    }
+
+    /**
+     * Gives the key identifying a top level object among the objects of its
+     * file.
+     */
+    public interface KeyFunction {
+
+        Object getKey(Object object);
+
+    }
+
+    static final class Root {
+
+        final String name;
+
+        // source text, null if not indexed
+        final String text;
+
+        final Object object;
+
+        Root(String name, String text, Object object) {
+            this.name = name;
+            this.text = text;
+            this.object = object;
+        }
+
+    }
+
+    static final class Source {
+
+        final Path file;
+
+        // digest of the content, null if the file does not exist
+        String digest;
+
+        List<Root> roots = Collections.emptyList();
+
+        Source(Path file) {
+            this.file = file;
+        }
+
+    }
+
+    protected final XMap xmap;
+
+    protected final KeyFunction keyFunction;
+
+    protected final Listener listener;
+
+    private final WatchService watcher;
+
+    private final Map<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();
+
+    private final Map<Path, Source> sources = new LinkedHashMap<Path, Source>();
+
+    private Thread thread;
+
+    /**
+     * @param keyFunction the function giving the keys of the objects, or
+     *            null to use the default keys
+     */
+    public XMapReloader(XMap xmap, KeyFunction keyFunction, Listener listener)
+            throws IOException {
+        this.xmap = xmap;
+        this.keyFunction = keyFunction;
+        this.listener = listener;
+        watcher = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Starts watching the given file and maps it, the objects it holds being
+     * reported as added.
+     */
+    public synchronized void watch(Path file) throws IOException {
+        file = file.toAbsolutePath().normalize();
+        if (sources.containsKey(file)) {
+            return;
+        }
+        Path dir = file.getParent();
+        if (!dirs.containsValue(dir)) {
+            dirs.put(dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY,
+                    ENTRY_DELETE), dir);
+        }
+        Source source = new Source(file);
+        sources.put(file, source);
+        reload(source);
+    }
+
+    /**
+     * Stops watching the given file, the objects it holds being reported as
+     * removed.
+     */
+    public synchronized void unwatch(Path file) {
+        Source source = sources.remove(file.toAbsolutePath().normalize());
+        if (source != null) {
+            for (Root root : source.roots) {
+                listener.handleEvent(new Event(EventType.REMOVED, source.file,
+                        root.object, null));
+            }
+        }
+    }
+
+    /**
+     * Gets the current top level objects of a watched file.
+     */
+    public synchronized List<Object> getObjects(Path file) {
+        Source source = sources.get(file.toAbsolutePath().normalize());
+        if (source == null) {
+            return Collections.emptyList();
+        }
+        List<Object> objects = new ArrayList<Object>(source.roots.size());
+        for (Root root : source.roots) {
+            objects.add(root.object);
+        }
+        return objects;
+    }
+
+    /**
+     * Maps a watched file again if its content changed, without waiting for
+     * a file system notification.
+     *
+     * @return the number of reported events
+     */
+    public synchronized int reload(Path file) throws IOException {
+        Source source = sources.get(file.toAbsolutePath().normalize());
+        return source == null ? 0 : reload(source);
+    }
+
+    /**
+     * Waits for changes of the watched files and processes them.
+     *
+     * @param timeout how long to wait for a first change
+     * @return the number of reported events
+     */
+    public int poll(long timeout, TimeUnit unit) throws InterruptedException {
+        WatchKey key = watcher.poll(timeout, unit);
+        Set<Source> changed = new LinkedHashSet<Source>();
+        while (key != null) {
+            collect(key, changed);
+            key = watcher.poll();
+        }
+        int count = 0;
+        for (Source source : changed) {
+            synchronized (this) {
+                try {
+                    count += reload(source);
+                } catch (IOException e) {
+                    // keep the previous objects, the file may be being written
+                    log.error("Cannot reload: " + source.file, e);
+                }
+            }
+        }
+        return count;
+    }
+
+    private synchronized void collect(WatchKey key, Set<Source> changed) {
+        Path dir = dirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                continue;
+            }
+            if (event.kind() == OVERFLOW) {
+                // events were lost, check all the files of the directory
+                for (Source source : sources.values()) {
+                    if (dir.equals(source.file.getParent())) {
+                        changed.add(source);
+                    }
+                }
+                continue;
+            }
+            Source source = sources.get(dir.resolve((Path) event.context()));
+            if (source != null) {
+                changed.add(source);
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Starts a daemon thread processing the changes as they are notified.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        poll(1, TimeUnit.SECONDS);
+                    }
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    // closed
+                }
+            }
+        }, "XMapReloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.interrupt();
+        }
+        watcher.close();
+    }
+
+    protected int reload(Source source) throws IOException {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(source.file);
+        } catch (NoSuchFileException e) {
+            content = null;
+        }
+        String digest = content == null ? null : DigestUtils.sha1Hex(content);
+        if (digest == null ? source.digest == null
+                : digest.equals(source.digest)) {
+            return 0;
+        }
+        List<Root> roots = content == null ? Collections.<Root> emptyList()
+                : map(content, source.roots);
+        List<Event> events = diff(source.file, source.roots, roots);
+        source.digest = digest;
+        source.roots = roots;
+        for (Event event : events) {
+            listener.handleEvent(event);
+        }
+        return events.size();
+    }
+
+    /**
+     * Maps the top level objects of the given content, reusing the objects
+     * of the given roots having the same source text.
+     */
+    protected List<Root> map(byte[] content, List<Root> previous)
+            throws IOException {
+        Map<String, LinkedList<Root>> unchanged = new HashMap<String, LinkedList<Root>>();
+        for (Root root : previous) {
+            if (root.text != null) {
+                LinkedList<Root> same = unchanged.get(root.text);
+                if (same == null) {
+                    same = new LinkedList<Root>();
+                    unchanged.put(root.text, same);
+                }
+                same.add(root);
+            }
+        }
+        List<RootHandle> handles = xmap.index(new ByteArrayInputStream(content));
+        List<Root> roots = new ArrayList<Root>(handles.size());
+        for (RootHandle handle : handles) {
+            String text = handle.getSource();
+            LinkedList<Root> same = text == null ? null : unchanged.get(text);
+            Object object;
+            if (same != null && !same.isEmpty()) {
+                object = same.removeFirst().object;
+            } else {
+                object = handle.getObject();
+            }
+            roots.add(new Root(handle.getName(), text, object));
+        }
+        return roots;
+    }
+
+    /**
+     * Computes the events turning the old roots into the new ones.
+     */
+    protected List<Event> diff(Path file, List<Root> oldRoots,
+            List<Root> newRoots) {
+        Set<Object> oldObjects = newIdentitySet(oldRoots);
+        Set<Object> newObjects = newIdentitySet(newRoots);
+        // the roots whose object was kept are unchanged, match the others
+        Map<Object, Root> removed = new LinkedHashMap<Object, Root>();
+        Map<String, Integer> ranks = new HashMap<String, Integer>();
+        for (Root old : oldRoots) {
+            if (!newObjects.contains(old.object)) {
+                removed.put(getKey(old, ranks), old);
+            }
+        }
+        List<Event> events = new ArrayList<Event>();
+        ranks.clear();
+        for (Root root : newRoots) {
+            if (oldObjects.contains(root.object)) {
+                continue;
+            }
+            Root old = removed.remove(getKey(root, ranks));
+            if (old == null) {
+                events.add(new Event(EventType.ADDED, file, null, root.object));
+            } else {
+                events.add(new Event(EventType.CHANGED, file, old.object,
+                        root.object));
+            }
+        }
+        for (Root old : removed.values()) {
+            events.add(new Event(EventType.REMOVED, file, old.object, null));
+        }
+        return events;
+    }
+
+    private static Set<Object> newIdentitySet(List<Root> roots) {
+        Set<Object> set = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (Root root : roots) {
+            set.add(root.object);
+        }
+        return set;
+    }
+
+    /**
+     * Gets the key of a root, the ranks of the default keys being counted
+     * in the given map.
+     */
+    private Object getKey(Root root, Map<String, Integer> ranks) {
+        if (keyFunction != null) {
+            return keyFunction.getKey(root.object);
+        }
+        Integer rank = ranks.get(root.name);
+        int r = rank == null ? 0 : rank.intValue();
+        ranks.put(root.name, Integer.valueOf(r + 1));
+        return root.name + '#' + r;
+    }
+
+}
@@ -21,6 +21,7 @@
 
 package org.nuxeo.common.xmap;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
@@ -34,11 +35,27 @@ public class XMethodAccessor implements XAccessor {
     private final Class klass;
     Method getter;
 
+    // compiled accessors, null if reflection must be used
+    private final MethodHandle setterHandle;
+
+    private volatile MethodHandle getterHandle;
+
+    private final boolean useHandles;
+
+    private final Class<?> valueType;
+
     public XMethodAccessor(Method method, Class klass) {
+        this(method, klass, true);
+    }
+
+    XMethodAccessor(Method method, Class<?> klass, boolean useHandles) {
         setter = method;
         setter.setAccessible(true);
         //
         this.klass = klass;
+        this.useHandles = useHandles;
+        setterHandle = useHandles ? XHandles.setter(method) : null;
+        valueType = XHandles.valueType(getType());
     }
 
     public Class getType() {
@@ -46,6 +63,15 @@ public class XMethodAccessor implements XAccessor {
     }
 
     public void setValue(Object instance, Object value) {
+        if (setterHandle != null
+                && XHandles.accepts(valueType, valueType != getType(), value)) {
+            try {
+                setterHandle.invokeExact(instance, value);
+                return;
+            } catch (Throwable t) {
+                throw XHandles.propagate(t);
+            }
+        }
         try {
             setter.invoke(instance, value);
         } catch (IllegalAccessException e) {
@@ -68,6 +94,18 @@ public class XMethodAccessor implements XAccessor {
         // with current xmap definition
         if (getter == null) {
             getter = findGetter(klass);
+            if (getter != null && useHandles) {
+                getter.setAccessible(true);
+                getterHandle = XHandles.getter(getter);
+            }
+        }
+        MethodHandle handle = getterHandle;
+        if (handle != null) {
+            try {
+                return handle.invokeExact(instance);
+            } catch (Throwable t) {
+                throw XHandles.propagate(t);
+            }
         }
         if (getter != null) {
             try {
@@ -0,0 +1,165 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of immutable values decoded by an {@link XMap}, so that
+ * equal values repeated across many descriptors share a single instance,
+ * see {@link XMap#setValuePool(XValuePool)}.
+ * <p>
+ * Strings and boxed primitives are pooled, other values are returned as is
+ * ({@link Class} values are already shared). Once the pool is full, values
+ * not already pooled are no longer added. A pool can be shared by several
+ * XMaps, {@link #getShared()} being the global one.
+ *
+ * @since 7.1
+ */
+public final class XValuePool {
+
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    private static final XValuePool SHARED = new XValuePool(DEFAULT_CAPACITY);
+
+    private final int capacity;
+
+    private final ConcurrentMap<Object, Object> values = new ConcurrentHashMap<Object, Object>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of pooled values
+     */
+    public XValuePool(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Gets the pool shared by all the XMaps using it, having the default
+     * capacity.
+     */
+    public static XValuePool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Gets the pooled instance equal to the given value, pooling the value if
+     * there is none and the pool is not full.
+     */
+    public Object intern(Object value) {
+        if (!isPooled(value)) {
+            return value;
+        }
+        Object pooled = values.get(value);
+        if (pooled != null) {
+            hits.incrementAndGet();
+            return pooled;
+        }
+        misses.incrementAndGet();
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return value;
+        }
+        pooled = values.putIfAbsent(value, value);
+        if (pooled != null) {
+            size.decrementAndGet();
+            return pooled;
+        }
+        return value;
+    }
+
+    private static boolean isPooled(Object value) {
+        if (value == null) {
+            return false;
+        }
+        Class<?> klass = value.getClass();
+        return klass == String.class || klass == Integer.class
+                || klass == Long.class || klass == Boolean.class
+                || klass == Double.class || klass == Float.class
+                || klass == Short.class || klass == Byte.class
+                || klass == Character.class;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of pooled values.
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * Gets the number of values found in the pool.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of values not found in the pool, whether they were
+     * added or not.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the ratio of the values found in the pool, 0 if none was looked
+     * up.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Removes all the pooled values and resets the statistics.
+     */
+    public void clear() {
+        values.clear();
+        size.set(0);
+        hits.set(0);
+        misses.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(size=" + getSize()
+                + ", capacity=" + capacity + ", hits=" + hits + ", misses="
+                + misses + ")";
+    }
+
+}
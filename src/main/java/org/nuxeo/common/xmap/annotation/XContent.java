@@ -44,4 +44,24 @@ public @interface XContent {
      */
     String value() default "";
 
+    /**
+     * Whether the content is captured as it appears in the XML source,
+     * instead of being copied from the DOM and serialized again.
+     * <p>
+     * The member must be a {@code String} or a {@code CharSequence}. A
+     * {@code CharSequence} member receives a view on the source text which
+     * is only turned into a string when needed; it keeps the whole source
+     * text in memory until then. The raw content keeps the markup of the
+     * source as is: entity and character references, CDATA sections,
+     * comments and line ends.
+     * <p>
+     * Raw content is captured when mapping XML streams, which are then
+     * mapped as in streaming mode, unless the document has a document type
+     * declaration. When mapping a DOM, or when the source cannot be
+     * captured, the content is serialized as for other members.
+     *
+     * @since 7.1
+     */
+    boolean raw() default false;
+
 }
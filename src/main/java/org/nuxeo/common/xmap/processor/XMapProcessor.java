@@ -0,0 +1,524 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.common.xmap.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+import org.nuxeo.common.xmap.XMapBinder;
+import org.nuxeo.common.xmap.annotation.XMemberAnnotation;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Generates an {@link XMapBinder} for each {@link XObject} class being
+ * compiled.
+ * <p>
+ * The processor is not registered as a service, it must be enabled
+ * explicitly, for instance with the {@code -processor} option of
+ * {@code javac} or in the {@code annotationProcessors} of the Maven compiler
+ * plugin:
+ *
+ * <pre>
+ * &lt;annotationProcessor&gt;org.nuxeo.common.xmap.processor.XMapProcessor&lt;/annotationProcessor&gt;
+ * </pre>
+ *
+ * Members are accessed directly by the generated code when the Java access
+ * rules allow it, and through the usual reflective accessors otherwise
+ * (private, final, static or primitive fields, private or static methods,
+ * methods having a primitive parameter or declaring checked exceptions, and
+ * members of classes or types not visible from the class package). No binder is
+ * generated for classes that XMap cannot instantiate directly: abstract or
+ * private classes, inner classes and classes without an accessible default
+ * constructor. Such classes are scanned at runtime as before.
+ *
+ * @since 7.1
+ */
+@SupportedAnnotationTypes("org.nuxeo.common.xmap.annotation.XObject")
+public class XMapProcessor extends AbstractProcessor {
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(XObject.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            String reason = checkBindable(type);
+            if (reason != null) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.NOTE,
+                        "No XMap binder generated: " + reason, type);
+                continue;
+            }
+            try {
+                new BinderWriter(type).write();
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.ERROR,
+                        "Cannot write XMap binder: " + e, type);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the generated code can instantiate the given class.
+     *
+     * @return null if it can, the reason otherwise
+     */
+    protected String checkBindable(TypeElement type) {
+        Set<Modifier> modifiers = type.getModifiers();
+        if (modifiers.contains(Modifier.ABSTRACT)) {
+            return "abstract class";
+        }
+        if (type.getNestingKind() == NestingKind.LOCAL
+                || type.getNestingKind() == NestingKind.ANONYMOUS) {
+            return "local class";
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER
+                && !modifiers.contains(Modifier.STATIC)) {
+            return "inner class";
+        }
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                return "private class";
+            }
+        }
+        for (ExecutableElement ctor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (ctor.getParameters().isEmpty()
+                    && !ctor.getModifiers().contains(Modifier.PRIVATE)) {
+                return null;
+            }
+        }
+        return "no accessible default constructor";
+    }
+
+    /**
+     * Writes the binder of a class.
+     */
+    protected class BinderWriter {
+
+        final Elements elements = processingEnv.getElementUtils();
+
+        final Types types = processingEnv.getTypeUtils();
+
+        final TypeElement type;
+
+        final PackageElement pkg;
+
+        final String binderName;
+
+        PrintWriter out;
+
+        BinderWriter(TypeElement type) {
+            this.type = type;
+            pkg = elements.getPackageOf(type);
+            String binaryName = elements.getBinaryName(type).toString();
+            binderName = binaryName.substring(binaryName.lastIndexOf('.') + 1)
+                    + XMapBinder.SUFFIX;
+        }
+
+        void write() throws IOException {
+            String qname = pkg.isUnnamed() ? binderName
+                    : pkg.getQualifiedName() + "." + binderName;
+            Writer writer = processingEnv.getFiler().createSourceFile(qname,
+                    type).openWriter();
+            out = new PrintWriter(writer);
+            try {
+                writeBinder();
+            } finally {
+                out.close();
+            }
+        }
+
+        void writeBinder() {
+            String className = type.getQualifiedName().toString();
+            if (!pkg.isUnnamed()) {
+                out.println("package " + pkg.getQualifiedName() + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * XMap binder of {@link " + className
+                    + "}, generated by " + XMapProcessor.class.getName()
+                    + ".");
+            out.println(" */");
+            out.println("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+            out.println("public final class " + binderName + " extends "
+                    + XMapBinder.class.getName() + " {");
+            out.println();
+            out.println("    public " + binderName + "() {");
+            out.println("        super(" + className + ".class);");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public " + XObject.class.getName()
+                    + " getObjectAnnotation() {");
+            out.println("        return "
+                    + literal(getMirror(type, XObject.class.getName()), 2)
+                    + ";");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public Object newInstance() {");
+            out.println("        return new " + className + "();");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    protected void bindMembers(Members members) {");
+            int depth = 0;
+            TypeMirror t = type.asType();
+            while (t.getKind() == TypeKind.DECLARED) {
+                TypeElement declaring = (TypeElement) types.asElement(t);
+                if (declaring.getQualifiedName().contentEquals(
+                        Object.class.getName())) {
+                    break;
+                }
+                writeMembers(declaring, depth++);
+                t = declaring.getSuperclass();
+            }
+            out.println("    }");
+            out.println();
+            out.println("}");
+        }
+
+        void writeMembers(TypeElement declaring, int depth) {
+            for (VariableElement field : ElementFilter.fieldsIn(declaring.getEnclosedElements())) {
+                AnnotationMirror anno = getMemberAnnotation(field);
+                if (anno != null) {
+                    out.println("        members.add("
+                            + literal(anno, 3) + ",");
+                    out.println("                "
+                            + fieldAccessor(declaring, field, depth) + ");");
+                }
+            }
+            for (ExecutableElement method : ElementFilter.methodsIn(declaring.getEnclosedElements())) {
+                // we accept only methods with one parameter
+                if (method.getParameters().size() != 1) {
+                    continue;
+                }
+                AnnotationMirror anno = getMemberAnnotation(method);
+                if (anno != null) {
+                    out.println("        members.add("
+                            + literal(anno, 3) + ",");
+                    out.println("                "
+                            + methodAccessor(declaring, method, depth) + ");");
+                }
+            }
+        }
+
+        /**
+         * Generates the accessor of a field, a direct one when possible.
+         */
+        String fieldAccessor(TypeElement declaring, VariableElement field,
+                int depth) {
+            Set<Modifier> modifiers = field.getModifiers();
+            TypeMirror fieldType = types.erasure(field.asType());
+            boolean direct = !modifiers.contains(Modifier.PRIVATE)
+                    && !modifiers.contains(Modifier.FINAL)
+                    && !modifiers.contains(Modifier.STATIC)
+                    && !fieldType.getKind().isPrimitive()
+                    && isAccessible(declaring.asType())
+                    && isAccessible(fieldType)
+                    && (modifiers.contains(Modifier.PUBLIC) || pkg.equals(elements.getPackageOf(declaring)));
+            if (!direct) {
+                return "field(" + depth + ", \"" + field.getSimpleName()
+                        + "\")";
+            }
+            String owner = "((" + declaring.getQualifiedName() + ") instance)."
+                    + field.getSimpleName();
+            String ind = "                ";
+            StringBuilder buf = new StringBuilder();
+            buf.append("new org.nuxeo.common.xmap.XAccessor() {\n");
+            buf.append(ind).append("    public Class getType() {\n");
+            buf.append(ind).append("        return ").append(fieldType).append(".class;\n");
+            buf.append(ind).append("    }\n");
+            buf.append(ind).append("    public void setValue(Object instance, Object value) {\n");
+            buf.append(ind).append("        try {\n");
+            buf.append(ind).append("            ").append(owner).append(" = (").append(fieldType).append(") value;\n");
+            buf.append(ind).append("        } catch (ClassCastException e) {\n");
+            buf.append(ind).append("            throw new IllegalArgumentException(e);\n");
+            buf.append(ind).append("        }\n");
+            buf.append(ind).append("    }\n");
+            buf.append(ind).append("    public Object getValue(Object instance) {\n");
+            buf.append(ind).append("        return ").append(owner).append(";\n");
+            buf.append(ind).append("    }\n");
+            buf.append(ind).append("    @Override\n");
+            buf.append(ind).append("    public String toString() {\n");
+            buf.append(ind).append("        return \"").append(declaring.getQualifiedName()).append('.').append(field.getSimpleName()).append("\";\n");
+            buf.append(ind).append("    }\n");
+            buf.append(ind).append("}");
+            return buf.toString();
+        }
+
+        /**
+         * Generates the accessor of a setter method, a direct one when
+         * possible. As with {@code XMethodAccessor}, values are read through
+         * the public getter matching the setter name, if any.
+         */
+        String methodAccessor(TypeElement declaring, ExecutableElement method,
+                int depth) {
+            TypeMirror paramType = types.erasure(method.getParameters().get(0).asType());
+            String name = method.getSimpleName().toString();
+            ExecutableElement getter = null;
+            boolean direct = isCallable(declaring, method)
+                    && !paramType.getKind().isPrimitive()
+                    && isAccessible(paramType);
+            if (direct && name.toLowerCase().startsWith("set")) {
+                boolean bool = paramType.toString().equals(
+                        Boolean.class.getName());
+                getter = findGetter(declaring, (bool ? "is" : "get")
+                        + name.substring(3));
+                direct = getter == null || isCallable(declaring, getter);
+            }
+            if (!direct) {
+                return "method(" + depth + ", \"" + name + "\", \""
+                        + typeName(paramType) + "\")";
+            }
+            String owner = "((" + declaring.getQualifiedName() + ") instance).";
+            String ind = "                ";
+            StringBuilder buf = new StringBuilder();
+            buf.append("new org.nuxeo.common.xmap.XAccessor() {\n");
+            buf.append(ind).append("    public Class getType() {\n");
+            buf.append(ind).append("        return ").append(paramType).append(".class;\n");
+            buf.append(ind).append("    }\n");
+            buf.append(ind).append("    public void setValue(Object instance, Object value) {\n");
+            buf.append(ind).append("        try {\n");
+            buf.append(ind).append("            ").append(owner).append(name).append("((").append(paramType).append(") value);\n");
+            buf.append(ind).append("        } catch (ClassCastException e) {\n");
+            buf.append(ind).append("            throw new IllegalArgumentException(e);\n");
+            buf.append(ind).append("        }\n");
+            buf.append(ind).append("    }\n");
+            buf.append(ind).append("    public Object getValue(Object instance) {\n");
+            if (getter != null) {
+                buf.append(ind).append("        return ").append(owner).append(getter.getSimpleName()).append("();\n");
+            } else if (name.toLowerCase().startsWith("set")) {
+                buf.append(ind).append("        throw new IllegalArgumentException(\"there is NO getter defined for annotated setter: ").append(name).append("\");\n");
+            } else {
+                buf.append(ind).append("        return null;\n");
+            }
+            buf.append(ind).append("    }\n");
+            buf.append(ind).append("    @Override\n");
+            buf.append(ind).append("    public String toString() {\n");
+            buf.append(ind).append("        return \"").append(declaring.getQualifiedName()).append('.').append(name).append("\";\n");
+            buf.append(ind).append("    }\n");
+            buf.append(ind).append("}");
+            return buf.toString();
+        }
+
+        /**
+         * Finds the public no argument method of the given name declared or
+         * inherited by a class.
+         */
+        ExecutableElement findGetter(TypeElement declaring, String name) {
+            for (ExecutableElement m : ElementFilter.methodsIn(elements.getAllMembers(declaring))) {
+                if (m.getSimpleName().contentEquals(name)
+                        && m.getParameters().isEmpty()
+                        && m.getModifiers().contains(Modifier.PUBLIC)) {
+                    return m;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Checks whether generated code can call the given instance method
+         * without handling checked exceptions.
+         */
+        boolean isCallable(TypeElement declaring, ExecutableElement method) {
+            Set<Modifier> modifiers = method.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)
+                    || modifiers.contains(Modifier.STATIC)
+                    || !isAccessible(declaring.asType())) {
+                return false;
+            }
+            if (!modifiers.contains(Modifier.PUBLIC)
+                    && !pkg.equals(elements.getPackageOf(method))) {
+                return false;
+            }
+            for (TypeMirror thrown : method.getThrownTypes()) {
+                if (!types.isSubtype(thrown, elements.getTypeElement(
+                        RuntimeException.class.getName()).asType())
+                        && !types.isSubtype(thrown, elements.getTypeElement(
+                                Error.class.getName()).asType())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether the given type can be named from the binder
+         * package.
+         */
+        boolean isAccessible(TypeMirror t) {
+            t = types.erasure(t);
+            if (t.getKind() == TypeKind.ARRAY) {
+                return isAccessible(((ArrayType) t).getComponentType());
+            }
+            if (t.getKind() != TypeKind.DECLARED) {
+                return t.getKind().isPrimitive();
+            }
+            Element e = ((DeclaredType) t).asElement();
+            boolean samePackage = pkg.equals(elements.getPackageOf(e));
+            for (; e instanceof TypeElement; e = e.getEnclosingElement()) {
+                Set<Modifier> modifiers = e.getModifiers();
+                if (modifiers.contains(Modifier.PRIVATE)) {
+                    return false;
+                }
+                if (!samePackage && !modifiers.contains(Modifier.PUBLIC)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Gets the type name of a parameter type as returned by
+         * {@link Class#getTypeName()}.
+         */
+        String typeName(TypeMirror t) {
+            t = types.erasure(t);
+            switch (t.getKind()) {
+            case ARRAY:
+                return typeName(((ArrayType) t).getComponentType()) + "[]";
+            case DECLARED:
+                return elements.getBinaryName(
+                        (TypeElement) ((DeclaredType) t).asElement()).toString();
+            default:
+                return t.toString();
+            }
+        }
+
+        AnnotationMirror getMirror(Element element, String annotationType) {
+            for (AnnotationMirror anno : element.getAnnotationMirrors()) {
+                if (((TypeElement) anno.getAnnotationType().asElement()).getQualifiedName().contentEquals(
+                        annotationType)) {
+                    return anno;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Gets the first XMap member annotation of an element, as
+         * {@code XMap.checkMemberAnnotation} does.
+         */
+        AnnotationMirror getMemberAnnotation(Element element) {
+            for (AnnotationMirror anno : element.getAnnotationMirrors()) {
+                Element annoType = anno.getAnnotationType().asElement();
+                if (getMirror(annoType, XMemberAnnotation.class.getName()) != null) {
+                    return anno;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Generates an expression creating an instance of an annotation
+         * having the values of the given annotation.
+         */
+        String literal(AnnotationMirror anno, int level) {
+            String ind = "                            ".substring(0, 4 * level);
+            TypeElement annoType = (TypeElement) anno.getAnnotationType().asElement();
+            String name = annoType.getQualifiedName().toString();
+            Map<? extends ExecutableElement, ? extends AnnotationValue> values = elements.getElementValuesWithDefaults(anno);
+            StringBuilder buf = new StringBuilder();
+            buf.append("new ").append(name).append("() {\n");
+            buf.append(ind).append("    public Class<? extends java.lang.annotation.Annotation> annotationType() {\n");
+            buf.append(ind).append("        return ").append(name).append(".class;\n");
+            buf.append(ind).append("    }\n");
+            for (ExecutableElement m : ElementFilter.methodsIn(annoType.getEnclosedElements())) {
+                TypeMirror returnType = m.getReturnType();
+                buf.append(ind).append("    public ").append(returnType).append(' ').append(m.getSimpleName()).append("() {\n");
+                buf.append(ind).append("        return ").append(
+                        value(returnType, values.get(m), level + 1)).append(";\n");
+                buf.append(ind).append("    }\n");
+            }
+            buf.append(ind).append('}');
+            return buf.toString();
+        }
+
+        String value(TypeMirror t, AnnotationValue value, int level) {
+            Object v = value.getValue();
+            if (v instanceof TypeMirror) {
+                return types.erasure((TypeMirror) v) + ".class";
+            }
+            if (v instanceof VariableElement) {
+                VariableElement constant = (VariableElement) v;
+                return types.erasure(constant.asType()) + "."
+                        + constant.getSimpleName();
+            }
+            if (v instanceof AnnotationMirror) {
+                return literal((AnnotationMirror) v, level);
+            }
+            if (v instanceof List) {
+                TypeMirror component = ((ArrayType) t).getComponentType();
+                StringBuilder buf = new StringBuilder();
+                buf.append("new ").append(types.erasure(component)).append("[] {");
+                String sep = " ";
+                for (Object item : (List<?>) v) {
+                    buf.append(sep).append(
+                            value(component, (AnnotationValue) item, level));
+                    sep = ", ";
+                }
+                buf.append(" }");
+                return buf.toString();
+            }
+            return elements.getConstantExpression(v);
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.collections;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building an {@link ArrayMap} and looking up all its keys, for
+ * sizes below and above the {@link ArrayMap#INDEX_THRESHOLD index
+ * threshold}. Lookups are compared with its {@link ArrayMap#freeze() frozen}
+ * copy and a {@link HashMap}.
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArrayMapBenchmark {
+
+    @Param({ "4", "8", "16", "64", "400" })
+    public int size;
+
+    String[] keys;
+
+    ArrayMap<String, String> map;
+
+    Map<String, String> frozen;
+
+    Map<String, String> hashMap;
+
+    @Setup
+    public void setup() {
+        keys = new String[size];
+        map = new ArrayMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            keys[i] = "key" + i;
+            map.put(keys[i], keys[i]);
+        }
+        frozen = map.freeze();
+        hashMap = new HashMap<String, String>(map);
+    }
+
+    @Benchmark
+    public Object build() {
+        ArrayMap<String, String> m = new ArrayMap<String, String>();
+        for (String key : keys) {
+            m.put(key, key);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public int get() {
+        int n = 0;
+        for (String key : keys) {
+            if (map.get(key) != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int getFrozen() {
+        return get(frozen);
+    }
+
+    @Benchmark
+    public int getHashMap() {
+        return get(hashMap);
+    }
+
+    protected int get(Map<String, String> m) {
+        int n = 0;
+        for (String key : keys) {
+            if (m.get(key) != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+}
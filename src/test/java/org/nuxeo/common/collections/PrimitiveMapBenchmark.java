@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.collections;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a {@link LongObjectMap} with the boxed {@link ArrayMap} and
+ * {@link HashMap}, when building a map of random long ids and looking up all
+ * of them.
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PrimitiveMapBenchmark {
+
+    @Param({ "16", "1000", "100000" })
+    public int size;
+
+    long[] ids;
+
+    LongObjectMap<String> longMap;
+
+    ArrayMap<Long, String> arrayMap;
+
+    Map<Long, String> hashMap;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1234);
+        ids = new long[size];
+        longMap = new LongObjectMap<String>();
+        arrayMap = new ArrayMap<Long, String>();
+        hashMap = new HashMap<Long, String>();
+        for (int i = 0; i < size; i++) {
+            ids[i] = random.nextLong();
+            longMap.put(ids[i], "value");
+            arrayMap.put(Long.valueOf(ids[i]), "value");
+            hashMap.put(Long.valueOf(ids[i]), "value");
+        }
+    }
+
+    @Benchmark
+    public Object buildLongMap() {
+        LongObjectMap<String> m = new LongObjectMap<String>();
+        for (long id : ids) {
+            m.put(id, "value");
+        }
+        return m;
+    }
+
+    @Benchmark
+    public Object buildArrayMap() {
+        ArrayMap<Long, String> m = new ArrayMap<Long, String>();
+        for (long id : ids) {
+            m.put(Long.valueOf(id), "value");
+        }
+        return m;
+    }
+
+    @Benchmark
+    public Object buildHashMap() {
+        Map<Long, String> m = new HashMap<Long, String>();
+        for (long id : ids) {
+            m.put(Long.valueOf(id), "value");
+        }
+        return m;
+    }
+
+    @Benchmark
+    public int getLongMap() {
+        int n = 0;
+        for (long id : ids) {
+            if (longMap.get(id) != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int getArrayMap() {
+        return get(arrayMap);
+    }
+
+    @Benchmark
+    public int getHashMap() {
+        return get(hashMap);
+    }
+
+    protected int get(Map<Long, String> m) {
+        int n = 0;
+        for (long id : ids) {
+            if (m.get(Long.valueOf(id)) != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+}
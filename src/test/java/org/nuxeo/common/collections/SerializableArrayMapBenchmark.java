@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.collections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the serialization round trip of a batch of
+ * {@link SerializableArrayMap} having the same string keys, as sent by the
+ * remoting layer. The payload size is given by {@link #getPayloadSize}.
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SerializableArrayMapBenchmark {
+
+    static final String[] KEYS = { "dc:title", "dc:description",
+            "dc:creator", "dc:created", "dc:modified", "ecm:lifeCycleState" };
+
+    @Param({ "1", "100" })
+    public int maps;
+
+    @Param({ "false", "true" })
+    public boolean compact;
+
+    List<SerializableArrayMap<String, String>> batch;
+
+    byte[] payload;
+
+    @Setup
+    public void setup() throws IOException {
+        SerializableArrayMap.writeCompactForm = compact;
+        batch = createBatch(maps);
+        payload = serialize(batch);
+    }
+
+    static List<SerializableArrayMap<String, String>> createBatch(int maps) {
+        List<SerializableArrayMap<String, String>> batch = new ArrayList<SerializableArrayMap<String, String>>();
+        for (int i = 0; i < maps; i++) {
+            SerializableArrayMap<String, String> map = new SerializableArrayMap<String, String>();
+            for (String key : KEYS) {
+                // keys usually come from distinct sources
+                map.put(new String(key), key.substring(3) + i);
+            }
+            batch.add(map);
+        }
+        return batch;
+    }
+
+    static byte[] serialize(Object ob) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baos);
+        out.writeObject(ob);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Gets the size of the serialized batch of the given number of maps.
+     */
+    public static int getPayloadSize(int maps) throws IOException {
+        return serialize(createBatch(maps)).length;
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return serialize(batch);
+    }
+
+    @Benchmark
+    public Object read() throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                payload));
+        return in.readObject();
+    }
+
+}
@@ -21,6 +21,15 @@
 
 package org.nuxeo.common.collections;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.StreamSupport;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -107,4 +116,126 @@ public class TestArrayMap {
         assertEquals("1", am.getKey(1));
     }
 
+    @Test
+    public void testIndexed() {
+        ArrayMap<String, Integer> am = new ArrayMap<String, Integer>();
+        int n = 10 * ArrayMap.INDEX_THRESHOLD;
+        for (int i = 0; i < n; i++) {
+            assertNull(am.put("k" + i, Integer.valueOf(i)));
+        }
+        assertEquals(n, am.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(Integer.valueOf(i), am.get("k" + i));
+            assertEquals("k" + i, am.getKey(i));
+        }
+        assertNull(am.get("missing"));
+        assertEquals(Integer.valueOf(3), am.put("k3", Integer.valueOf(-3)));
+        assertEquals(Integer.valueOf(-3), am.get("k3"));
+        assertEquals(n, am.size());
+
+        // duplicates added are shadowed by the first key
+        am.add("k5", Integer.valueOf(-5));
+        assertEquals(n + 1, am.size());
+        assertEquals(Integer.valueOf(5), am.get("k5"));
+        assertEquals(Integer.valueOf(5), am.remove("k5"));
+        assertEquals(Integer.valueOf(-5), am.get("k5"));
+
+        // removal shifts the following entries
+        assertEquals(Integer.valueOf(0), am.remove(0));
+        assertNull(am.get("k0"));
+        assertEquals(Integer.valueOf(1), am.get("k1"));
+        assertEquals("k1", am.getKey(0));
+
+        // back under the threshold
+        while (am.size() > 2) {
+            am.remove(am.getKey(0));
+        }
+        assertEquals(2, am.size());
+        assertEquals(Integer.valueOf(-5), am.get("k5"));
+
+        am.put(null, Integer.valueOf(0));
+        assertTrue(am.containsKey(null));
+        assertEquals(Integer.valueOf(0), am.get(null));
+    }
+
+    @Test
+    public void testIndexedIteratorRemove() {
+        ArrayMap<String, Integer> am = new ArrayMap<String, Integer>();
+        Map<String, Integer> expected = new LinkedHashMap<String, Integer>();
+        int n = 20 * ArrayMap.INDEX_THRESHOLD;
+        for (int i = 0; i < n; i++) {
+            am.put("k" + i, Integer.valueOf(i));
+            expected.put("k" + i, Integer.valueOf(i));
+        }
+        Random random = new Random(1);
+        while (am.size() > ArrayMap.INDEX_THRESHOLD) {
+            Iterator<String> it = am.keySet().iterator();
+            Iterator<String> eit = expected.keySet().iterator();
+            while (it.hasNext()) {
+                assertEquals(eit.next(), it.next());
+                if (random.nextInt(4) == 0) {
+                    it.remove();
+                    eit.remove();
+                }
+            }
+            assertEquals(expected.size(), am.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals(expected.get("k" + i), am.get("k" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testMap() {
+        Map<String, String> expected = new HashMap<String, String>();
+        ArrayMap<String, String> am = new ArrayMap<String, String>();
+        for (int i = 0; i < 20; i++) {
+            expected.put("k" + i, "v" + i);
+            am.put("k" + i, "v" + i);
+        }
+        assertEquals(expected, am);
+        assertEquals(am, expected);
+        assertEquals(expected.hashCode(), am.hashCode());
+        assertEquals(expected, new ArrayMap<String, String>(expected));
+        assertTrue(am.containsValue("v7"));
+        assertFalse(am.containsValue("v20"));
+        assertEquals(expected.keySet(), am.keySet());
+
+        Iterator<Map.Entry<String, String>> it = am.entrySet().iterator();
+        int i = 0;
+        while (it.hasNext()) {
+            Map.Entry<String, String> e = it.next();
+            assertEquals("k" + i, e.getKey());
+            if (i % 2 == 0) {
+                it.remove();
+            } else {
+                e.setValue("w" + i);
+            }
+            i++;
+        }
+        assertEquals(10, am.size());
+        assertNull(am.get("k0"));
+        assertEquals("w1", am.get("k1"));
+        assertEquals("w19", am.get("k19"));
+    }
+
+    @Test
+    public void testForEach() {
+        ArrayMap<String, Integer> am = new ArrayMap<String, Integer>();
+        for (int i = 0; i < 100; i++) {
+            am.put("k" + i, Integer.valueOf(i));
+        }
+        final AtomicInteger sum = new AtomicInteger();
+        am.forEach((k, v) -> sum.addAndGet(v.intValue()));
+        assertEquals(4950, sum.get());
+
+        Spliterator<Map.Entry<String, Integer>> split = am.entrySet().spliterator();
+        assertEquals(100, split.estimateSize());
+        Spliterator<Map.Entry<String, Integer>> prefix = split.trySplit();
+        assertEquals(50, prefix.estimateSize());
+        assertEquals(50, split.estimateSize());
+        assertEquals(4950, StreamSupport.stream(am.entrySet().spliterator(),
+                true).mapToInt(e -> e.getValue().intValue()).sum());
+    }
+
 }
@@ -0,0 +1,129 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestFrozenArrayMap {
+
+    @Test
+    public void testFreeze() {
+        for (int n : new int[] { 0, 1, 2, 3, 7, 8, 9, 64, 1000 }) {
+            ArrayMap<String, Integer> am = new ArrayMap<String, Integer>();
+            for (int i = 0; i < n; i++) {
+                am.put("key" + i, Integer.valueOf(i));
+            }
+            FrozenArrayMap<String, Integer> frozen = am.freeze();
+            assertTrue(frozen.isPerfectlyHashed());
+            assertEquals(n, frozen.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals(Integer.valueOf(i), frozen.get("key" + i));
+            }
+            for (int i = n; i < n + 100; i++) {
+                assertNull(frozen.get("key" + i));
+            }
+            assertNull(frozen.get(null));
+            assertEquals(am, frozen);
+            assertEquals(am.hashCode(), frozen.hashCode());
+        }
+    }
+
+    @Test
+    public void testFirstKeyWins() {
+        ArrayMap<String, String> am = new ArrayMap<String, String>();
+        am.add("a", "1");
+        am.add("b", "2");
+        am.add("a", "3");
+        am.put(null, "4");
+        FrozenArrayMap<String, String> frozen = am.freeze();
+        assertEquals(3, frozen.size());
+        assertEquals("1", frozen.get("a"));
+        assertEquals("4", frozen.get(null));
+        assertTrue(frozen.containsKey(null));
+        assertTrue(frozen.containsValue("2"));
+        assertFalse(frozen.containsValue("3"));
+    }
+
+    @Test
+    public void testSameHashCodes() {
+        // "Aa" and "BB" have the same hash code
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("Aa", "1");
+        map.put("BB", "2");
+        for (int i = 0; i < 20; i++) {
+            map.put("k" + i, "v" + i);
+        }
+        FrozenArrayMap<String, String> frozen = FrozenArrayMap.copyOf(map);
+        assertFalse(frozen.isPerfectlyHashed());
+        assertEquals(map, frozen);
+        assertEquals("1", frozen.get("Aa"));
+        assertEquals("2", frozen.get("BB"));
+        assertNull(frozen.get("C#"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        ArrayMap<String, String> am = new ArrayMap<String, String>();
+        am.put("a", "1");
+        am.freeze().put("b", "2");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutableEntries() {
+        ArrayMap<String, String> am = new ArrayMap<String, String>();
+        am.put("a", "1");
+        am.freeze().entrySet().iterator().next().setValue("2");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSerialization() throws Exception {
+        SerializableArrayMap<String, String> sam = new SerializableArrayMap<String, String>();
+        for (int i = 0; i < 50; i++) {
+            sam.put("k" + i, "v" + i);
+        }
+        FrozenArrayMap<String, String> frozen = sam.freeze();
+        assertEquals(50, frozen.size());
+        assertEquals("v7", frozen.get("k7"));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baos);
+        out.writeObject(frozen);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                baos.toByteArray()));
+        FrozenArrayMap<String, String> copy = (FrozenArrayMap<String, String>) in.readObject();
+        assertEquals(frozen, copy);
+        assertEquals("v49", copy.get("k49"));
+    }
+
+}
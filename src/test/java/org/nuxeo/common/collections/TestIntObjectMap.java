@@ -0,0 +1,103 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestIntObjectMap {
+
+    @Test
+    public void testPutGetRemove() {
+        IntObjectMap<String> map = new IntObjectMap<String>();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(0, "zero"));
+        assertNull(map.put(-5, null));
+        assertEquals("a", map.put(1, "b"));
+        assertEquals(3, map.size());
+        assertEquals("b", map.get(1));
+        assertEquals("zero", map.get(0));
+        assertNull(map.get(-5));
+        assertTrue(map.containsKey(-5));
+        assertFalse(map.containsKey(2));
+        assertEquals("zero", map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertNull(map.remove(0));
+        assertEquals("b", map.remove(1));
+        assertEquals(1, map.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(-5));
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(1234);
+        IntObjectMap<Integer> map = new IntObjectMap<Integer>();
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        for (int n = 0; n < 100000; n++) {
+            // small range to get collisions and removals of present keys
+            int key = random.nextInt(2000) - 100;
+            Integer value = Integer.valueOf(n);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (int key = -200; key < 2000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+    }
+
+    @Test
+    public void testForEach() {
+        IntObjectMap<String> map = new IntObjectMap<String>(100);
+        for (int i = 0; i < 100; i++) {
+            map.put(i, "v" + i);
+        }
+        final Map<Integer, String> visited = new HashMap<Integer, String>();
+        map.forEach((key, value) -> visited.put(key, value));
+        assertEquals(100, visited.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("v" + i, visited.get(i));
+        }
+        int[] keys = map.keys();
+        Arrays.sort(keys);
+        assertEquals(0, keys[0]);
+        assertEquals(99, keys[99]);
+        assertEquals("{}", new IntObjectMap<String>().toString());
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestObjectIntMap {
+
+    @Test
+    public void testPutGetRemove() {
+        ObjectIntMap<String> map = new ObjectIntMap<String>();
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.get("a"));
+        assertEquals(-1, map.getOrDefault("a", -1));
+        assertEquals(0, map.put("a", 1));
+        assertEquals(0, map.put(null, 2));
+        assertEquals(0, map.put("b", 0));
+        assertEquals(1, map.put("a", 3));
+        assertEquals(3, map.size());
+        assertEquals(3, map.get("a"));
+        assertEquals(2, map.get(null));
+        assertEquals(0, map.getOrDefault("b", -1));
+        assertTrue(map.containsKey("b"));
+        assertFalse(map.containsKey("c"));
+        assertEquals(2, map.remove(null));
+        assertFalse(map.containsKey(null));
+        assertEquals(3, map.remove("a"));
+        assertEquals(0, map.remove("a"));
+        assertEquals(1, map.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey("b"));
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(1234);
+        ObjectIntMap<String> map = new ObjectIntMap<String>();
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (int n = 0; n < 100000; n++) {
+            String key = "key" + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                Integer old = expected.remove(key);
+                assertEquals(old == null ? 0 : old.intValue(), map.remove(key));
+            } else {
+                Integer old = expected.put(key, Integer.valueOf(n));
+                assertEquals(old == null ? 0 : old.intValue(), map.put(key, n));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (int i = 0; i < 2100; i++) {
+            String key = "key" + i;
+            Integer value = expected.get(key);
+            assertEquals(value == null ? -1 : value.intValue(),
+                    map.getOrDefault(key, -1));
+        }
+    }
+
+    @Test
+    public void testForEach() {
+        ObjectIntMap<String> map = new ObjectIntMap<String>(100);
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, i);
+        }
+        final Map<String, Integer> visited = new HashMap<String, Integer>();
+        map.forEach((key, value) -> visited.put(key, Integer.valueOf(value)));
+        assertEquals(100, visited.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), visited.get("key" + i));
+        }
+    }
+
+}
@@ -21,6 +21,18 @@
 
 package org.nuxeo.common.collections;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -107,4 +119,167 @@ public class TestSerializableArrayMap {
         assertEquals("1", am.getKey(1));
     }
 
+    protected static byte[] serialize(Object ob) throws Exception {
+        return serialize(ob, false);
+    }
+
+    protected static byte[] serialize(Object ob, boolean compact)
+            throws Exception {
+        boolean old = SerializableArrayMap.writeCompactForm;
+        SerializableArrayMap.writeCompactForm = compact;
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(baos);
+            out.writeObject(ob);
+            out.close();
+            return baos.toByteArray();
+        } finally {
+            SerializableArrayMap.writeCompactForm = old;
+        }
+    }
+
+    protected static Object deserialize(byte[] bytes) throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        checkSerialization(false);
+        checkSerialization(true);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void checkSerialization(boolean compact) throws Exception {
+        SerializableArrayMap<String, Object> am = new SerializableArrayMap<String, Object>();
+        am.put("a", "1");
+        am.put("b", null);
+        am.put("c", Integer.valueOf(3));
+        SerializableArrayMap<String, Object> copy = (SerializableArrayMap<String, Object>) deserialize(serialize(am, compact));
+        assertEquals(am, copy);
+        assertEquals(3, copy.size());
+        assertNull(copy.get("b"));
+        copy.put("d", "4");
+        assertEquals("4", copy.get("d"));
+
+        SerializableArrayMap<Object, Object> mixed = new SerializableArrayMap<Object, Object>();
+        mixed.put("a", "1");
+        mixed.put(Long.valueOf(2), "2");
+        assertEquals(mixed, deserialize(serialize(mixed, compact)));
+
+        SerializableArrayMap<String, String> empty = new SerializableArrayMap<String, String>();
+        SerializableArrayMap<String, String> emptyCopy = (SerializableArrayMap<String, String>) deserialize(serialize(empty, compact));
+        assertEquals(0, emptyCopy.size());
+        emptyCopy.put("a", "b");
+        assertEquals("b", emptyCopy.get("a"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSharedKeys() throws Exception {
+        List<SerializableArrayMap<String, String>> maps = new ArrayList<SerializableArrayMap<String, String>>();
+        for (int i = 0; i < 100; i++) {
+            SerializableArrayMap<String, String> am = new SerializableArrayMap<String, String>(20);
+            am.put("dc:title", "t" + i);
+            am.put("dc:description", "d" + i);
+            am.put("dc:creator", "c" + i);
+            maps.add(am);
+        }
+        byte[] one = serialize(new ArrayList<Object>(maps.subList(0, 1)), true);
+        byte[] all = serialize(maps, true);
+        // the keys and the unused slots are not written again
+        assertTrue(all.length - one.length < 99 * 40);
+
+        List<SerializableArrayMap<String, String>> copy = (List<SerializableArrayMap<String, String>>) deserialize(all);
+        assertEquals(maps, copy);
+        assertSame(copy.get(0).getKey(1), copy.get(99).getKey(1));
+    }
+
+    // a map {a=1, b=null, c=3} and an empty map written before 7.1
+    private static final String LEGACY_FORM = "rO0ABXNyADFvcmcubnV4ZW8uY29tbW9uLmNvbGxlY3Rpb25zLlNlcmlhbGl6YWJsZUFycmF5TWFwAAAAAAAAAAECAAJJAAVjb3VudFsACGVsZW1lbnRzdAAXW0xqYXZhL2lvL1NlcmlhbGl6YWJsZTt4cAAAAAN1cgAXW0xqYXZhLmlvLlNlcmlhbGl6YWJsZTuu0AmsU9ftSQIAAHhwAAAACHQAAWF0AAExdAABYnB0AAFjdAABM3Bwc3EAfgAAAAAAAHA=";
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLegacyForm() throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                Base64.getDecoder().decode(LEGACY_FORM)));
+        try {
+            SerializableArrayMap<String, String> am = (SerializableArrayMap<String, String>) in.readObject();
+            assertEquals(3, am.size());
+            assertEquals("1", am.get("a"));
+            assertNull(am.get("b"));
+            assertEquals("c", am.getKey(2));
+            am.put("d", "4");
+            assertEquals("4", am.get(3));
+            SerializableArrayMap<String, String> empty = (SerializableArrayMap<String, String>) in.readObject();
+            assertTrue(empty.isEmpty());
+            empty.put("a", "b");
+            assertEquals("b", empty.get("a"));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testForgedSize() throws Exception {
+        SerializableArrayMap<Object, Object> am = new SerializableArrayMap<Object, Object>();
+        am.put(Long.valueOf(1), "1");
+        byte[] bytes = serialize(am, true);
+        // compact then count, primitive fields are written by name
+        int pos = -1;
+        for (int i = 0; i + 5 <= bytes.length; i++) {
+            if (bytes[i] == 1 && bytes[i + 1] == 0 && bytes[i + 2] == 0
+                    && bytes[i + 3] == 0 && bytes[i + 4] == 1) {
+                pos = i + 1;
+            }
+        }
+        assertTrue(pos > 0);
+        bytes[pos] = 0x3F;
+        bytes[pos + 1] = (byte) 0xFF;
+        bytes[pos + 2] = (byte) 0xFF;
+        bytes[pos + 3] = (byte) 0xFF;
+        try {
+            deserialize(bytes);
+            fail("the stream holds a single pair");
+        } catch (IOException e) {
+            // expected, without allocating for the forged size
+        }
+    }
+
+    @Test
+    public void testCompactFormNotReadByOlderReaders() throws Exception {
+        SerializableArrayMap<String, String> am = new SerializableArrayMap<String, String>();
+        am.put("a", "1");
+        // readers older than 7.1 do not have the class marking the compact
+        // form, and fail to read it
+        String mark = SerializableArrayMap.class.getName() + "$CompactForm";
+        assertFalse(getClassNames(serialize(am)).contains(mark));
+        assertTrue(getClassNames(serialize(am, true)).contains(mark));
+    }
+
+    // reads a stream, collecting the names of the classes it holds
+    protected static Set<String> getClassNames(byte[] bytes) throws Exception {
+        final Set<String> names = new HashSet<String>();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc)
+                    throws IOException, ClassNotFoundException {
+                names.add(desc.getName());
+                return super.resolveClass(desc);
+            }
+        };
+        try {
+            in.readObject();
+        } finally {
+            in.close();
+        }
+        return names;
+    }
+
 }
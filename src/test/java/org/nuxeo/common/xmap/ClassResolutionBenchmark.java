@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures class name resolution through the context class loader, with and
+ * without the {@link ClassResolutionCache}.
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class ClassResolutionBenchmark {
+
+    static final String[] NAMES = { "org.nuxeo.common.xmap.XMap",
+            "java.util.ArrayList", "[Ljava.lang.String;",
+            "org.nuxeo.common.xmap.NoSuchClass" };
+
+    final Context ctx = new Context();
+
+    @Benchmark
+    public int cached() {
+        int n = 0;
+        for (String name : NAMES) {
+            try {
+                n += ctx.loadClass(name).hashCode();
+            } catch (ClassNotFoundException e) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int uncached() {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        int n = 0;
+        for (String name : NAMES) {
+            try {
+                if (name.startsWith("[")) {
+                    n += Class.forName(name, true, cl).hashCode();
+                } else {
+                    n += cl.loadClass(name).hashCode();
+                }
+            } catch (ClassNotFoundException e) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XNodeMap;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+/**
+ * Measures the mapping of descriptors made of list, set, array and map
+ * members, from an already parsed DOM.
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CollectionMembersBenchmark {
+
+    @XObject("descriptor")
+    public static class Descriptor {
+
+        @XNode("@name")
+        String name;
+
+        @XNodeList(value = "event", type = ArrayList.class, componentType = String.class)
+        List<String> events;
+
+        @XNodeList(value = "permission", type = HashSet.class, componentType = String.class)
+        Set<String> permissions;
+
+        @XNodeList(value = "schema", type = String[].class, componentType = String.class)
+        String[] schemas;
+
+        @XNodeMap(value = "property", key = "@name", type = HashMap.class, componentType = String.class)
+        Map<String, String> properties;
+
+    }
+
+    XMap xmap;
+
+    Element root;
+
+    @Setup
+    public void setup() throws Exception {
+        xmap = new XMap();
+        xmap.register(Descriptor.class);
+        StringBuilder buf = new StringBuilder("<component>");
+        for (int i = 0; i < 100; i++) {
+            buf.append("<descriptor name=\"d").append(i).append("\">");
+            for (int j = 0; j < 8; j++) {
+                buf.append("<event>event").append(j).append("</event>");
+                buf.append("<permission>perm").append(j).append(
+                        "</permission>");
+                buf.append("<schema>schema").append(j).append("</schema>");
+                buf.append("<property name=\"p").append(j).append(
+                        "\">value</property>");
+            }
+            buf.append("</descriptor>");
+        }
+        buf.append("</component>");
+        DocumentBuilder builder = XMap.getFactory().newDocumentBuilder();
+        root = builder.parse(
+                new ByteArrayInputStream(buf.toString().getBytes("UTF-8"))).getDocumentElement();
+    }
+
+    @Benchmark
+    public Object loadAll() {
+        return xmap.loadAll(root);
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.junit.Test;
+import org.nuxeo.common.xmap.annotation.XContent;
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XNodeMap;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.w3c.dom.Element;
+
+public class TestChildIndex {
+
+    static final String XML = "<doc id=\"1\">" //
+            + "<a>first</a><a>second</a>" //
+            + "<b><c x=\"1\">c1</c><c x=\"2\">c2</c></b>" //
+            + "<b><c>other</c></b>" //
+            + "<item name=\"k1\">v1</item><item name=\"k2\">v2</item>" //
+            + "<item>nokey</item>" //
+            + "</doc>";
+
+    @XObject("doc")
+    public static class Doc {
+
+        @XNode("@id")
+        String id;
+
+        @XNode("a")
+        String a;
+
+        @XNodeList(value = "a", type = ArrayList.class, componentType = String.class)
+        List<String> as;
+
+        @XNode("b/c")
+        String c;
+
+        @XNode("b/c@x")
+        String cx;
+
+        @XNodeList(value = "b/c@x", type = String[].class, componentType = String.class)
+        String[] xs;
+
+        @XNodeList(value = "b/c", type = ArrayList.class, componentType = String.class)
+        List<String> cs;
+
+        @XNodeList(value = "item@name", type = ArrayList.class, componentType = String.class)
+        List<String> names;
+
+        @XNodeMap(value = "item", key = "@name", type = HashMap.class, componentType = String.class)
+        Map<String, String> items;
+
+        @XNodeMap(value = "b/c", key = "@x", type = HashMap.class, componentType = String.class)
+        Map<String, String> cmap;
+
+        @XNode("missing")
+        String missing;
+
+        @XNodeList(value = "missing/a", type = ArrayList.class, componentType = String.class, nullByDefault = true)
+        List<String> missings;
+
+        @XContent("b")
+        String content;
+
+        @XNode("")
+        Element self;
+
+    }
+
+    @Test
+    public void testMapping() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(Doc.class);
+        Doc doc = (Doc) xmap.load(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        assertEquals("1", doc.id);
+        assertEquals("first", doc.a);
+        assertEquals(Arrays.asList("first", "second"), doc.as);
+        assertEquals("c1", doc.c);
+        assertEquals("1", doc.cx);
+        assertEquals(Arrays.asList("1", "2"), Arrays.asList(doc.xs));
+        assertEquals(Arrays.asList("c1", "c2"), doc.cs);
+        assertEquals(Arrays.asList("k1", "k2"), doc.names);
+        assertEquals(2, doc.items.size());
+        assertEquals("v2", doc.items.get("k2"));
+        assertEquals("c1", doc.cmap.get("1"));
+        assertNull(doc.missing);
+        assertNull(doc.missings);
+        assertTrue(doc.content.contains("c2"));
+        assertEquals("doc", doc.self.getNodeName());
+    }
+
+    @Test
+    public void testSameValuesAsUnindexedLookup() throws Exception {
+        XMap xmap = new XMap();
+        XAnnotatedObject xao = xmap.register(Doc.class);
+        DocumentBuilder builder = XMap.getFactory().newDocumentBuilder();
+        Element root = builder.parse(
+                new ByteArrayInputStream(XML.getBytes("UTF-8"))).getDocumentElement();
+
+        ChildIndex.Table table = xao.getTable();
+        ChildIndex index = table.newIndex(root);
+        assertNotNull(index);
+        Context ctx = new Context();
+        ctx.push(new Doc());
+        int indexed = 0;
+        for (int i = 0; i < table.members.length; i++) {
+            int slot = table.slots[i];
+            if (slot < 0) {
+                continue;
+            }
+            indexed++;
+            XAnnotatedMember member = table.members[i];
+            Object expected = member.getValue(ctx, root);
+            Object actual = member.getValue(ctx, root, index.get(slot));
+            assertTrue(member.path.toString(), Arrays.deepEquals(
+                    new Object[] { expected }, new Object[] { actual }));
+        }
+        // all members but the attribute of the element and the element itself
+        assertEquals(table.members.length - 2, indexed);
+    }
+
+}
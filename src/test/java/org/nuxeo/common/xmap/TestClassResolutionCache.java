@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+public class TestClassResolutionCache {
+
+    static class CountingClassLoader extends ClassLoader {
+
+        int classes;
+
+        int resources;
+
+        CountingClassLoader() {
+            super(TestClassResolutionCache.class.getClassLoader());
+        }
+
+        @Override
+        public Class<?> loadClass(String name) throws ClassNotFoundException {
+            classes++;
+            return super.loadClass(name);
+        }
+
+        @Override
+        public URL getResource(String name) {
+            resources++;
+            return super.getResource(name);
+        }
+
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        CountingClassLoader cl = new CountingClassLoader();
+        Thread t = Thread.currentThread();
+        ClassLoader oldcl = t.getContextClassLoader();
+        t.setContextClassLoader(cl);
+        try {
+            Context ctx = new Context();
+            assertSame(String.class, ctx.loadClass("java.lang.String"));
+            assertSame(String.class, ctx.loadClass("java.lang.String"));
+            assertEquals(1, cl.classes);
+            // the component class is loaded again for the array class
+            assertSame(String[].class, ctx.loadClass("[Ljava.lang.String;"));
+            assertSame(String[].class, ctx.loadClass("[Ljava.lang.String;"));
+            assertEquals(2, cl.classes);
+
+            // negative caching
+            for (int i = 0; i < 2; i++) {
+                try {
+                    ctx.loadClass("org.nuxeo.NoSuchClass");
+                    fail();
+                } catch (ClassNotFoundException e) {
+                    assertEquals("org.nuxeo.NoSuchClass", e.getMessage());
+                }
+            }
+            assertEquals(3, cl.classes);
+
+            assertNotNull(ctx.getResource("test-xmap.xml"));
+            assertNotNull(new Resource(ctx, "test-xmap.xml").toURL());
+            assertNull(ctx.getResource("no-such-resource.xml"));
+            assertNull(ctx.getResource("no-such-resource.xml"));
+            assertEquals(2, cl.resources);
+
+            ClassResolutionCache.invalidate(cl);
+            ctx.loadClass("java.lang.String");
+            assertEquals(4, cl.classes);
+
+            // another loader has its own cache
+            CountingClassLoader other = new CountingClassLoader();
+            t.setContextClassLoader(other);
+            ctx.loadClass("java.lang.String");
+            assertEquals(1, other.classes);
+            assertEquals(4, cl.classes);
+        } finally {
+            t.setContextClassLoader(oldcl);
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XNodeMap;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+public class TestCollectionMembers {
+
+    public static class CustomList extends ArrayList<Object> {
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+    @XObject("descriptor")
+    public static class Descriptor {
+
+        @XNodeList(value = "item", type = List.class, componentType = String.class)
+        List<String> list;
+
+        @XNodeList(value = "item", type = LinkedList.class, componentType = String.class)
+        LinkedList<String> linkedList;
+
+        @XNodeList(value = "item", type = LinkedHashSet.class, componentType = String.class)
+        Set<String> linkedSet;
+
+        @XNodeList(value = "item", type = TreeSet.class, componentType = String.class)
+        Set<String> treeSet;
+
+        @XNodeList(value = "item", type = CustomList.class, componentType = String.class)
+        CustomList customList;
+
+        @XNodeList(value = "group/item@id", type = String[].class, componentType = String.class)
+        String[] ids;
+
+        @XNodeList(value = "item", type = String[].class, componentType = String.class)
+        String[] items;
+
+        @XNodeList(value = "number@id", type = String[].class, componentType = String.class)
+        String[] numberIds;
+
+        @XNodeList(value = "number", type = int[].class, componentType = int.class)
+        int[] numbers;
+
+        @XNodeList(value = "missing", type = Collection.class, componentType = String.class, nullByDefault = true)
+        Collection<String> missing;
+
+        @XNodeMap(value = "property", key = "@name", type = Map.class, componentType = String.class)
+        Map<String, String> map;
+
+        @XNodeMap(value = "property", key = "@name", type = TreeMap.class, componentType = String.class)
+        Map<String, String> treeMap;
+
+        @XNodeMap(value = "property", key = "@name", type = ConcurrentHashMap.class, componentType = String.class)
+        Map<String, String> concurrentMap;
+
+    }
+
+    static final String XML = "<descriptor><item>b</item><item>a</item>"
+            + "<item>b</item><group><item id=\"x\"/><item/><item id=\"y\"/>"
+            + "</group><number id=\"z\">1</number><number>2</number>"
+            + "<property name=\"p2\">v2</property>"
+            + "<property name=\"p1\">v1</property></descriptor>";
+
+    protected void checkLoad(boolean streaming) throws Exception {
+        XMap xmap = new XMap();
+        xmap.setStreaming(streaming);
+        xmap.register(Descriptor.class);
+        Descriptor d = (Descriptor) xmap.load(new ByteArrayInputStream(
+                XML.getBytes()));
+        assertEquals(Arrays.asList("b", "a", "b"), d.list);
+        assertSame(ArrayList.class, d.list.getClass());
+        assertEquals(Arrays.asList("b", "a", "b"), d.linkedList);
+        assertEquals(Arrays.asList("b", "a"), new ArrayList<String>(
+                d.linkedSet));
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(d.treeSet));
+        assertEquals(Arrays.<Object> asList("b", "a", "b"), d.customList);
+        assertArrayEquals(new String[] { "x", "y" }, d.ids);
+        assertArrayEquals(new String[] { "b", "a", "b" }, d.items);
+        assertArrayEquals(new String[] { "z" }, d.numberIds);
+        assertArrayEquals(new int[] { 1, 2 }, d.numbers);
+        assertNull(d.missing);
+        assertEquals(2, d.map.size());
+        assertEquals("v1", d.map.get("p1"));
+        assertEquals("[p1, p2]", d.treeMap.keySet().toString());
+        assertEquals(d.map, d.concurrentMap);
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        checkLoad(false);
+    }
+
+    @Test
+    public void testStreamingLoad() throws Exception {
+        checkLoad(true);
+    }
+
+}
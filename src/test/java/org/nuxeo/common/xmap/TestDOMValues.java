@@ -0,0 +1,164 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.nuxeo.common.xmap.annotation.XContent;
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+public class TestDOMValues {
+
+    static final String XML = "<contributions xmlns:x=\"urn:x\">"
+            + "<widget name=\"w\"><x:label>Label</x:label>"
+            + "<layout>text <b>bold</b><x:row/></layout></widget>"
+            + "</contributions>";
+
+    @XObject("widget")
+    public static class Widget {
+
+        @XNode("")
+        Element element;
+
+        @XContent("layout")
+        DocumentFragment layout;
+
+    }
+
+    protected Widget load(DOMValueMode mode, boolean streaming)
+            throws Exception {
+        XMap xmap = new XMap();
+        xmap.setStreaming(streaming);
+        xmap.setDOMValueMode(mode);
+        xmap.register(Widget.class);
+        Object[] obs = xmap.loadAll(new ByteArrayInputStream(
+                XML.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1, obs.length);
+        return (Widget) obs[0];
+    }
+
+    protected void checkValues(Widget w) {
+        assertEquals("widget", w.element.getNodeName());
+        assertEquals("w", w.element.getAttribute("name"));
+        Element label = (Element) w.element.getFirstChild();
+        assertEquals("urn:x", label.getNamespaceURI());
+        assertEquals("Label", label.getTextContent());
+        assertEquals(3, w.layout.getChildNodes().getLength());
+        assertEquals("text bold", w.layout.getTextContent());
+        Node row = w.layout.getLastChild();
+        assertEquals("urn:x", row.getNamespaceURI());
+        assertEquals("urn:x", row.lookupNamespaceURI("x"));
+    }
+
+    protected void checkDetached(Widget w) {
+        // the values do not refer to the parsed document
+        assertTrue(w.element.isSameNode(w.element.getOwnerDocument().getDocumentElement()));
+        assertNotSame(w.element.getOwnerDocument(),
+                w.layout.getOwnerDocument());
+        try {
+            w.element.setAttribute("name", "changed");
+            fail("detached values should be read-only");
+        } catch (DOMException e) {
+            assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, e.code);
+        }
+    }
+
+    @Test
+    public void testLive() throws Exception {
+        Widget w = load(DOMValueMode.LIVE, false);
+        checkValues(w);
+        assertEquals("contributions",
+                w.element.getParentNode().getNodeName());
+    }
+
+    @Test
+    public void testDetached() throws Exception {
+        for (boolean streaming : new boolean[] { false, true }) {
+            Widget w = load(DOMValueMode.DETACHED, streaming);
+            checkValues(w);
+            checkDetached(w);
+        }
+    }
+
+    @Test
+    public void testLazy() throws Exception {
+        for (boolean streaming : new boolean[] { false, true }) {
+            Widget w = load(DOMValueMode.LAZY, streaming);
+            assertTrue(w.element.toString(),
+                    w.element.toString().startsWith("<widget"));
+            checkValues(w);
+            checkDetached(w);
+        }
+    }
+
+    @Test
+    public void testLazyContentEndingWithCDATA() throws Exception {
+        XMap xmap = new XMap();
+        xmap.setDOMValueMode(DOMValueMode.LAZY);
+        xmap.register(Widget.class);
+        Widget w = (Widget) xmap.load(new ByteArrayInputStream(
+                "<widget><layout>x&lt;y<![CDATA[c<]]></layout></widget>".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Node.DOCUMENT_FRAGMENT_NODE, w.layout.getNodeType());
+        assertEquals("x<yc<", w.layout.getTextContent());
+        assertEquals(Node.CDATA_SECTION_NODE,
+                w.layout.getLastChild().getNodeType());
+    }
+
+    @Test
+    public void testLazyArguments() throws Exception {
+        Widget w = load(DOMValueMode.LAZY, false);
+        // proxies given as arguments are replaced by their nodes
+        assertTrue(w.element.isSameNode(w.element));
+        assertTrue(w.element.isEqualNode(w.element));
+        assertEquals(0, w.element.compareDocumentPosition(w.element));
+        assertEquals(Node.DOCUMENT_POSITION_CONTAINED_BY
+                | Node.DOCUMENT_POSITION_FOLLOWING,
+                w.element.compareDocumentPosition(w.element.getFirstChild()));
+    }
+
+    @Test
+    public void testLazyToXML() throws Exception {
+        XMap xmap = new XMap();
+        xmap.setDOMValueMode(DOMValueMode.LAZY);
+        xmap.register(Widget.class);
+        Widget w = (Widget) xmap.load(new ByteArrayInputStream(
+                XML.getBytes(StandardCharsets.UTF_8)));
+        String xml = xmap.toXML(w);
+        assertTrue(xml, xml.contains("<b>bold</b>"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullMode() {
+        new XMap().setDOMValueMode(null);
+    }
+
+}
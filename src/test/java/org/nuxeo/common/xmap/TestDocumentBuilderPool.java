@@ -0,0 +1,140 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+public class TestDocumentBuilderPool {
+
+    @Test
+    public void testReuse() throws Exception {
+        DocumentBuilderPool pool = new DocumentBuilderPool(
+                DocumentBuilderFactory.newInstance());
+        DocumentBuilder builder = pool.acquire();
+        // nested acquire gets another builder
+        DocumentBuilder other = pool.acquire();
+        assertNotSame(builder, other);
+        pool.release(other);
+        pool.release(builder);
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(0, pool.getReusedCount());
+
+        assertSame(other, pool.acquire());
+        assertEquals(1, pool.getReusedCount());
+        pool.release(other);
+        pool.newDocument();
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(2, pool.getReusedCount());
+    }
+
+    @Test
+    public void testReleaseResetsBuilder() throws Exception {
+        DocumentBuilderPool pool = new DocumentBuilderPool(
+                DocumentBuilderFactory.newInstance());
+        DocumentBuilder builder = pool.acquire();
+        builder.setErrorHandler(new ErrorHandler() {
+            @Override
+            public void warning(SAXParseException e) {
+            }
+
+            @Override
+            public void error(SAXParseException e) {
+            }
+
+            @Override
+            public void fatalError(SAXParseException e) throws SAXException {
+                throw new IllegalStateException(e);
+            }
+        });
+        try {
+            builder.parse(new InputSource(new StringReader("<a>")));
+            fail();
+        } catch (IllegalStateException e) {
+            // custom handler was used
+        } finally {
+            pool.release(builder);
+        }
+        builder = pool.acquire();
+        try {
+            builder.parse(new InputSource(new StringReader("<a>")));
+            fail();
+        } catch (SAXException e) {
+            // default handler is back
+        } finally {
+            pool.release(builder);
+        }
+        builder = pool.acquire();
+        try {
+            Document doc = builder.parse(new InputSource(new StringReader(
+                    "<a><b/></a>")));
+            assertEquals("a", doc.getDocumentElement().getNodeName());
+        } finally {
+            pool.release(builder);
+        }
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test
+    public void testSharedPools() throws Exception {
+        DocumentBuilderPool pool = XMap.getBuilderPool();
+        assertSame(XMap.getFactory(), pool.getFactory());
+        assertSame(DOMSerializer.getBuilderFactory(),
+                DOMSerializer.getBuilderPool().getFactory());
+
+        XMap xmap = new XMap();
+        xmap.register(Author.class);
+        // warm up the pool of the current thread
+        xmap.load(Thread.currentThread().getContextClassLoader().getResource(
+                "test-xmap.xml"));
+        long created = pool.getCreatedCount();
+        long reused = pool.getReusedCount();
+        for (int i = 0; i < 3; i++) {
+            xmap.load(Thread.currentThread().getContextClassLoader().getResource(
+                    "test-xmap.xml"));
+        }
+        assertEquals(created, pool.getCreatedCount());
+        assertEquals(reused + 3, pool.getReusedCount());
+
+        Element el = pool.newDocument().createElement("root");
+        el.getOwnerDocument().appendChild(el);
+        DOMHelper.loadFragment(el, "<child/>");
+        assertEquals("child", el.getFirstChild().getNodeName());
+        assertNull(el.getFirstChild().getNextSibling());
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.junit.Test;
+import org.nuxeo.common.xmap.annotation.XContent;
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.w3c.dom.Document;
+
+public class TestRawContent {
+
+    @XObject("widget")
+    public static class Widget {
+
+        @XNode("@name")
+        String name;
+
+        @XContent(value = "script", raw = true)
+        CharSequence script;
+
+        @XContent(value = "template", raw = true)
+        String template;
+
+        @XContent("template")
+        String serialized;
+
+        @XContent(value = "empty", raw = true)
+        String empty;
+
+        @XNode("after")
+        String after;
+
+    }
+
+    @XObject("bad")
+    public static class Bad {
+
+        @XContent(value = "content", raw = true)
+        Integer content;
+
+    }
+
+    static final String SCRIPT = "\n  if (a &lt; b &amp;&amp; c > d) {\n"
+            + "    <![CDATA[ x = \"</script>\"; ]]>\n  }\n";
+
+    static final String TEMPLATE = "<div class=\"a>b\" title='c'>"
+            + "<!-- <p> --><?pi data?><span/>café &amp; &#233;"
+            + "<template>nested</template></div>";
+
+    static final String XML = "<?xml version=\"1.0\" encoding=\"%s\"?>\n"
+            + "<!-- <widget> -->\n<root>"
+            + "<widget name=\"w1\"><script>" + SCRIPT + "</script>"
+            + "<template>" + TEMPLATE + "</template><empty/>"
+            + "<after>done</after></widget><other><b/></other></root>";
+
+    protected static Widget load(XMap xmap, String xml, String encoding)
+            throws Exception {
+        return (Widget) xmap.load(new ByteArrayInputStream(xml.getBytes(encoding)));
+    }
+
+    protected static XMap newXMap() {
+        XMap xmap = new XMap();
+        xmap.register(Widget.class);
+        return xmap;
+    }
+
+    protected static void checkWidget(Widget w) {
+        assertEquals("w1", w.name);
+        assertEquals(TEMPLATE, w.template);
+        assertEquals("", w.empty);
+        assertEquals("done", w.after);
+        // the serialized content is a copy of the parsed content
+        assertFalse(w.serialized.equals(w.template));
+        assertTrue(w.serialized, w.serialized.contains("title=\"c\""));
+    }
+
+    @Test
+    public void testRawContent() throws Exception {
+        String xml = String.format(XML, "UTF-8");
+        Widget w = load(newXMap(), xml, "UTF-8");
+        checkWidget(w);
+        assertFalse(w.script instanceof String);
+        assertEquals(SCRIPT, w.script.toString());
+        assertEquals(SCRIPT.length(), w.script.length());
+        assertEquals("if", w.script.subSequence(3, 5).toString());
+    }
+
+    @Test
+    public void testEncodings() throws Exception {
+        for (String encoding : new String[] { "ISO-8859-1", "UTF-16",
+                "UTF-16LE" }) {
+            Widget w = load(newXMap(), String.format(XML, encoding), encoding);
+            checkWidget(w);
+        }
+    }
+
+    @Test
+    public void testDoctype() throws Exception {
+        // entities may expand to elements, the content is serialized
+        String xml = String.format(XML, "UTF-8").replace("<root>",
+                "<!DOCTYPE root [<!ENTITY e \"<i>e</i>\">]><root>");
+        Widget w = load(newXMap(), xml, "UTF-8");
+        assertEquals("w1", w.name);
+        assertEquals("done", w.after);
+        assertEquals(w.serialized, w.template);
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        XMap xmap = newXMap();
+        TestSnapshotStore.MemoryStore store = new TestSnapshotStore.MemoryStore();
+        xmap.setSnapshotStore(store);
+        String xml = String.format(XML, "UTF-8");
+        checkWidget(load(xmap, xml, "UTF-8"));
+        assertEquals(0, store.hits);
+        Widget w = load(xmap, xml, "UTF-8");
+        assertEquals(1, store.hits);
+        checkWidget(w);
+        assertEquals(SCRIPT, w.script.toString());
+    }
+
+    @Test
+    public void testDOM() throws Exception {
+        String xml = String.format(XML, "UTF-8");
+        DocumentBuilder builder = XMap.getBuilderPool().acquire();
+        Document doc;
+        try {
+            doc = builder.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        } finally {
+            XMap.getBuilderPool().release(builder);
+        }
+        Widget w = (Widget) newXMap().load(doc.getDocumentElement());
+        assertEquals(w.serialized, w.template);
+        assertTrue(w.script instanceof String);
+    }
+
+    @Test
+    public void testInvalidType() throws Exception {
+        try {
+            new XMap().register(Bad.class);
+            fail("raw content must be a string");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Raw XContent"));
+        }
+    }
+
+}
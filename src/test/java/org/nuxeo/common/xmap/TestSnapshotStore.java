@@ -0,0 +1,240 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestSnapshotStore {
+
+    static class MemoryStore implements SnapshotStore {
+
+        final Map<String, byte[]> snapshots = new HashMap<String, byte[]>();
+
+        int hits;
+
+        int puts;
+
+        @Override
+        public byte[] get(String key) {
+            byte[] snapshot = snapshots.get(key);
+            if (snapshot != null) {
+                hits++;
+            }
+            return snapshot;
+        }
+
+        @Override
+        public void put(String key, byte[] snapshot) {
+            puts++;
+            snapshots.put(key, snapshot);
+        }
+
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = Thread.currentThread().getContextClassLoader().getResource(
+                "test-xmap.xml");
+        InputStream in = url.openStream();
+        try {
+            content = IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    protected Object load(XMap xmap, byte[] bytes) throws Exception {
+        return xmap.load(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void testLoadFromSnapshot() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(Author.class);
+        MemoryStore store = new MemoryStore();
+        xmap.setSnapshotStore(store);
+
+        new XMapTest().checkAuthor((Author) load(xmap, content));
+        assertEquals(0, store.hits);
+        assertEquals(1, store.puts);
+        byte[] snapshot = store.snapshots.values().iterator().next();
+        // unmapped content is left out
+        assertTrue(snapshot.length < content.length);
+
+        Author author = (Author) load(xmap, content);
+        assertEquals(1, store.hits);
+        assertEquals(1, store.puts);
+        new XMapTest().checkAuthor(author);
+        assertEquals("name", author.name.myself.getNodeName());
+        assertEquals(2, author.persons.size());
+
+        // loadAll uses its own snapshot
+        Object[] all = xmap.loadAll(new ByteArrayInputStream(content));
+        assertEquals(1, all.length);
+        new XMapTest().checkAuthor((Author) all[0]);
+        assertEquals(2, store.puts);
+        all = xmap.loadAll(new ByteArrayInputStream(content));
+        new XMapTest().checkAuthor((Author) all[0]);
+        assertEquals(2, store.hits);
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(Author.class);
+        MemoryStore store = new MemoryStore();
+        xmap.setSnapshotStore(store);
+        load(xmap, content);
+        String signature = xmap.getMappingSignature();
+
+        // changed content
+        byte[] changed = new String(content, "UTF-8").replace("First test",
+                "Changed test").getBytes("UTF-8");
+        Author author = (Author) load(xmap, changed);
+        assertEquals("Changed test 22", author.title);
+        assertEquals(0, store.hits);
+        assertEquals(2, store.puts);
+
+        // same content, other mappings
+        XMap other = new XMap();
+        other.register(InheritedAuthor.class);
+        assertFalse(signature.equals(other.getMappingSignature()));
+        other.setSnapshotStore(store);
+        load(other, content);
+        assertEquals(0, store.hits);
+        assertEquals(3, store.puts);
+
+        // registering a class changes the signature
+        xmap.register(TestChildIndex.Doc.class);
+        assertFalse(signature.equals(xmap.getMappingSignature()));
+    }
+
+    @Test
+    public void testNoSnapshotWithDoctype() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(Author.Alias.class);
+        MemoryStore store = new MemoryStore();
+        xmap.setSnapshotStore(store);
+        XMLParserProfile profile = XMLParserProfile.getDefault();
+        String id = "urn:test:snapshot-description";
+        String xml = "<!DOCTYPE alias [<!ENTITY d SYSTEM \"" + id + "\">]>"
+                + "<alias name=\"a\"><description>&d;</description></alias>";
+        profile.addEntity(id, "first");
+        try {
+            assertEquals("first", ((Author.Alias) load(xmap,
+                    xml.getBytes("UTF-8"))).description);
+            // the external entity changes, the document does not
+            profile.addEntity(id, "second");
+            assertEquals("second", ((Author.Alias) load(xmap,
+                    xml.getBytes("UTF-8"))).description);
+            assertEquals(0, store.puts);
+        } finally {
+            profile.removeEntity(id);
+        }
+    }
+
+    @Test
+    public void testInvalidSnapshot() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(Author.class);
+        MemoryStore store = new MemoryStore();
+        xmap.setSnapshotStore(store);
+        load(xmap, content);
+        for (Map.Entry<String, byte[]> entry : store.snapshots.entrySet()) {
+            byte[] snapshot = entry.getValue();
+            byte[] truncated = new byte[snapshot.length / 2];
+            System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+            entry.setValue(truncated);
+        }
+        new XMapTest().checkAuthor((Author) load(xmap, content));
+        assertEquals(1, store.hits);
+        assertEquals(2, store.puts);
+    }
+
+    @Test
+    public void testNamespacesAndContent() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(TestChildIndex.Doc.class);
+        xmap.setSnapshotStore(new MemoryStore());
+        byte[] xml = TestChildIndex.XML.replace("<b>",
+                "<b xmlns:p=\"urn:p\"><!-- note --><p:q p:r=\"s\"><![CDATA[<x>]]></p:q>").getBytes(
+                "UTF-8");
+        TestChildIndex.Doc expected = (TestChildIndex.Doc) load(xmap, xml);
+        TestChildIndex.Doc doc = (TestChildIndex.Doc) load(xmap, xml);
+        assertEquals(expected.content, doc.content);
+        assertTrue(doc.content, doc.content.contains("<p:q"));
+        assertTrue(doc.content, doc.content.contains("<![CDATA[<x>]]>"));
+        assertEquals(expected.items, doc.items);
+        assertEquals(expected.cs, doc.cs);
+        assertEquals("doc", doc.self.getNodeName());
+        assertEquals("1", doc.self.getAttribute("id"));
+    }
+
+    @Test
+    public void testFileStore() throws Exception {
+        File dir = new File(folder.getRoot(), "snapshots");
+        FileSnapshotStore store = new FileSnapshotStore(dir);
+        assertNull(store.get("key"));
+        store.put("key", new byte[] { 1, 2, 3 });
+        assertEquals(3, store.get("key").length);
+        store.put("key", new byte[] { 4 });
+        assertEquals(4, store.get("key")[0]);
+
+        XMap xmap = new XMap();
+        xmap.register(Author.class);
+        xmap.setSnapshotStore(store);
+        load(xmap, content);
+        // a new XMap, as after a restart
+        xmap = new XMap();
+        xmap.register(Author.class);
+        xmap.setSnapshotStore(store);
+        Author author = (Author) load(xmap, content);
+        assertNotNull(author);
+        new XMapTest().checkAuthor(author);
+        assertEquals(2, dir.list().length);
+
+        store.clear();
+        assertEquals(0, dir.list().length);
+    }
+
+}
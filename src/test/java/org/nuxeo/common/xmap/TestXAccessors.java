@@ -0,0 +1,150 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+public class TestXAccessors {
+
+    static class Bean {
+
+        private long count;
+
+        private final String constant = "constant";
+
+        private String name;
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+    }
+
+    @XObject("static")
+    public static class StaticMembers {
+
+        @XNode("@name")
+        static String name;
+
+        static String label;
+
+        @XNode("label")
+        public static void setLabel(String value) {
+            label = value;
+        }
+
+    }
+
+    @Test
+    public void testFieldAccessor() throws Exception {
+        XFieldAccessor accessor = new XFieldAccessor(
+                Bean.class.getDeclaredField("count"));
+        Bean bean = new Bean();
+        accessor.setValue(bean, Long.valueOf(3));
+        assertEquals(3L, bean.count);
+        assertEquals(Long.valueOf(3), accessor.getValue(bean));
+        // widening conversion is handled by the reflective fallback
+        accessor.setValue(bean, Integer.valueOf(4));
+        assertEquals(4L, bean.count);
+        try {
+            accessor.setValue(bean, null);
+            fail("null cannot be assigned to a primitive field");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            accessor.setValue(bean, "5");
+            fail("a String cannot be assigned to a long field");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFinalFieldAccessor() throws Exception {
+        XFieldAccessor accessor = new XFieldAccessor(
+                Bean.class.getDeclaredField("constant"));
+        assertEquals("constant", accessor.getValue(new Bean()));
+    }
+
+    @Test
+    public void testMethodAccessor() throws Exception {
+        XMethodAccessor accessor = new XMethodAccessor(Bean.class.getMethod(
+                "setName", String.class), Bean.class);
+        Bean bean = new Bean();
+        assertNull(accessor.getValue(bean));
+        accessor.setValue(bean, "foo");
+        assertEquals("foo", bean.name);
+        assertEquals("foo", accessor.getValue(bean));
+        accessor.setValue(bean, null);
+        assertNull(bean.name);
+        try {
+            accessor.setValue(bean, Integer.valueOf(1));
+            fail("an Integer cannot be passed to a String setter");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testHandlesAreCompiled() throws Exception {
+        Field field = Bean.class.getDeclaredField("count");
+        field.setAccessible(true);
+        assertNotNull(XHandles.setter(field));
+        assertNotNull(XHandles.getter(Bean.class.getMethod("getName")));
+        XAnnotatedObject xao = new XMap().register(Author.class);
+        assertNotNull(xao.ctorHandle);
+        assertEquals(Author.class, xao.newObject().getClass());
+    }
+
+    @Test
+    public void testStaticMembers() throws Exception {
+        Field field = StaticMembers.class.getDeclaredField("name");
+        assertNull(XHandles.setter(field));
+        assertNull(XHandles.getter(field));
+        assertNull(XHandles.setter(StaticMembers.class.getMethod("setLabel",
+                String.class)));
+        XMap xmap = new XMap();
+        xmap.register(StaticMembers.class);
+        String xml = "<static name=\"foo\"><label>bar</label></static>";
+        Object ob = xmap.load(new ByteArrayInputStream(
+                xml.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(StaticMembers.class, ob.getClass());
+        assertEquals("foo", StaticMembers.name);
+        assertEquals("bar", StaticMembers.label);
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+public class TestXClassPlan {
+
+    @XObject("noctor")
+    public static class NoDefaultConstructor {
+
+        @XNode("@id")
+        String id;
+
+        public NoDefaultConstructor(String id) {
+            this.id = id;
+        }
+
+    }
+
+    @Test
+    public void testPlansAreShared() throws Exception {
+        XClassPlan plan = XClassPlan.get(Author.class);
+        assertSame(plan, XClassPlan.get(Author.class));
+
+        XMap xmap1 = new XMap();
+        XMap xmap2 = new XMap();
+        XAnnotatedObject xao1 = xmap1.register(Author.class);
+        XAnnotatedObject xao2 = xmap2.register(Author.class);
+        assertNotSame(xao1, xao2);
+        assertSame(xao1.ctor, xao2.ctor);
+        assertEquals(plan.members.length, xao1.members.size());
+        for (int i = 0; i < plan.members.length; i++) {
+            assertSame(plan.members[i].accessor, xao1.members.get(i).accessor);
+            assertSame(plan.members[i].accessor, xao2.members.get(i).accessor);
+        }
+
+        assertNull(XClassPlan.get(String.class).xob);
+        assertNull(xmap1.register(String.class));
+    }
+
+    @Test
+    public void testValueFactoriesStayLocal() throws Exception {
+        XMap xmap1 = new XMap();
+        XMap xmap2 = new XMap();
+        xmap2.setValueFactory(String.class, new XValueFactory() {
+            @Override
+            public Object deserialize(Context context, String value) {
+                return value.toUpperCase();
+            }
+
+            @Override
+            public String serialize(Context context, Object value) {
+                return value.toString();
+            }
+        });
+        xmap1.register(TestChildIndex.Doc.class);
+        xmap2.register(TestChildIndex.Doc.class);
+        byte[] xml = TestChildIndex.XML.getBytes("UTF-8");
+        TestChildIndex.Doc doc1 = (TestChildIndex.Doc) xmap1.load(new ByteArrayInputStream(
+                xml));
+        TestChildIndex.Doc doc2 = (TestChildIndex.Doc) xmap2.load(new ByteArrayInputStream(
+                xml));
+        assertEquals("first", doc1.a);
+        assertEquals("FIRST", doc2.a);
+        assertEquals("c1", doc1.cmap.get("1"));
+        assertEquals("C1", doc2.cmap.get("1"));
+    }
+
+    @Test
+    public void testMissingConstructor() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                new XMap().register(NoDefaultConstructor.class);
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertEquals(
+                        "Invalid xmap class - no default constructor found",
+                        e.getMessage());
+            }
+        }
+    }
+
+}
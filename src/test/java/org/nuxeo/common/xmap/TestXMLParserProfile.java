@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+public class TestXMLParserProfile {
+
+    // never resolves, fetching it fails
+    static final String DTD = "http://xmap.invalid/contribution.dtd";
+
+    @XObject("contribution")
+    public static class Contribution {
+
+        @XNode("@name")
+        String name;
+
+        @XNode("label")
+        String label;
+
+    }
+
+    protected Contribution load(String xml, boolean streaming)
+            throws Exception {
+        XMap xmap = new XMap();
+        xmap.setStreaming(streaming);
+        xmap.register(Contribution.class);
+        return (Contribution) xmap.load(new ByteArrayInputStream(
+                xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    protected void checkExternalDTD(boolean streaming) throws Exception {
+        String xml = "<!DOCTYPE contribution SYSTEM \"" + DTD + "\">"
+                + "<contribution name=\"c\"><label>l</label></contribution>";
+        Contribution c = load(xml, streaming);
+        assertEquals("c", c.name);
+        assertEquals("l", c.label);
+    }
+
+    @Test
+    public void testExternalDTDNotFetched() throws Exception {
+        checkExternalDTD(false);
+    }
+
+    @Test
+    public void testExternalDTDNotFetchedStreaming() throws Exception {
+        checkExternalDTD(true);
+    }
+
+    protected void checkExternalEntity(boolean streaming) throws Exception {
+        File file = File.createTempFile("xmap-", ".txt");
+        try {
+            Files.write(file.toPath(), "secret".getBytes(StandardCharsets.UTF_8));
+            String id = file.toURI().toString();
+            String xml = "<!DOCTYPE contribution [<!ENTITY ext SYSTEM \"" + id
+                    + "\">]><contribution name=\"c\"><label>[&ext;]</label>"
+                    + "</contribution>";
+            assertEquals("[]", load(xml, streaming).label);
+
+            XMLParserProfile profile = XMLParserProfile.getDefault();
+            profile.addEntity(id, "from catalog");
+            try {
+                assertEquals("[from catalog]", load(xml, streaming).label);
+            } finally {
+                profile.removeEntity(id);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testExternalEntityFromCatalog() throws Exception {
+        checkExternalEntity(false);
+    }
+
+    @Test
+    public void testExternalEntityFromCatalogStreaming() throws Exception {
+        checkExternalEntity(true);
+    }
+
+    @Test
+    public void testExternalDTDFromCatalog() throws Exception {
+        XMLParserProfile profile = new XMLParserProfile(true, true);
+        profile.addEntity("-//XMap//Test//EN",
+                "<!ENTITY label \"from DTD\">");
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        profile.configure(factory);
+        DocumentBuilderPool pool = new DocumentBuilderPool(factory, profile);
+        String xml = "<!DOCTYPE contribution PUBLIC \"-//XMap//Test//EN\" \""
+                + DTD + "\"><contribution>&label;</contribution>";
+        for (int i = 0; i < 2; i++) {
+            // the resolver is kept once the builder is reused
+            DocumentBuilder builder = pool.acquire();
+            try {
+                Document doc = builder.parse(new InputSource(
+                        new StringReader(xml)));
+                assertEquals("from DTD",
+                        doc.getDocumentElement().getTextContent());
+            } finally {
+                pool.release(builder);
+            }
+        }
+        assertEquals(1, pool.getReusedCount());
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.common.xmap.Author.Alias;
+import org.nuxeo.common.xmap.Author.Gender;
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeMap;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+public class TestXMLStreamBuilder {
+
+    @XObject("holder")
+    public static class Holder {
+
+        @XNodeMap(value = "dm/e", key = "name", type = HashMap.class, componentType = Value.class)
+        Map<String, Value> values;
+
+    }
+
+    @XObject("d")
+    public static class Value {
+
+        // the key path, read from the entry element but written inside the
+        // value element
+        @XNode("name")
+        String name;
+
+    }
+
+    XMap xmap;
+
+    Author author;
+
+    @Before
+    public void setUp() throws Exception {
+        xmap = new XMap();
+        xmap.register(Author.class);
+        URL url = Thread.currentThread().getContextClassLoader().getResource(
+                "test-xmap.xml");
+        author = (Author) xmap.load(url);
+    }
+
+    protected byte[] write(Iterable<?> objects) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        xmap.toXML(objects, "root", out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] xml = write(Collections.singleton(author));
+
+        XMap other = new XMap();
+        other.register(Author.class);
+        Author copy = (Author) other.load(new ByteArrayInputStream(xml));
+        assertEquals("First test 22", copy.title);
+        assertEquals("bla bla", copy.description);
+        assertEquals(copy, copy.name.owner);
+        assertEquals("my first name", copy.name.firstName);
+        assertEquals("my last name", copy.name.lastName);
+        assertEquals("The content", copy.content.trim());
+        assertEquals("author", copy.nameType);
+        assertEquals(Gender.MALE, copy.gender);
+        assertEquals(32, copy.age);
+        assertEquals("test1", copy.getId());
+        assertEquals(author.itemsHashSet, copy.itemsHashSet);
+        assertEquals(3, copy.friends.size());
+        assertEquals("friend2_ln", copy.friends.get(1).lastName);
+        assertEquals(author.properties, copy.properties);
+        assertEquals(author.textToUnescape, copy.textToUnescape);
+        assertEquals(2, copy.persons.size());
+        assertEquals("friend1_ln", copy.persons.get("friend1_fn").lastName);
+        assertEquals("friend2_fn", copy.persons.get("friend2_fn").firstName);
+    }
+
+    @Test
+    public void testSameElementsAsDOM() throws Exception {
+        Document dom = parse(xmap.toXML(author).getBytes("UTF-8"));
+        Document stream = parse(write(Collections.singleton(author)));
+        assertEquals(describe(dom.getDocumentElement()),
+                describe(stream.getDocumentElement()));
+    }
+
+    protected static Document parse(byte[] xml) throws Exception {
+        DocumentBuilderPool builders = XMap.getBuilderPool();
+        DocumentBuilder builder = builders.acquire();
+        try {
+            return builder.parse(new ByteArrayInputStream(xml));
+        } finally {
+            builders.release(builder);
+        }
+    }
+
+    protected static List<String> describe(Element root) {
+        List<String> list = new ArrayList<String>();
+        describe(root, "", list);
+        return list;
+    }
+
+    protected static void describe(Element element, String parent,
+            List<String> list) {
+        String path = parent + "/" + element.getNodeName();
+        StringBuilder buf = new StringBuilder(path);
+        NamedNodeMap attrs = element.getAttributes();
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < attrs.getLength(); i++) {
+            names.add(attrs.item(i).getNodeName() + "="
+                    + attrs.item(i).getNodeValue());
+        }
+        Collections.sort(names);
+        buf.append(names);
+        StringBuilder text = new StringBuilder();
+        for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.TEXT_NODE) {
+                text.append(n.getNodeValue());
+            }
+        }
+        buf.append(' ').append(text.toString().replaceAll("\\s+", " ").trim());
+        list.add(buf.toString());
+        for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.ELEMENT_NODE) {
+                describe((Element) n, path, list);
+            }
+        }
+    }
+
+    @Test
+    public void testWriteToStreamWriter() throws Exception {
+        Alias alias = new Alias();
+        alias.name = "a<b";
+        alias.description = "some & text";
+        xmap.register(Alias.class);
+        StringWriter sw = new StringWriter();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(
+                sw);
+        writer.writeStartElement("aliases");
+        xmap.toXML(alias, writer);
+        writer.writeEndElement();
+        writer.close();
+        assertEquals("<aliases><alias name=\"a&lt;b\">"
+                + "<description>some &amp; text</description></alias>"
+                + "</aliases>", sw.toString());
+    }
+
+    @Test
+    public void testBulk() throws Exception {
+        final int count = 2000;
+        xmap.register(Alias.class);
+        // objects are produced while writing
+        Iterable<Alias> aliases = new Iterable<Alias>() {
+            @Override
+            public Iterator<Alias> iterator() {
+                return new Iterator<Alias>() {
+                    int i;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < count;
+                    }
+
+                    @Override
+                    public Alias next() {
+                        Alias alias = new Alias();
+                        alias.name = "alias" + i++;
+                        return alias;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+        byte[] xml = write(aliases);
+        Object[] loaded = xmap.loadAll(new ByteArrayInputStream(xml));
+        assertEquals(count, loaded.length);
+        assertEquals("alias0", ((Alias) loaded[0]).name);
+        assertEquals("alias1999", ((Alias) loaded[count - 1]).name);
+
+        // mixed classes
+        xml = write(Arrays.asList(author, loaded[0], author));
+        loaded = xmap.loadAll(new ByteArrayInputStream(xml));
+        assertEquals(3, loaded.length);
+        assertTrue(loaded[1] instanceof Alias);
+        assertEquals("test1", ((Author) loaded[2]).getId());
+    }
+
+    @Test
+    public void testMapKeyOutsideValueElement() throws Exception {
+        XMap other = new XMap();
+        other.register(Holder.class);
+        String xml = "<holder><dm><e><name>n1</name></e>"
+                + "<e><name>n2</name></e></dm></holder>";
+        Holder holder = (Holder) other.load(new ByteArrayInputStream(
+                xml.getBytes("UTF-8")));
+        assertEquals(2, holder.values.size());
+        assertEquals("n1", holder.values.get("n1").name);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        other.toXML(Collections.singleton(holder), "root", out);
+        Document dom = parse(other.toXML(holder).getBytes("UTF-8"));
+        Document stream = parse(out.toByteArray());
+        assertEquals(describe(dom.getDocumentElement()),
+                describe(stream.getDocumentElement()));
+
+        Holder copy = (Holder) other.loadAll(new ByteArrayInputStream(
+                out.toByteArray()))[0];
+        assertEquals(2, copy.values.size());
+        assertEquals("n1", copy.values.get("n1").name);
+        assertEquals("n2", copy.values.get("n2").name);
+    }
+
+}
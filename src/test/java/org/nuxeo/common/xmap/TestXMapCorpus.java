@@ -0,0 +1,80 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+import org.nuxeo.common.xmap.XMapCorpus.Component;
+import org.nuxeo.common.xmap.XMapCorpus.DocumentedComponent;
+
+/**
+ * Checks that the benchmark corpus maps as expected, so that the benchmarks
+ * measure what they claim to.
+ */
+public class TestXMapCorpus {
+
+    protected int count(Component c) {
+        int n = 1;
+        for (Component child : c.children) {
+            n += count(child);
+        }
+        return n;
+    }
+
+    @Test
+    public void testCorpus() throws Exception {
+        XMapCorpus corpus = new XMapCorpus(3, 5, 7);
+        XMap xmap = new XMap();
+        xmap.register(Component.class);
+        Component c = (Component) xmap.load(new ByteArrayInputStream(
+                corpus.generate()));
+        assertEquals("c", c.name);
+        assertEquals(1, c.order);
+        assertEquals("Component c", c.label);
+        assertTrue(c.enabled);
+        assertEquals(5, c.properties.size());
+        assertEquals("value 4", c.properties.get("p4"));
+        assertEquals(7, c.items.size());
+        assertEquals("item6", c.items.get(6));
+        assertTrue(c.documentation.contains("<code>p4</code>"));
+        assertEquals(7, corpus.getComponentCount());
+        assertEquals(7, count(c));
+        assertEquals("c.1.0", c.children.get(1).children.get(0).name);
+
+        Object[] all = xmap.loadAll(new ByteArrayInputStream(
+                corpus.generate(4)));
+        assertEquals(4, all.length);
+        assertEquals("c3", ((Component) all[3]).name);
+    }
+
+    @Test
+    public void testContentCapture() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(DocumentedComponent.class);
+        DocumentedComponent c = (DocumentedComponent) xmap.load(new ByteArrayInputStream(
+                new XMapCorpus(1, 2, 0).generate()));
+        assertTrue(c.documentation, c.documentation.contains("&amp; notes"));
+    }
+
+}
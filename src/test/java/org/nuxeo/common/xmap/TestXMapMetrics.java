@@ -0,0 +1,155 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.nuxeo.common.xmap.XMapMetrics.Stats;
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+public class TestXMapMetrics {
+
+    @XObject("service")
+    public static class Service {
+
+        @XNode("@class")
+        Class<?> klass;
+
+        @XNodeList(value = "listener", type = Listener[].class, componentType = Listener.class)
+        Listener[] listeners;
+
+    }
+
+    @XObject("listener")
+    public static class Listener {
+
+        @XNode("@class")
+        Class<?> klass;
+
+        @XNode("@priority")
+        int priority;
+
+    }
+
+    static final String XML = "<component>"
+            + "<service class=\"java.lang.String\">"
+            + "<listener class=\"java.lang.Integer\" priority=\"1\"/>"
+            + "<listener class=\"java.lang.Long\" priority=\"2\"/>"
+            + "</service><service class=\"java.lang.Object\"/></component>";
+
+    protected void checkLoad(boolean streaming) throws Exception {
+        XMap xmap = new XMap();
+        xmap.setStreaming(streaming);
+        xmap.register(Service.class);
+        XMapMetrics metrics = new XMapMetrics();
+        xmap.setMetrics(metrics);
+
+        File file = File.createTempFile("xmap-", ".xml");
+        try {
+            FileUtils.writeStringToFile(file, XML, "UTF-8");
+            URL url = file.toURI().toURL();
+            assertEquals(2, xmap.loadAll(url).length);
+
+            Map<String, Stats> sources = metrics.getSourceStats();
+            assertEquals(1, sources.size());
+            Stats source = sources.get(url.toString());
+            assertEquals(4, source.getInstanceCount());
+            assertEquals(4, source.getLoadClassCount());
+            assertTrue(source.getParseTime() > 0);
+            assertTrue(source.getMappingTime() > 0);
+            assertTrue(source.getFactoryTime() > 0);
+        } finally {
+            file.delete();
+        }
+
+        // streams only contribute to the class metrics
+        xmap.loadAll(new ByteArrayInputStream(XML.getBytes()));
+        assertEquals(1, metrics.getSourceStats().size());
+        Map<String, Stats> classes = metrics.getClassStats();
+        Stats service = classes.get(Service.class.getName());
+        assertEquals(4, service.getInstanceCount());
+        assertEquals(4, service.getLoadClassCount());
+        Stats listener = classes.get(Listener.class.getName());
+        assertEquals(4, listener.getInstanceCount());
+        assertEquals(4, listener.getLoadClassCount());
+        // nested objects are part of the mapping of their owner
+        assertTrue(service.getMappingTime() >= listener.getMappingTime());
+        assertEquals(0, service.getParseTime());
+
+        metrics.reset();
+        assertTrue(metrics.getClassStats().isEmpty());
+        xmap.setMetrics(null);
+        xmap.loadAll(new ByteArrayInputStream(XML.getBytes()));
+        assertTrue(metrics.getClassStats().isEmpty());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        checkLoad(false);
+    }
+
+    @Test
+    public void testStreamingMetrics() throws Exception {
+        checkLoad(true);
+    }
+
+    @Test
+    public void testJMX() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(Service.class);
+        XMapMetrics metrics = new XMapMetrics();
+        xmap.setMetrics(metrics);
+        xmap.loadAll(new ByteArrayInputStream(XML.getBytes()));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.nuxeo:type=XMapMetrics,name=test");
+        server.registerMBean(metrics, name);
+        try {
+            TabularData classes = (TabularData) server.getAttribute(name,
+                    "ClassStats");
+            CompositeData row = classes.get(new Object[] { Listener.class.getName() });
+            assertNotNull(row);
+            CompositeData stats = (CompositeData) row.get("value");
+            assertEquals(Long.valueOf(2), stats.get("instanceCount"));
+            server.invoke(name, "reset", null, null);
+            assertTrue(metrics.getClassStats().isEmpty());
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.common.xmap.XMapReloader.Event;
+import org.nuxeo.common.xmap.XMapReloader.EventType;
+
+public class TestXMapReloader {
+
+    protected Path dir;
+
+    protected XMap xmap;
+
+    protected List<Event> events = new ArrayList<Event>();
+
+    protected XMapReloader.Listener listener = new XMapReloader.Listener() {
+        @Override
+        public void handleEvent(Event event) {
+            events.add(event);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("xmap-reload");
+        xmap = new XMap();
+        xmap.register(Author.Alias.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    protected static void write(Path file, String... names) throws Exception {
+        StringBuilder buf = new StringBuilder("<component>");
+        for (String name : names) {
+            buf.append("<alias name=\"").append(name).append("\"/>");
+        }
+        buf.append("</component>");
+        Files.write(file, buf.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected static String name(Object alias) {
+        return ((Author.Alias) alias).name;
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        Path f1 = dir.resolve("f1.xml");
+        Path f2 = dir.resolve("f2.xml");
+        write(f1, "a", "b", "c");
+        write(f2, "x");
+        try (XMapReloader reloader = new XMapReloader(xmap, null, listener)) {
+            reloader.watch(f1);
+            reloader.watch(f2);
+            assertEquals(4, events.size());
+            assertEquals(EventType.ADDED, events.get(0).getType());
+            List<Object> before = reloader.getObjects(f1);
+            events.clear();
+
+            // unchanged content
+            write(f1, "a", "b", "c");
+            assertEquals(0, reloader.reload(f1));
+
+            // change and remove, unchanged objects are kept
+            write(f1, "a", "b2");
+            assertEquals(2, reloader.reload(f1));
+            List<Object> after = reloader.getObjects(f1);
+            assertSame(before.get(0), after.get(0));
+            assertEquals(EventType.CHANGED, events.get(0).getType());
+            assertEquals("b", name(events.get(0).getOldObject()));
+            assertEquals("b2", name(events.get(0).getNewObject()));
+            assertEquals(EventType.REMOVED, events.get(1).getType());
+            assertEquals("c", name(events.get(1).getOldObject()));
+            assertNull(events.get(1).getNewObject());
+            events.clear();
+
+            // insert before unchanged objects
+            write(f1, "new", "a", "b2");
+            assertEquals(1, reloader.reload(f1));
+            assertEquals(EventType.ADDED, events.get(0).getType());
+            assertEquals("new", name(events.get(0).getNewObject()));
+            assertSame(after.get(1), reloader.getObjects(f1).get(2));
+            events.clear();
+
+            // notified changes, only the changed file is processed
+            write(f2, "x", "y");
+            int count = 0;
+            for (int i = 0; i < 50 && count == 0; i++) {
+                count = reloader.poll(200, TimeUnit.MILLISECONDS);
+            }
+            assertEquals(1, count);
+            assertEquals(1, events.size());
+            assertEquals(EventType.ADDED, events.get(0).getType());
+            assertEquals(f2.toAbsolutePath(), events.get(0).getFile());
+            events.clear();
+
+            Files.delete(f2);
+            assertEquals(2, reloader.reload(f2));
+            assertEquals(EventType.REMOVED, events.get(0).getType());
+            assertTrue(reloader.getObjects(f2).isEmpty());
+        }
+    }
+
+    @Test
+    public void testKeyFunction() throws Exception {
+        Path f = dir.resolve("f.xml");
+        write(f, "a", "b");
+        XMapReloader.KeyFunction key = new XMapReloader.KeyFunction() {
+            @Override
+            public Object getKey(Object object) {
+                return name(object).substring(0, 1);
+            }
+        };
+        try (XMapReloader reloader = new XMapReloader(xmap, key, listener)) {
+            reloader.watch(f);
+            events.clear();
+            write(f, "b2", "a");
+            assertEquals(1, reloader.reload(f));
+            assertEquals(EventType.CHANGED, events.get(0).getType());
+            assertEquals("b", name(events.get(0).getOldObject()));
+            assertEquals("b2", name(events.get(0).getNewObject()));
+
+            reloader.unwatch(f);
+            assertEquals(3, events.size());
+            assertEquals(EventType.REMOVED, events.get(2).getType());
+            assertEquals(0, reloader.reload(f));
+        }
+    }
+
+    @Test
+    public void testBackgroundReload() throws Exception {
+        File file = dir.resolve("f.xml").toFile();
+        write(file.toPath(), "a");
+        final List<Event> received = new ArrayList<Event>();
+        XMapReloader.Listener l = new XMapReloader.Listener() {
+            @Override
+            public void handleEvent(Event event) {
+                synchronized (received) {
+                    received.add(event);
+                    received.notifyAll();
+                }
+            }
+        };
+        try (XMapReloader reloader = new XMapReloader(xmap, null, l)) {
+            reloader.watch(file.toPath());
+            reloader.start();
+            write(file.toPath(), "b");
+            synchronized (received) {
+                long end = System.currentTimeMillis() + 10000;
+                while (received.size() < 2 && System.currentTimeMillis() < end) {
+                    received.wait(100);
+                }
+                assertEquals(2, received.size());
+                assertEquals(EventType.CHANGED, received.get(1).getType());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import org.junit.Test;
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+public class TestXValuePool {
+
+    @XObject("permission")
+    public static class Permission {
+
+        @XNode("@name")
+        String name;
+
+        @XNode("@order")
+        Integer order;
+
+        @XNodeList(value = "include", type = String[].class, componentType = String.class)
+        String[] includes;
+
+    }
+
+    @Test
+    public void testIntern() {
+        XValuePool pool = new XValuePool(2);
+        String a = new String("a");
+        assertSame(a, pool.intern(a));
+        assertSame(a, pool.intern(new String("a")));
+        Integer big = Integer.valueOf(1000);
+        assertSame(big, pool.intern(big));
+        assertSame(big, pool.intern(Integer.valueOf(1000)));
+        assertEquals(2, pool.getSize());
+
+        // full pool
+        String b = new String("b");
+        assertSame(b, pool.intern(b));
+        assertNotSame(b, pool.intern(new String("b")));
+        assertEquals(2, pool.getSize());
+        assertEquals(2, pool.getHitCount());
+        assertEquals(4, pool.getMissCount());
+        assertEquals(1d / 3, pool.getHitRate(), 1e-9);
+
+        // not pooled
+        Object ob = new Object();
+        assertSame(ob, pool.intern(ob));
+        assertEquals(4, pool.getMissCount());
+
+        pool.clear();
+        assertEquals(0, pool.getSize());
+        assertEquals(0, pool.getHitRate(), 0);
+    }
+
+    protected void checkLoad(boolean streaming) throws Exception {
+        XMap xmap = new XMap();
+        xmap.setStreaming(streaming);
+        xmap.register(Permission.class);
+        XValuePool pool = new XValuePool(100);
+        xmap.setValuePool(pool);
+        String xml = "<permissions>"
+                + "<permission name=\"Read\" order=\"1000\">"
+                + "<include>Browse</include></permission>"
+                + "<permission name=\"Read\" order=\"1000\">"
+                + "<include>Browse</include><include>Read</include>"
+                + "</permission></permissions>";
+        Object[] obs = xmap.loadAll(new ByteArrayInputStream(xml.getBytes()));
+        Permission p1 = (Permission) obs[0];
+        Permission p2 = (Permission) obs[1];
+        assertEquals("Read", p1.name);
+        assertSame(p1.name, p2.name);
+        assertSame(p1.order, p2.order);
+        assertSame(p1.includes[0], p2.includes[0]);
+        assertSame(p1.name, p2.includes[1]);
+        assertEquals(3, pool.getSize());
+
+        xmap.setValuePool(null);
+        obs = xmap.loadAll(new ByteArrayInputStream(xml.getBytes()));
+        assertNotSame(((Permission) obs[0]).name, ((Permission) obs[1]).name);
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        checkLoad(false);
+    }
+
+    @Test
+    public void testStreamingLoad() throws Exception {
+        checkLoad(true);
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of binding one loaded object (instantiation plus member
+ * writes and reads) through method handles versus plain reflection.
+ * <p>
+ * Run with:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:... org.openjdk.jmh.Main XAccessorBenchmark
+ * </pre>
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XAccessorBenchmark {
+
+    @XObject("descriptor")
+    public static class Descriptor {
+
+        String name;
+
+        String label;
+
+        Integer order;
+
+        boolean enabled;
+
+        Class<?> klass;
+
+        String category;
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+    }
+
+    @Param({ "true", "false" })
+    public boolean handles;
+
+    XAnnotatedObject xao;
+
+    XAccessor[] fields;
+
+    XAccessor setter;
+
+    Object[] values;
+
+    @Setup
+    public void setup() throws Exception {
+        XMap xmap = new XMap();
+        xao = new XAnnotatedObject(xmap, Descriptor.class,
+                Descriptor.class.getAnnotation(XObject.class));
+        String[] names = { "label", "order", "enabled", "klass", "category" };
+        fields = new XAccessor[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Field field = Descriptor.class.getDeclaredField(names[i]);
+            fields[i] = new XFieldAccessor(field, handles);
+        }
+        Method method = Descriptor.class.getMethod("setName", String.class);
+        setter = new XMethodAccessor(method, Descriptor.class, handles);
+        values = new Object[] { "my label", Integer.valueOf(10), Boolean.TRUE,
+                String.class, "category" };
+    }
+
+    @Benchmark
+    public Object bindObject() {
+        Object ob = handles ? xao.newObject() : newObjectReflectively();
+        for (int i = 0; i < fields.length; i++) {
+            fields[i].setValue(ob, values[i]);
+        }
+        setter.setValue(ob, "name");
+        return ob;
+    }
+
+    @Benchmark
+    public int readObject() {
+        Object ob = xao.newObject();
+        int h = 0;
+        for (XAccessor field : fields) {
+            Object v = field.getValue(ob);
+            h += v == null ? 0 : 1;
+        }
+        return h;
+    }
+
+    protected Object newObjectReflectively() {
+        try {
+            return xao.ctor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.common.xmap.annotation.XContent;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to map a descriptor embedding a large HTML block, with
+ * the content serialized from the DOM or captured raw from the source.
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XContentBenchmark {
+
+    @XObject("page")
+    public static class Page {
+
+        @XContent("body")
+        String body;
+
+    }
+
+    @XObject("page")
+    public static class RawPage {
+
+        @XContent(value = "body", raw = true)
+        String body;
+
+    }
+
+    @Param({ "dom", "streaming", "raw" })
+    public String mode;
+
+    XMap xmap;
+
+    byte[] content;
+
+    @Setup
+    public void setup() throws Exception {
+        xmap = new XMap();
+        if ("raw".equals(mode)) {
+            xmap.register(RawPage.class);
+        } else {
+            xmap.register(Page.class);
+            xmap.setStreaming("streaming".equals(mode));
+        }
+        StringBuilder buf = new StringBuilder("<page><body>");
+        for (int i = 0; i < 500; i++) {
+            buf.append("<div class=\"row\"><p>Paragraph ").append(i).append(
+                    " with <b>bold</b> &amp; <a href=\"#").append(i).append(
+                    "\">link</a></p></div>\n");
+        }
+        buf.append("</body></page>");
+        content = buf.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public Object load() throws Exception {
+        return xmap.load(new ByteArrayInputStream(content));
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xml.serialize.OutputFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Measures the time to export many descriptors into one document through
+ * the DOM reverse mapping and through the streaming one.
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XMLStreamBuilderBenchmark {
+
+    @Param({ "1000" })
+    public int count;
+
+    XMap xmap;
+
+    XAnnotatedObject xao;
+
+    List<Object> objects;
+
+    @Setup
+    public void setup() throws Exception {
+        xmap = new XMap();
+        xao = xmap.register(Author.class);
+        Author author = (Author) xmap.load(XMLStreamBuilderBenchmark.class.getClassLoader().getResource(
+                "test-xmap.xml"));
+        objects = new ArrayList<Object>(count);
+        for (int i = 0; i < count; i++) {
+            objects.add(author);
+        }
+    }
+
+    @Benchmark
+    public int dom() throws Exception {
+        Document doc = XMap.getBuilderPool().newDocument();
+        Element root = doc.createElement("root");
+        doc.appendChild(root);
+        for (Object object : objects) {
+            XMLBuilder.toXML(object, root, xao);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DOMSerializer.write(root, new OutputFormat(), out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int stream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        xmap.toXML(objects, "root", out);
+        return out.size();
+    }
+
+}
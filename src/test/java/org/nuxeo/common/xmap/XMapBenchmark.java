@@ -0,0 +1,129 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.common.xmap.XMapCorpus.Component;
+import org.nuxeo.common.xmap.XMapCorpus.DocumentedComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Baseline of the XMap hot paths over a synthetic corpus (see
+ * {@link XMapCorpus}): registration, loading of one or many contributions,
+ * reverse mapping and content capture.
+ * <p>
+ * Run with the GC profiler to get the allocation rate:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:... org.openjdk.jmh.Main XMapBenchmark -prof gc
+ * </pre>
+ *
+ * and compare the ops/s and {@code gc.alloc.rate.norm} of a change against
+ * its parent commit.
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XMapBenchmark {
+
+    // number of contributions loaded by loadAll
+    static final int COUNT = 10;
+
+    @Param({ "1", "3" })
+    public int depth;
+
+    @Param({ "4", "16" })
+    public int members;
+
+    @Param({ "4", "32" })
+    public int listSize;
+
+    XMap xmap;
+
+    XMap contentXMap;
+
+    XAnnotatedObject xao;
+
+    byte[] content;
+
+    byte[] contents;
+
+    Object object;
+
+    @Setup
+    public void setup() throws Exception {
+        XMapCorpus corpus = new XMapCorpus(depth, members, listSize);
+        content = corpus.generate();
+        contents = corpus.generate(COUNT);
+        xmap = new XMap();
+        xao = xmap.register(Component.class);
+        contentXMap = new XMap();
+        contentXMap.register(DocumentedComponent.class);
+        object = xmap.load(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public Object register() {
+        return new XMap().register(Component.class);
+    }
+
+    @Benchmark
+    public Object load() throws Exception {
+        return xmap.load(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public Object[] loadAll() throws Exception {
+        return xmap.loadAll(new ByteArrayInputStream(contents));
+    }
+
+    @Benchmark
+    public String saveToXML() throws Exception {
+        Document doc = XMap.getBuilderPool().newDocument();
+        Element root = doc.createElement("root");
+        doc.appendChild(root);
+        return XMLBuilder.saveToXML(object, root, xao);
+    }
+
+    @Benchmark
+    public Object captureContent() throws Exception {
+        return contentXMap.load(new ByteArrayInputStream(content));
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.common.xmap.annotation.XContent;
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XNodeMap;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Generates synthetic contributions for the XMap benchmarks.
+ * <p>
+ * Each component has a fixed set of simple members, {@code members}
+ * properties, {@code listSize} items, a documentation block and two child
+ * components, down to the given {@code depth}.
+ *
+ * @since 7.1
+ */
+public class XMapCorpus {
+
+    @XObject("component")
+    public static class Component {
+
+        @XNode("@name")
+        String name;
+
+        @XNode("@order")
+        int order;
+
+        @XNode("label")
+        String label;
+
+        @XNode("enabled")
+        boolean enabled;
+
+        @XNodeMap(value = "properties/property", key = "@name", type = HashMap.class, componentType = String.class)
+        Map<String, String> properties;
+
+        @XNodeList(value = "items/item", type = ArrayList.class, componentType = String.class)
+        List<String> items;
+
+        @XNodeList(value = "component", type = ArrayList.class, componentType = Component.class)
+        List<Component> children;
+
+        @XContent("documentation")
+        String documentation;
+
+    }
+
+    /**
+     * The same contributions, only capturing the documentation.
+     */
+    @XObject("component")
+    public static class DocumentedComponent {
+
+        @XNode("@name")
+        String name;
+
+        @XContent("documentation")
+        String documentation;
+
+    }
+
+    static final int CHILDREN = 2;
+
+    final int depth;
+
+    final int members;
+
+    final int listSize;
+
+    public XMapCorpus(int depth, int members, int listSize) {
+        this.depth = depth;
+        this.members = members;
+        this.listSize = listSize;
+    }
+
+    /**
+     * Gets the number of components in a generated tree.
+     */
+    public int getComponentCount() {
+        int count = 0;
+        for (int level = 0, n = 1; level < depth; level++, n *= CHILDREN) {
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * Generates a document holding one tree of components.
+     */
+    public byte[] generate() {
+        StringBuilder buf = new StringBuilder();
+        appendComponent(buf, "c", 1);
+        return buf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Generates a document holding the given number of trees of components,
+     * as a component registry would contribute them.
+     */
+    public byte[] generate(int count) {
+        StringBuilder buf = new StringBuilder("<?xml version=\"1.0\"?>\n");
+        buf.append("<contributions>\n");
+        for (int i = 0; i < count; i++) {
+            buf.append("<extension point=\"components\">\n");
+            appendComponent(buf, "c" + i, 1);
+            buf.append("</extension>\n");
+        }
+        buf.append("</contributions>\n");
+        return buf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected void appendComponent(StringBuilder buf, String name, int level) {
+        buf.append("<component name=\"").append(name).append("\" order=\"").append(
+                level).append("\">\n");
+        buf.append("  <label>Component ").append(name).append("</label>\n");
+        buf.append("  <enabled>true</enabled>\n");
+        buf.append("  <properties>\n");
+        for (int i = 0; i < members; i++) {
+            buf.append("    <property name=\"p").append(i).append("\">value ").append(
+                    i).append("</property>\n");
+        }
+        buf.append("  </properties>\n");
+        buf.append("  <items>\n");
+        for (int i = 0; i < listSize; i++) {
+            buf.append("    <item>item").append(i).append("</item>\n");
+        }
+        buf.append("  </items>\n");
+        buf.append("  <documentation>\n");
+        for (int i = 0; i < members; i++) {
+            buf.append("    <p>Sets <code>p").append(i).append(
+                    "</code>, see <a href=\"#p").append(i).append(
+                    "\">details</a> &amp; notes.</p>\n");
+        }
+        buf.append("  </documentation>\n");
+        if (level < depth) {
+            for (int i = 0; i < CHILDREN; i++) {
+                appendComponent(buf, name + "." + i, level + 1);
+            }
+        }
+        buf.append("</component>\n");
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.common.xmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the startup cost of a file holding many contributions when all of
+ * them are loaded versus indexed, only some of them being used later on.
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XMapIndexBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean streaming;
+
+    XMap xmap;
+
+    byte[] content;
+
+    @Setup
+    public void setup() throws Exception {
+        xmap = new XMap();
+        xmap.setStreaming(streaming);
+        xmap.register(Author.class);
+        InputStream in = XMapIndexBenchmark.class.getClassLoader().getResourceAsStream(
+                "test-xmap.xml");
+        String author;
+        try {
+            author = IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+        author = author.substring(author.indexOf("<author"),
+                author.indexOf("</document>"));
+        StringBuilder buf = new StringBuilder("<component>");
+        for (int i = 0; i < 100; i++) {
+            buf.append("<extension>").append(author).append("</extension>");
+        }
+        buf.append("</component>");
+        content = buf.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public Object loadAll() throws Exception {
+        return xmap.loadAll(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public Object index() throws Exception {
+        return xmap.index(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public Object indexAndUseTenth() throws Exception {
+        List<RootHandle> handles = xmap.index(new ByteArrayInputStream(
+                content));
+        for (int i = 0; i < handles.size(); i += 10) {
+            handles.get(i).getObject();
+        }
+        return handles;
+    }
+
+}
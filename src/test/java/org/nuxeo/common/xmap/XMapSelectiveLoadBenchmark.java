@@ -0,0 +1,102 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to get one contribution out of a file holding many
+ * others, loading all of them or only the wanted one.
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XMapSelectiveLoadBenchmark {
+
+    static final Set<String> ALIAS = Collections.singleton("alias");
+
+    XMap xmap;
+
+    byte[] content;
+
+    @Setup
+    public void setup() throws Exception {
+        xmap = new XMap();
+        xmap.register(Author.class);
+        xmap.register(Author.Alias.class);
+        InputStream in = XMapSelectiveLoadBenchmark.class.getClassLoader().getResourceAsStream(
+                "test-xmap.xml");
+        String author;
+        try {
+            author = IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+        author = author.substring(author.indexOf("<author"),
+                author.indexOf("</document>"));
+        StringBuilder buf = new StringBuilder("<component>");
+        for (int i = 0; i < 100; i++) {
+            buf.append("<extension>").append(author).append("</extension>");
+        }
+        buf.append("<extension><alias name=\"wanted\"/></extension>");
+        buf.append("</component>");
+        content = buf.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public Object loadAll() throws Exception {
+        return xmap.loadAll(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public Object loadAllByName() throws Exception {
+        return xmap.loadAll(new Context(), new ByteArrayInputStream(content),
+                ALIAS);
+    }
+
+    @Benchmark
+    public Object loadFirst() throws Exception {
+        return xmap.loadFirst(new Context(), new ByteArrayInputStream(
+                content), ALIAS);
+    }
+
+}
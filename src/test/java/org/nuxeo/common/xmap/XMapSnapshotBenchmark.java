@@ -0,0 +1,86 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to map a descriptor from its XML source: DOM mapping,
+ * streaming mapping and mapping from a stored snapshot.
+ *
+ * @since 7.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XMapSnapshotBenchmark {
+
+    @Param({ "dom", "streaming", "snapshot" })
+    public String mode;
+
+    XMap xmap;
+
+    byte[] content;
+
+    @Setup
+    public void setup() throws Exception {
+        xmap = new XMap();
+        xmap.register(Author.class);
+        if ("streaming".equals(mode)) {
+            xmap.setStreaming(true);
+        } else if ("snapshot".equals(mode)) {
+            xmap.setSnapshotStore(new TestSnapshotStore.MemoryStore());
+        }
+        InputStream in = XMapSnapshotBenchmark.class.getClassLoader().getResourceAsStream(
+                "test-xmap.xml");
+        try {
+            content = IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+        // take the snapshot
+        load();
+    }
+
+    @Benchmark
+    public Object load() throws Exception {
+        return xmap.load(new ByteArrayInputStream(content));
+    }
+
+}
@@ -24,18 +24,61 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
 
 import org.junit.Test;
 import org.nuxeo.common.xmap.Author.Gender;
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XObject;
+import org.nuxeo.common.xmap.annotation.XParent;
 
 /**
  * @author <a href="mailto:bs@nuxeo.com">Bogdan Stefanescu</a>
  */
 public class XMapTest {
 
+    @XObject("r")
+    public static class Owner {
+
+        @XNode("c")
+        Child first;
+
+        @XNodeList(value = "c", type = ArrayList.class, componentType = Child.class)
+        List<Child> all;
+
+    }
+
+    @XObject("c")
+    public static class Child {
+
+        @XNode("@id")
+        String id;
+
+        @XParent
+        Object parent;
+
+    }
+
     @Test
     public void testMapping() throws Exception {
         XMap xmap = new XMap();
@@ -60,6 +103,258 @@ public class XMapTest {
         assertEquals("test1", inheritedAuthor.inheritedId);
     }
 
+    @Test
+    public void testStreamingMapping() throws Exception {
+        XMap xmap = new XMap();
+        xmap.setStreaming(true);
+        xmap.register(Author.class);
+
+        URL url = Thread.currentThread().getContextClassLoader().getResource(
+                "test-xmap.xml");
+
+        Author author = (Author) xmap.load(url);
+        checkAuthor(author);
+        assertEquals("name", author.name.myself.getNodeName());
+        assertEquals("author", author.name.myself.getAttribute("type"));
+        assertEquals(2, author.persons.size());
+        assertEquals("friend2_ln", author.persons.get("friend2_fn").lastName);
+        assertEquals(2, author.doubleArray.length);
+        assertEquals(2.5, author.doubleArray2[1], 0);
+
+        Object[] all = xmap.loadAll(url);
+        assertEquals(1, all.length);
+        checkAuthor((Author) all[0]);
+    }
+
+    @Test
+    public void testStreamingInheritedMapping() throws Exception {
+        XMap xmap = new XMap();
+        xmap.setStreaming(true);
+        xmap.register(InheritedAuthor.class);
+
+        URL url = Thread.currentThread().getContextClassLoader().getResource(
+                "second-test-xmap.xml");
+        InheritedAuthor inheritedAuthor = (InheritedAuthor) xmap.load(url);
+        checkAuthor(inheritedAuthor);
+        assertEquals("dummyContent", inheritedAuthor.notInherited);
+        assertEquals("test1", inheritedAuthor.inheritedId);
+    }
+
+    @Test
+    public void testParallelLoadAll() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(Author.class);
+
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        URL good = cl.getResource("test-xmap.xml");
+        URL missing = new URL(good, "no-such-file.xml");
+        List<URL> urls = new ArrayList<URL>();
+        for (int i = 0; i < 20; i++) {
+            urls.add(i == 7 ? missing : good);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<LoadResult> results = xmap.loadAll(urls, executor);
+            assertEquals(urls.size(), results.size());
+            for (int i = 0; i < results.size(); i++) {
+                LoadResult result = results.get(i);
+                assertEquals(urls.get(i), result.getURL());
+                if (i == 7) {
+                    assertFalse(result.isSuccess());
+                    assertNull(result.getObjects());
+                    assertTrue(result.getError() instanceof IOException);
+                } else {
+                    assertTrue(result.toString(), result.isSuccess());
+                    assertEquals(1, result.getObjects().length);
+                    checkAuthor((Author) result.getObjects()[0]);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentFirstLoads() throws Exception {
+        final XMap xmap = new XMap();
+        XAnnotatedObject xao = xmap.register(Author.class);
+        // registration froze the members in order
+        XAnnotatedMember[] members = xao.getSortedMembers();
+        assertEquals("item1", members[0].path.path);
+        assertEquals("item2", members[1].path.path);
+
+        final URL url = Thread.currentThread().getContextClassLoader().getResource(
+                "test-xmap.xml");
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        start.await();
+                        return xmap.load(url);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Object> future : futures) {
+                checkAuthor((Author) future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertSame(members, xao.getSortedMembers());
+    }
+
+    @Test
+    public void testLoadByRootNames() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(Author.class);
+        xmap.register(Author.Alias.class);
+        String xml = "<components><extension><alias name=\"a1\"/>"
+                + "<author id=\"x\"><alias name=\"inner\"/></author>"
+                + "</extension><alias name=\"a2\"/></components>";
+
+        Object[] all = xmap.loadAll(new ByteArrayInputStream(xml.getBytes()));
+        assertEquals(3, all.length);
+
+        Object[] aliases = xmap.loadAll(new Context(),
+                new ByteArrayInputStream(xml.getBytes()),
+                Collections.singleton("alias"));
+        assertEquals(2, aliases.length);
+        assertSame(all[0].getClass(), aliases[0].getClass());
+        assertEquals("a1", ((Author.Alias) aliases[0]).name);
+        // elements of other roots are skipped as in loadAll
+        assertEquals("a2", ((Author.Alias) aliases[1]).name);
+
+        Object[] authors = xmap.loadAll(new Context(),
+                new ByteArrayInputStream(xml.getBytes()),
+                new HashSet<String>(Arrays.asList("author", "unknown")));
+        assertEquals(1, authors.length);
+        assertEquals("x", ((Author) authors[0]).getId());
+        assertEquals(0, xmap.loadAll(new Context(),
+                new ByteArrayInputStream(xml.getBytes()),
+                Collections.singleton("unknown")).length);
+
+        // the parsing stops once the first object is found
+        String truncated = "<components><alias name=\"a1\"/><broken";
+        Object first = xmap.loadFirst(new Context(),
+                new ByteArrayInputStream(truncated.getBytes()),
+                Collections.singleton("alias"));
+        assertEquals("a1", ((Author.Alias) first).name);
+        assertNull(xmap.loadFirst(new Context(), new ByteArrayInputStream(
+                xml.getBytes()), Collections.singleton("unknown")));
+        try {
+            xmap.loadAll(new Context(), new ByteArrayInputStream(
+                    truncated.getBytes()), Collections.singleton("alias"));
+            fail("truncated document");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(Author.class);
+        URL url = Thread.currentThread().getContextClassLoader().getResource(
+                "test-xmap.xml");
+
+        List<RootHandle> handles = xmap.index(url);
+        assertEquals(1, handles.size());
+        RootHandle handle = handles.get(0);
+        assertEquals("author", handle.getName());
+        assertSame(Author.class, handle.getObjectClass());
+        assertTrue(handle.getStart() > 0);
+        assertFalse(handle.isLoaded());
+        Author author = (Author) handle.getObject();
+        checkAuthor(author);
+        assertTrue(handle.isLoaded());
+        assertSame(author, handle.getObject());
+
+        xmap.setStreaming(true);
+        checkAuthor((Author) xmap.index(url).get(0).getObject());
+    }
+
+    @Test
+    public void testIndexReadsURLAgain() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(Author.Alias.class);
+        File file = File.createTempFile("xmap-index-", ".xml");
+        try {
+            FileUtils.writeStringToFile(file, "<components><alias name=\"a1\"/>"
+                    + "<alias name=\"a2\"/></components>", "UTF-8");
+            List<RootHandle> handles = xmap.index(file.toURI().toURL());
+            assertEquals(2, handles.size());
+            assertEquals("<alias name=\"a2\"/>", handles.get(1).getSource());
+            assertEquals("a2", ((Author.Alias) handles.get(1).getObject()).name);
+
+            // the handles do not keep the text, the file is read again
+            FileUtils.writeStringToFile(file, "<other/>", "UTF-8");
+            try {
+                handles.get(0).getObject();
+                fail("source changed");
+            } catch (IOException e) {
+                // expected
+            }
+            assertFalse(handles.get(0).isLoaded());
+
+            // an element of the same name now at the same offset
+            FileUtils.writeStringToFile(file, "<components><alias name=\"a0\"/>"
+                    + "<alias name=\"a1\"/><alias name=\"a2\"/></components>",
+                    "UTF-8");
+            try {
+                handles.get(0).getObject();
+                fail("source changed");
+            } catch (IOException e) {
+                // expected
+            }
+            assertFalse(handles.get(0).isLoaded());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testIndexSpans() throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(Author.class);
+        xmap.register(Author.Alias.class);
+        String xml = "<components xmlns:x=\"urn:x\"><extension>"
+                + "<alias name=\"a1\"/><!-- <alias name=\"no\"> -->"
+                + "<author id=\"x\"><alias name=\"inner\"/>"
+                + "<x:any a=\"&lt;alias>\"/></author>"
+                + "</extension><alias name=\"a2\"></alias></components>";
+
+        List<RootHandle> handles = xmap.index(new ByteArrayInputStream(
+                xml.getBytes()));
+        assertEquals(3, handles.size());
+        String[] spans = { "<alias name=\"a1\"/>",
+                "<author id=\"x\"><alias name=\"inner\"/>"
+                        + "<x:any a=\"&lt;alias>\"/></author>",
+                "<alias name=\"a2\"></alias>" };
+        for (int i = 0; i < spans.length; i++) {
+            RootHandle handle = handles.get(i);
+            assertEquals(spans[i], xml.substring(handle.getStart(),
+                    handle.getEnd()));
+        }
+        assertEquals("a1", ((Author.Alias) handles.get(0).getObject()).name);
+        // the namespaces of the ancestors are kept
+        assertEquals("x", ((Author) handles.get(1).getObject()).getId());
+        assertEquals("a2", ((Author.Alias) handles.get(2).getObject()).name);
+
+        // documents with a DTD are mapped right away
+        String dtd = "<!DOCTYPE components [<!ENTITY n \"a3\">]>"
+                + "<components><alias name=\"&n;\"/></components>";
+        handles = xmap.index(new ByteArrayInputStream(dtd.getBytes()));
+        assertEquals(1, handles.size());
+        assertTrue(handles.get(0).isLoaded());
+        assertEquals(-1, handles.get(0).getStart());
+        assertEquals("a3", ((Author.Alias) handles.get(0).getObject()).name);
+    }
+
     protected void checkAuthor(Author author) {
         assertEquals("First test 22", author.title);
         assertEquals("bla bla", author.description);
@@ -119,4 +414,26 @@ public class XMapTest {
         assertEquals("test2", author.aliases[0].name);
         assertEquals("text to be < unescaped", author.aliases[0].description);
     }
+
+    @Test
+    public void testParentOfSiblingMembers() throws Exception {
+        // two members select the same elements, their objects are mapped
+        // at the same time in streaming mode
+        String xml = "<r><c id=\"1\"/><c id=\"2\"/></r>";
+        for (boolean streaming : new boolean[] { false, true }) {
+            XMap xmap = new XMap();
+            xmap.setStreaming(streaming);
+            xmap.register(Owner.class);
+            Owner owner = (Owner) xmap.load(new ByteArrayInputStream(
+                    xml.getBytes()));
+            assertEquals("1", owner.first.id);
+            assertSame(owner, owner.first.parent);
+            assertEquals(2, owner.all.size());
+            for (Child child : owner.all) {
+                assertSame(owner, child.parent);
+            }
+            assertEquals("2", owner.all.get(1).id);
+        }
+    }
+
 }
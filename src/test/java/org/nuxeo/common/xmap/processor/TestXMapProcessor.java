@@ -0,0 +1,186 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.common.xmap.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.common.xmap.XMap;
+import org.nuxeo.common.xmap.XMapBinder;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+public class TestXMapProcessor {
+
+    static final String BASE = "package p;\n" //
+            + "import org.nuxeo.common.xmap.annotation.*;\n" //
+            + "public class Base {\n" //
+            + "    @XNode(\"@id\")\n" //
+            + "    private String id;\n" //
+            + "    public String getId() { return id; }\n" //
+            + "}\n";
+
+    static final String DESCRIPTOR = "package p;\n" //
+            + "import java.util.List;\n" //
+            + "import org.nuxeo.common.xmap.annotation.*;\n" //
+            + "@XObject(value = \"descriptor\", order = { \"name\" })\n" //
+            + "public class Descriptor extends Base {\n" //
+            + "    @XNode(\"name\")\n" //
+            + "    public String name;\n" //
+            + "    @XNode(value = \"order\", trim = false)\n" //
+            + "    int order;\n" //
+            + "    @XNodeList(value = \"items/item\", type = String[].class, componentType = String.class)\n" //
+            + "    String[] items;\n" //
+            + "    @XNodeList(value = \"values/value\", type = java.util.ArrayList.class, componentType = Integer.class)\n" //
+            + "    List<Integer> values;\n" //
+            + "    String label;\n" //
+            + "    @XNode(\"label\")\n" //
+            + "    protected void setLabel(String label) { this.label = \"*\" + label; }\n" //
+            + "    public String getLabel() { return label; }\n" //
+            + "    String note;\n" //
+            + "    @XNode(\"note\")\n" //
+            + "    private void setNote(String note) { this.note = note; }\n" //
+            + "    @XObject(\"nested\")\n" //
+            + "    public static class Nested { @XNode(\"@v\") String v; }\n" //
+            + "    @XObject(\"inner\")\n" //
+            + "    public class Inner { }\n" //
+            + "}\n";
+
+    static final String XML = "<descriptor id=\"d1\"><name>foo</name>" //
+            + "<order>3</order><items><item>a</item><item>b</item></items>" //
+            + "<values><value>1</value><value>2</value></values>" //
+            + "<label>bar</label><note>baz</note></descriptor>";
+
+    File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("xmap-processor", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    protected ClassLoader compile(boolean processor) throws Exception {
+        File src = new File(dir, "src/p");
+        src.mkdirs();
+        File out = new File(dir, "classes");
+        out.mkdirs();
+        File base = new File(src, "Base.java");
+        File descriptor = new File(src, "Descriptor.java");
+        FileUtils.writeStringToFile(base, BASE, "UTF-8");
+        FileUtils.writeStringToFile(descriptor, DESCRIPTOR, "UTF-8");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        String proc = processor ? XMapProcessor.class.getName() : null;
+        List<String> args = Arrays.asList("-d", out.getPath(), "-cp",
+                System.getProperty("java.class.path"),
+                processor ? "-processor" : "-proc:none",
+                processor ? proc : "-nowarn", base.getPath(),
+                descriptor.getPath());
+        int res = compiler.run(null, null, null,
+                args.toArray(new String[args.size()]));
+        assertEquals(0, res);
+        return new URLClassLoader(new URL[] { out.toURI().toURL() },
+                getClass().getClassLoader());
+    }
+
+    protected void checkLoad(Class<?> klass) throws Exception {
+        XMap xmap = new XMap();
+        xmap.register(klass);
+        Object ob = xmap.load(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        assertEquals("d1", klass.getMethod("getId").invoke(ob));
+        assertEquals("foo", get(ob, "name"));
+        assertEquals(Integer.valueOf(3), get(ob, "order"));
+        assertTrue(Arrays.equals(new String[] { "a", "b" },
+                (String[]) get(ob, "items")));
+        assertEquals(Arrays.asList(1, 2), get(ob, "values"));
+        assertEquals("*bar", get(ob, "label"));
+        assertEquals("baz", get(ob, "note"));
+    }
+
+    protected static Object get(Object ob, String name) throws Exception {
+        Field field = ob.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(ob);
+    }
+
+    @Test
+    public void testGeneratedBinder() throws Exception {
+        ClassLoader cl = compile(true);
+        Class<?> klass = cl.loadClass("p.Descriptor");
+        Class<?> binderClass = cl.loadClass("p.Descriptor$XMapBinder");
+        XMapBinder binder = (XMapBinder) binderClass.getDeclaredConstructor().newInstance();
+        assertSame(klass, binder.getBoundClass());
+        XObject xob = binder.getObjectAnnotation();
+        assertEquals(XObject.class, xob.annotationType());
+        assertEquals("descriptor", xob.value());
+        assertTrue(Arrays.equals(new String[] { "name" }, xob.order()));
+        assertNotNull(cl.loadClass("p.Descriptor$Nested$XMapBinder"));
+        // no binder for inner classes
+        try {
+            cl.loadClass("p.Descriptor$Inner$XMapBinder");
+            throw new AssertionError("unexpected binder");
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+        // private setters only are accessed by reflection
+        String source = FileUtils.readFileToString(new File(dir,
+                "classes/p/Descriptor$XMapBinder.java"), "UTF-8");
+        assertTrue(source.contains(".setLabel((java.lang.String) value)"));
+        assertTrue(source.contains(".getLabel()"));
+        assertTrue(source.contains("method(0, \"setNote\", \"java.lang.String\")"));
+        checkLoad(klass);
+    }
+
+    @Test
+    public void testReflectiveFallback() throws Exception {
+        ClassLoader cl = compile(false);
+        Class<?> klass = cl.loadClass("p.Descriptor");
+        try {
+            cl.loadClass("p.Descriptor$XMapBinder");
+            throw new AssertionError("unexpected binder");
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+        checkLoad(klass);
+    }
+
+}